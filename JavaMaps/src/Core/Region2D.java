@@ -33,6 +33,7 @@
 package Core;
 import java.io.*;
 import java.lang.*;
+import java.util.List;
 
 public final class Region2D implements Serializable, Cloneable {
     private double x_;
@@ -150,6 +151,36 @@ public final class Region2D implements Serializable, Cloneable {
                                region.width_, region.height_);
      }
 
+     // Adds to the list the regions (at most 4) that cover the part
+     // of this region which is not found in the specified region.
+     public void Subtract(Region2D region, List<Region2D> parts) {
+         if(!IntersectsWith(region)) {
+             parts.add(new Region2D(this));
+             return;
+         }
+
+         double left = Math.max(x_, region.x_);
+         double right = Math.min(Right(), region.Right());
+
+         if(x_ < region.x_) {
+             parts.add(new Region2D(x_, y_, region.x_ - x_, height_));
+         }
+
+         if(Right() > region.Right()) {
+             parts.add(new Region2D(region.Right(), y_,
+                                    Right() - region.Right(), height_));
+         }
+
+         if(y_ < region.y_) {
+             parts.add(new Region2D(left, y_, right - left, region.y_ - y_));
+         }
+
+         if(Bottom() > region.Bottom()) {
+             parts.add(new Region2D(left, region.Bottom(), right - left,
+                                    Bottom() - region.Bottom()));
+         }
+     }
+
      @Override
      public boolean equals(Object obj) {
          if(obj == null) return false;
@@ -221,6 +221,8 @@ public final class LineEditor implements IRenderer {
         frontPoints_ = new ArrayList<PointVisual>();
         pointFont_ = new Font("Dialog", Font.ITALIC, (int)FONT_SIZE);
 
+        // The streets must be stored in a tree that can be modified.
+        streetRenderer_.AttachEditor();
         LoadPoints();
     }
 
@@ -498,8 +500,7 @@ public final class LineEditor implements IRenderer {
         }
 
         // Activate antialiasing (makes the lines look nicer).
-        VolatileImage buffer = view.GetBuffer(this);
-        Graphics2D g = buffer.createGraphics();
+        Graphics2D g = view.CreateGraphics(this);
         g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
                            RenderingHints.VALUE_ANTIALIAS_ON);
 
@@ -224,6 +224,10 @@ public final class MarkerEditor implements IRenderer {
         selectedMarkerStroke_ = new BasicStroke(SELECTED_MARKER_WIDTH);
         SetLayerColors(renderers);
         LoadMarkers();
+
+        for(MarkerRenderer renderer : renderers) {
+            renderer.SetEditable(true);
+        }
     }
 
     /*
@@ -392,8 +396,7 @@ public final class MarkerEditor implements IRenderer {
         }
 
         // Activate antialiasing.
-        VolatileImage buffer = view.GetBuffer(this);
-        Graphics2D g = buffer.createGraphics();
+        Graphics2D g = view.CreateGraphics(this);
         g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
                            RenderingHints.VALUE_ANTIALIAS_ON);
 
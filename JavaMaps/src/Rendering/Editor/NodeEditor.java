@@ -688,8 +688,7 @@ public final class NodeEditor implements IRenderer {
         }
 
         // Activate antialiasing.
-        VolatileImage buffer = view.GetBuffer(this);
-        Graphics2D g = buffer.createGraphics();
+        Graphics2D g = view.CreateGraphics(this);
         g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
                            RenderingHints.VALUE_ANTIALIAS_ON);
         g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL,
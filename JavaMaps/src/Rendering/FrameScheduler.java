@@ -0,0 +1,190 @@
+// Copyright (c) 2010 Gratian Lup. All rights reserved.
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//
+// * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following
+// disclaimer in the documentation and/or other materials provided
+// with the distribution.
+//
+// * The name "JavaMaps" must not be used to endorse or promote
+// products derived from this software without prior written permission.
+//
+// * Products derived from this software may not be called "JavaMaps" nor
+// may "JavaMaps" appear in their names without prior written
+// permission of the author.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package Rendering;
+import java.awt.event.*;
+
+// Merges all the requests to redraw the map (animations, loaded tiles,
+// mouse dragging, etc.) so that at most one frame is drawn for each
+// display interval. The time needed to draw the frames is measured and
+// if it is larger than the interval the next ticks are skipped.
+// The timer is stopped when there are no animations and no requests.
+// All methods must be called on the GUI thread.
+public final class FrameScheduler {
+    // The default interval between two frames (~60 frames per second).
+    public static final int FRAME_INTERVAL = 16;
+
+    // If a requested frame has not been drawn after this number
+    // of ticks (the control is hidden, for example) another one is requested.
+    private static final int MAX_PENDING_TICKS = 30;
+
+    // Forces the host to update its state and draw the frame.
+    class FrameUpdater implements ActionListener {
+        public void actionPerformed(ActionEvent e) {
+            Tick();
+        }
+    }
+
+    /*
+     ** Members.
+     */
+    private IFrameHost host_;
+    private javax.swing.Timer timer_;
+    private long interval_;       // In nanoseconds.
+    private boolean invalidated_;
+    private boolean framePending_;
+    private int pendingTicks_;
+    private int skipTicks_;
+    private long frameStart_;
+    private long frameTime_;      // In nanoseconds.
+    private double averageTime_;  // In nanoseconds.
+    private long frameCount_;
+    private long skippedTicks_;
+
+    /*
+     ** Constructors.
+     */
+    public FrameScheduler(IFrameHost host) {
+        this(host, FRAME_INTERVAL);
+    }
+
+    public FrameScheduler(IFrameHost host, int interval) {
+        assert(host != null);
+        assert(interval > 0);
+        // ------------------------------------------------
+        host_ = host;
+        interval_ = interval * 1000000L;
+        timer_ = new javax.swing.Timer(interval, new FrameUpdater());
+        timer_.setInitialDelay(0);
+        timer_.setCoalesce(true);
+    }
+
+    /*
+     ** Public methods.
+     */
+    public void Invalidate() {
+        // A new frame is drawn at the next tick.
+        invalidated_ = true;
+        Start();
+    }
+
+    public void Start() {
+        if(!timer_.isRunning()) {
+            timer_.start();
+        }
+    }
+
+    public void Stop() {
+        timer_.stop();
+        invalidated_ = false;
+        framePending_ = false;
+        skipTicks_ = 0;
+    }
+
+    public boolean Running() {
+        return timer_.isRunning();
+    }
+
+    public void FrameStarted() {
+        frameStart_ = System.nanoTime();
+    }
+
+    public void FrameCompleted() {
+        // Measure the time needed to draw the frame. If it is larger
+        // than the interval the next ticks are skipped, this keeps
+        // the frame rate constant instead of having the frames delayed.
+        frameTime_ = System.nanoTime() - frameStart_;
+        averageTime_ = (frameCount_ == 0) ? frameTime_ :
+                       (averageTime_ * 0.9) + (frameTime_ * 0.1);
+        frameCount_++;
+        framePending_ = false;
+
+        if(frameTime_ > interval_) {
+            skipTicks_ = (int)(frameTime_ / interval_);
+        }
+    }
+
+    public double FrameTime() {
+        return frameTime_ / 1000000.0; // In milliseconds.
+    }
+
+    public double AverageFrameTime() {
+        return averageTime_ / 1000000.0; // In milliseconds.
+    }
+
+    public long FrameCount() {
+        return frameCount_;
+    }
+
+    public long SkippedTicks() {
+        return skippedTicks_;
+    }
+
+    public int Interval() {
+        return (int)(interval_ / 1000000L);
+    }
+
+    /*
+     ** Private methods.
+     */
+    private void Tick() {
+        if(framePending_) {
+            // The previous frame has not been drawn yet,
+            // there is no reason to request another one.
+            pendingTicks_++;
+
+            if(pendingTicks_ < MAX_PENDING_TICKS) {
+                return;
+            }
+
+            framePending_ = false;
+        }
+
+        if(skipTicks_ > 0) {
+            // The last frame took too long to draw.
+            skipTicks_--;
+            skippedTicks_++;
+            return;
+        }
+
+        if(host_.UpdateFrame() || invalidated_) {
+            invalidated_ = false;
+            framePending_ = true;
+            pendingTicks_ = 0;
+            host_.DrawFrame();
+        }
+        else {
+            // Nothing changed, stop until the next request.
+            timer_.stop();
+        }
+    }
+}
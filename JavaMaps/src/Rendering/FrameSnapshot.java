@@ -0,0 +1,129 @@
+// Copyright (c) 2010 Gratian Lup. All rights reserved.
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//
+// * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following
+// disclaimer in the documentation and/or other materials provided
+// with the distribution.
+//
+// * The name "JavaMaps" must not be used to endorse or promote
+// products derived from this software without prior written permission.
+//
+// * Products derived from this software may not be called "JavaMaps" nor
+// may "JavaMaps" appear in their names without prior written
+// permission of the author.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package Rendering;
+import Core.*;
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.*;
+
+// A copy of a frame, together with the view position at the moment
+// it was captured. Used during zoom animations, when the snapshot is
+// scaled instead of drawing all the layers at each step.
+public final class FrameSnapshot {
+    private BufferedImage image_;
+    private Region2D bounds_;
+    private Region2D maxBounds_;
+
+    /*
+     ** Constructors.
+     */
+    private FrameSnapshot(BufferedImage image, Region2D bounds, Region2D maxBounds) {
+        image_ = image;
+        bounds_ = bounds;
+        maxBounds_ = maxBounds;
+    }
+
+    /*
+     ** Public methods.
+     */
+    public static FrameSnapshot Capture(View view, GraphicsConfiguration config) {
+        assert(view != null);
+        assert(config != null);
+        // ------------------------------------------------
+        // Copy the frame currently found in the drawing buffer.
+        // If the buffer has been lost there is nothing to capture.
+        Image buffer = view.Buffer();
+        Region2D bounds = view.Bounds();
+        int width = (int)bounds.Width();
+        int height = (int)bounds.Height();
+
+        if((buffer == null) || view.DrawingFailed() ||
+           (width <= 0) || (height <= 0)) {
+            return null;
+        }
+
+        BufferedImage image = config.createCompatibleImage(width, height,
+                                                           Transparency.OPAQUE);
+        Graphics2D g = image.createGraphics();
+        g.drawImage(buffer, 0, 0, width, height, 0, 0, width, height, null);
+        g.dispose();
+
+        return new FrameSnapshot(image, new Region2D(bounds),
+                                 new Region2D(view.MaxBounds()));
+    }
+
+    public void Draw(View view, double opacity) {
+        // Draw the snapshot scaled to match the current zoom level.
+        // A point found at (x, y) in the snapshot is now found at
+        // ((x + left) * scale - view left, (y + top) * scale - view top).
+        Graphics2D g = view.CreateGraphics(null);
+        Region2D bounds = view.Bounds();
+        Region2D maxBounds = view.MaxBounds();
+        double scaleX = maxBounds.Width() / maxBounds_.Width();
+        double scaleY = maxBounds.Height() / maxBounds_.Height();
+        double left = (bounds_.Left() * scaleX) - bounds.Left();
+        double top = (bounds_.Top() * scaleY) - bounds.Top();
+        double right = left + (bounds_.Width() * scaleX);
+        double bottom = top + (bounds_.Height() * scaleY);
+
+        if(opacity < 1.0) {
+            g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER,
+                                                      (float)opacity));
+        }
+        else {
+            // The snapshot replaces the frame, the regions
+            // not covered by it (when zooming out) remain empty.
+            g.clearRect(0, 0, (int)view.ViewBounds().Width(),
+                              (int)view.ViewBounds().Height());
+        }
+
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                           view.HighQuality() ? RenderingHints.VALUE_INTERPOLATION_BILINEAR :
+                                                RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        g.drawImage(image_, (int)left, (int)top, (int)right, (int)bottom,
+                    0, 0, image_.getWidth(), image_.getHeight(), null);
+        g.dispose();
+    }
+
+    public Region2D Bounds() {
+        return bounds_;
+    }
+
+    public Region2D MaxBounds() {
+        return maxBounds_;
+    }
+}
@@ -32,6 +32,7 @@
 
 package Rendering;
 import Core.*;
+import Rendering.Utils.IndexStore;
 
 public interface IRendererHost {
     void AddAnimation(AnimationBase animation);
@@ -42,4 +43,7 @@ public interface IRendererHost {
     Action SendAction(Action action);
     void Pan(Point delta, long duration);
     void Zoom(double amount, long duration);
+
+    // Returns null if the built indexes are not saved.
+    IndexStore IndexStore();
 }
@@ -49,6 +49,7 @@ import java.text.DecimalFormat;
 public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
     private static final long ZOOM_DURATION = 500;
     private static final long PAN_DURATION = 1000;
+    private static final long SNAPSHOT_BLEND_DURATION = 200;
 
     // Used to sort the drawing modules based on their ZIndex.
     class  RendererComparator implements Comparator {
@@ -172,8 +173,8 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
                                         lastPosition_.Y() - adjPosition.Y());
                 lastPosition_ = adjPosition;
                 view_.Bounds().Offset(delta);
-                LimitBounds(view_);
-                repaint();
+                view_.LimitBounds();
+                Invalidate();
             }
         }
 
@@ -225,7 +226,7 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
                                                 view_.Bounds().Top() + dy,
                                                 view_.Bounds().Width(),
                                                 view_.Bounds().Height()));
-                    LimitBounds(temp);
+                    temp.LimitBounds();
                     dx = temp.Bounds().Left() - view_.Bounds().Left();
                     dy = temp.Bounds().Top() - view_.Bounds().Top();
                     ExpInterpolation.Mode mode = ExpInterpolation.Mode.EaseOut;
@@ -262,16 +263,19 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
         }
     }
 
-    // Forces the control to update the animation state
+    // Called by the frame scheduler to update the animation state
     // and ultimately redraw the modified screen regions.
-    class AnimationUpdater implements ActionListener {
-        public void actionPerformed(ActionEvent e) {
+    class FrameUpdater implements IFrameHost {
+        public boolean UpdateFrame() {
+            // A frame is needed while there are animations,
+            // including the one in which the last animation completes.
+            boolean animated = !animations_.isEmpty();
             UpdateAnimations();
+            return animated;
+        }
 
-            // Stop the timer when there are no animations.
-            if(animations_.isEmpty()) {
-                ((javax.swing.Timer)e.getSource()).stop();
-            }
+        public void DrawFrame() {
+            repaint();
         }
     }
 
@@ -293,9 +297,13 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
     private Point lastPosition_;
     private Point startPosition_;
     private long draggingStart_;
-    javax.swing.Timer animationTimer_;
+    FrameScheduler scheduler_;
+    RenderProfiler profiler_;
     PanAnimation panAnim_;
     ZoomAnimation zoomAnim_;
+    ZoomMode zoomMode_;
+    FrameSnapshot snapshot_;
+    SnapshotAnimation snapshotAnim_;
     long lastPanCommand_;
     Point lastPanDelta_;
     HashMap<IRenderer, AnimationBase> layerAnimations_;
@@ -304,6 +312,7 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
     OverlayRenderer overlay_;
     MapControls controls_;
     boolean loaded_;
+    IndexStore indexStore_;
 
     /*
      ** Constructors.
@@ -317,6 +326,9 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
         animations_ = new ArrayList<AnimationBase>(16);
         layerAnimations_ = new HashMap<IRenderer, AnimationBase>(8);
         debugFont_ = new Font("Dialog", Font.PLAIN, 14);
+        zoomMode_ = ZoomMode.Interpolated;
+        scheduler_ = new FrameScheduler(new FrameUpdater());
+        profiler_ = new RenderProfiler();
     }
 
     /*
@@ -328,8 +340,11 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
         // ------------------------------------------------
         renderers_.clear();
         prefetchers_.clear();
+        profiler_.Reset();
         animations_.clear();
         layerAnimations_.clear();
+        snapshot_ = null;
+        snapshotAnim_ = null;
 
         provider_ = provider;
         projection_ = provider.Projection();
@@ -387,6 +402,17 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
         return provider_; 
     }
 
+    public IndexStore IndexStore() {
+        return indexStore_;
+    }
+
+    // The indexes built by the render modules are saved in the store
+    // and loaded from it by the next LoadMap with the same map.
+    // Should be set before the map is loaded, null disables saving.
+    public void SetIndexStore(IndexStore value) {
+        indexStore_ = value;
+    }
+
     public Action SendAction(Rendering.Action action) {
         host_.ActionPerformed(action);
         return action;
@@ -397,7 +423,7 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
         // ------------------------------------------------
         renderers_.add(renderer);
         SortRenderers();
-        repaint();
+        Invalidate();
     }
 
     public void AddLayer(ILayer layer) {
@@ -405,14 +431,15 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
         // ------------------------------------------------
         renderers_.add(RendererFactory.Create(layer, this));
         SortRenderers();
-        repaint();
+        Invalidate();
     }
 
     public void RemoveRenderer(IRenderer renderer) {
         assert(renderer != null);
         // ------------------------------------------------
         renderers_.remove(renderer);
-        repaint();
+        profiler_.Remove(renderer);
+        Invalidate();
     }
 
     public void RemoveLayer(ILayer layer) {
@@ -420,8 +447,8 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
         // ------------------------------------------------
         for(int i = 0; i < renderers_.size(); i++) {
             if(renderers_.get(i).Layer() == layer) {
-                renderers_.remove(i);
-                repaint();
+                profiler_.Remove(renderers_.remove(i));
+                Invalidate();
                 break;
             }
         }
@@ -468,7 +495,7 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
         }
         else {
             renderer.SetVisible(true);
-            repaint();
+            Invalidate();
         }
     }
 
@@ -503,7 +530,7 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
         }
         else {
             renderer.SetVisible(false);
-            repaint();
+            Invalidate();
         }
     }
 
@@ -539,7 +566,7 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
                                         view_.Bounds().Top() + delta.Y(),
                                         view_.Bounds().Width(),
                                         view_.Bounds().Height()));
-            LimitBounds(temp);
+            temp.LimitBounds();
             double dx = temp.Bounds().Left() - view_.Bounds().Left();
             double dy = temp.Bounds().Top() - view_.Bounds().Top();
             ExpInterpolation.Mode mode = ExpInterpolation.Mode.EaseInOut;
@@ -556,8 +583,8 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
         else {
             // Do the panning without any animation.
             view_.Bounds().Offset(delta);
-            LimitBounds(view_);
-            repaint();
+            view_.LimitBounds();
+            Invalidate();
         }
     }
 
@@ -594,7 +621,7 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
         bounds.Offset(dx, dy);
         bounds.SetWidth(Math.min(viewBounds.Width(), newWidth));
         bounds.SetHeight(Math.min(viewBounds.Height(), newHeight));
-        LimitBounds(temp);
+        temp.LimitBounds();
         return temp;
     }
 
@@ -604,7 +631,7 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
         view_.SetZoom(target.Zoom());
         view_.SetLeftMargin(target.LeftMargin());
         view_.SetTopMargin(target.TopMargin());
-        repaint();
+        Invalidate();
     }
 
     public void Zoom(double amount, long duration) {
@@ -617,6 +644,11 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
     public void Zoom(double amount, Point origin, long duration) {
         assert(duration >= 0);
         StopPanning();
+
+        if(zoomMode_ == ZoomMode.Snapshot) {
+            CaptureSnapshot();
+        }
+
         StopZooming();
 
         // Adjust the origin coordinates.
@@ -656,6 +688,19 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
     }
 
 
+    public ZoomMode ZoomMode() {
+        return zoomMode_;
+    }
+
+    public void SetZoomMode(ZoomMode value) {
+        zoomMode_ = value;
+
+        if(zoomMode_ != ZoomMode.Snapshot) {
+            StopSnapshot();
+            Invalidate();
+        }
+    }
+
     public void ShowRegion(Region region) {
         // TODO
     }
@@ -689,7 +734,7 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
                                            Math.min(width, view_.MaxBounds().Width()),
                                            Math.min(height, view_.MaxBounds().Height()));
             view_.SetBounds(bounds);
-            LimitBounds(view_);
+            view_.LimitBounds();
 
             // Update the position of the controls.
             if(controls_ != null) {
@@ -698,7 +743,7 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
 
             buffersInvalidated_ = true;
             CreateBuffers();
-            repaint();
+            Invalidate();
         }
        catch(Exception e) {
            // TODO
@@ -708,19 +753,20 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
     public void AddAnimation(AnimationBase animation) {
         animations_.add(animation);
         animation.Start();
+        UpdateRenderQuality();
 
-        // Start the timer if this is the first animation.
-        if(animations_.size() == 1) {
-            StartTimer();
-        }
+        // Make sure frames are drawn while the animation runs.
+        // The scheduler stops by itself when there are no more animations.
+        scheduler_.Start();
     }
 
     public void RemoveAnimation(AnimationBase animation) {
         animations_.remove(animation);
 
-        // Stop the timer if this was the last animation.
-        if(animations_.isEmpty()) {
-            StopTimer();
+        // If the view is not animated anymore it must be
+        // redrawn at full quality.
+        if(UpdateRenderQuality()) {
+            Invalidate();
         }
     }
 
@@ -729,12 +775,16 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
     }
 
     public void Repaint() {
-        repaint();
+        Invalidate();
     }
 
     public void SetDebug(boolean value) {
         showDebug_ = value;
-        repaint();
+        Invalidate();
+    }
+
+    public RenderProfiler Profiler() {
+        return profiler_;
     }
 
     /*
@@ -753,55 +803,35 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
         }
     }
 
-    private void StartTimer() {
-        // Create a new time if not already created.
-        // The timer resolution is enough to have smooth animations.
-        if(animationTimer_ == null) {
-            animationTimer_ = new javax.swing.Timer(16, new AnimationUpdater());
-            animationTimer_.start();
-        }
-        else {
-            animationTimer_.restart();
-        }
+    private void Invalidate() {
+        // The map is redrawn at the next frame. Multiple requests
+        // made during the same frame interval result in a single frame.
+        scheduler_.Invalidate();
     }
 
-    private void StopTimer() {
-        assert(animationTimer_ != null);
-        // ------------------------------------------------
-        animationTimer_.stop();
-    }
-
-    private void LimitBounds(View view) {
-        // Limit the view to a region valid for the current zoom level.
-        Region2D bounds = view.Bounds();
-        Region2D viewBounds = view.ViewBounds();
-
-        // Handle the case when the map is smaller than the control.
-        if(bounds.Width() < viewBounds.Width()) {
-            view.SetLeftMargin(viewBounds.Width() / 2 - bounds.Width() / 2);
-        }
-        else {
-            view.SetLeftMargin(0);
-        }
+    private boolean UpdateRenderQuality() {
+        // While the view is panned or zoomed by an animation the renderers
+        // draw at a lower quality. The full quality is restored
+        // when the last of these animations completes.
+        // Returns 'true' if the quality has been changed.
+        RenderQuality quality = RenderQuality.High;
 
-        if(bounds.Height() < viewBounds.Height()) {
-            view.SetTopMargin(viewBounds.Height() / 2 - bounds.Height() / 2);
-        }
-        else {
-            view.SetTopMargin(0);
-        }
+        for(int i = 0; i < animations_.size(); i++) {
+            AnimationBase animation = animations_.get(i);
 
-        // Don't let the map to be moved above the bottop-right edge.
-        if(bounds.Right() > view.MaxBounds().Right()) {
-            bounds.SetLeft(view.MaxBounds().Right() - bounds.Width());
+            if((animation instanceof PanAnimation) ||
+               (animation instanceof ZoomAnimation)) {
+                quality = RenderQuality.Low;
+                break;
+            }
         }
 
-        if(bounds.Bottom() > view.MaxBounds().Bottom()) {
-            bounds.SetTop(view.MaxBounds().Bottom() - bounds.Height());
+        if((view_ == null) || (view_.Quality() == quality)) {
+            return false;
         }
 
-        bounds.SetLeft(Math.max(0, bounds.Left()));
-        bounds.SetTop(Math.max(0, bounds.Top()));
+        view_.SetQuality(quality);
+        return true;
     }
 
     private void StopPanning() {
@@ -818,6 +848,39 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
         }
     }
 
+    private void CaptureSnapshot() {
+        // If a zoom animation that uses a snapshot is still running
+        // the snapshot is kept (the frame currently in the buffer
+        // is a scaled version of it, so it has a lower quality).
+        if((zoomAnim_ != null) && (snapshot_ != null)) {
+            return;
+        }
+
+        StopSnapshot();
+        snapshot_ = FrameSnapshot.Capture(view_, getGraphicsConfiguration());
+    }
+
+    private void StopSnapshot() {
+        if(snapshotAnim_ != null) {
+            RemoveAnimation(snapshotAnim_);
+            snapshotAnim_ = null;
+        }
+
+        snapshot_ = null;
+    }
+
+    private void BlendSnapshot() {
+        // The zoom animation completed, the final frame is drawn
+        // and the snapshot above it is faded out.
+        snapshotAnim_ = new SnapshotAnimation(this, snapshot_, SNAPSHOT_BLEND_DURATION,
+                                              new LinearInterpolation());
+        AddAnimation(snapshotAnim_);
+    }
+
+    private boolean SnapshotZooming() {
+        return (snapshot_ != null) && (zoomAnim_ != null);
+    }
+
     private void UpdateAnimations() {
         // Updates the state of all animations, notifying the parent
         // when one of them completes so they can be removed.
@@ -836,8 +899,9 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
             }
         }
 
-        // Force a repaint to view the updated map.
-        repaint();
+        // The scheduler draws a frame to view the updated map. If the last
+        // pan/zoom animation completed this frame is drawn at full quality.
+        UpdateRenderQuality();
     }
 
     public void AnimationCompleted(AnimationBase animation) {
@@ -847,6 +911,14 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
         }
         else if(animation == zoomAnim_) {
             zoomAnim_ = null;
+
+            if(snapshot_ != null) {
+                BlendSnapshot();
+            }
+        }
+        else if(animation == snapshotAnim_) {
+            snapshotAnim_ = null;
+            snapshot_ = null;
         }
 
         if(animation.getClass().equals(LayerAnimation.class)) {
@@ -951,11 +1023,21 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
     }
 
     private void DisplayDebugInfo(Graphics2D g) {
+        // The panel is extended with one line for each visible
+        // render module that has timings (50/95/99 percentiles).
+        ArrayList<IRenderer> timedRenderers = new ArrayList<IRenderer>();
+        for(IRenderer rend : renderers_) {
+            if(rend.Visible() && profiler_.HasTimings(rend)) {
+                timedRenderers.add(rend);
+            }
+        }
+
+        int height = 202 + (timedRenderers.size() * 22);
         g.setColor(new Color(255, 255, 255, 220));
-        g.fillRect(-1, getHeight() - 200, 350, 180);
+        g.fillRect(-1, getHeight() - height - 20, 350, height);
         g.setColor(Color.BLACK);
-        g.drawRect(-1, getHeight() - 200, 350, 180);
-        int y = getHeight() - 180;
+        g.drawRect(-1, getHeight() - height - 20, 350, height);
+        int y = getHeight() - height;
 
         DecimalFormat oneDigit = new DecimalFormat("#,##0.0");
         g.drawString("Zoom: " + oneDigit.format(view_.Zoom()), 10, y);
@@ -981,6 +1063,17 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
         g.drawString("Visible rend.: " + visibleCount, 10, y);
         y += 22;
         g.drawString("Prefetchers: " + EnabledPrefetchers(), 10, y);
+        y += 22;
+        g.drawString("Frame time: " + oneDigit.format(scheduler_.AverageFrameTime()) +
+                     " ms (skipped " + scheduler_.SkippedTicks() + ")", 10, y);
+
+        for(IRenderer rend : timedRenderers) {
+            y += 22;
+            g.drawString(RenderProfiler.LayerName(rend) + ": " +
+                         oneDigit.format(profiler_.Percentile(rend, 50)) + " / " +
+                         oneDigit.format(profiler_.Percentile(rend, 95)) + " / " +
+                         oneDigit.format(profiler_.Percentile(rend, 99)) + " ms", 10, y);
+        }
     }
 
     private void UpdatePrefetchers() {
@@ -1004,7 +1097,7 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
         for(IPrefetcher prefetcher : prefetchers_) {
             prefetcher.SetEnabled(state);
         }
-        repaint();
+        Invalidate();
     }
 
     @Override
@@ -1015,7 +1108,9 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
         }
 
         // Update the current view and notify the prefetchers.
-        LimitBounds(view_);
+        scheduler_.FrameStarted();
+        profiler_.FrameStarted();
+        view_.LimitBounds();
         view_.ComputeAdjacentBounds(mapBounds_);
         UpdatePrefetchers();
 
@@ -1033,12 +1128,26 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
             g.clearRect(0, 0, (int)view_.ViewBounds().Width(),
                               (int)view_.ViewBounds().Height());
 
-            int count = renderers_.size();
-            
-            for(int i = 0; i < count; i++) {
-                IRenderer renderer = renderers_.get(i);
-                if(renderer.Visible()) {
-                    renderer.Render(view_);
+            if(SnapshotZooming()) {
+                // While zooming only the snapshot of the frame shown before
+                // the zoom started is scaled, the layers are not drawn at all.
+                snapshot_.Draw(view_, 1.0);
+            }
+            else {
+                int count = renderers_.size();
+
+                for(int i = 0; i < count; i++) {
+                    IRenderer renderer = renderers_.get(i);
+                    if(renderer.Visible()) {
+                        long start = System.nanoTime();
+                        renderer.Render(view_);
+                        profiler_.RendererCompleted(renderer, System.nanoTime() - start);
+                    }
+                }
+
+                if(snapshotAnim_ != null) {
+                    // The final frame is blended in above the snapshot.
+                    snapshot_.Draw(view_, snapshotAnim_.Opacity());
                 }
             }
 
@@ -1052,5 +1161,8 @@ public class MapViewer extends JPanel implements IAnimatable, IRendererHost {
             // Render the controls above all render modules.
             controls_.Render(g, view_);
         } while(view_.DrawingFailed());
+
+        scheduler_.FrameCompleted();
+        profiler_.FrameCompleted(view_);
     }
 }
@@ -0,0 +1,274 @@
+// Copyright (c) 2010 Gratian Lup. All rights reserved.
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//
+// * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following
+// disclaimer in the documentation and/or other materials provided
+// with the distribution.
+//
+// * The name "JavaMaps" must not be used to endorse or promote
+// products derived from this software without prior written permission.
+//
+// * Products derived from this software may not be called "JavaMaps" nor
+// may "JavaMaps" appear in their names without prior written
+// permission of the author.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package Rendering;
+import Core.*;
+import Rendering.Renderers.*;
+import Rendering.Utils.IndexStore;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.*;
+
+// Renders the layers of a map into an image, without a MapViewer
+// and without needing a display (works with java.awt.headless=true).
+// Can be used to create static thumbnails or to measure rendering
+// performance. The render modules are the same ones used by the viewer
+// and are kept between calls, so rendering the same map many times
+// is cheap. An instance should be used by a single thread at a time.
+public final class OffscreenMapRenderer implements IRendererHost {
+    // Sorts the render modules based on their ZIndex.
+    class RendererComparator implements Comparator<IRenderer> {
+        public int compare(IRenderer renderer1, IRenderer renderer2) {
+            return renderer1.ZIndex() - renderer2.ZIndex();
+        }
+    }
+
+    /*
+     ** Members.
+     */
+    private IMapProvider provider_;
+    private IProjection projection_;
+    private Region2D[] mapBounds_;
+    private ArrayList<IRenderer> renderers_;
+    private OverlayRenderer overlay_;
+    private RenderProfiler profiler_;
+    private RenderQuality quality_;
+    private Color background_;
+    private IndexStore indexStore_;
+
+    /*
+     ** Constructors.
+     */
+    public OffscreenMapRenderer(IMapProvider provider) {
+        this(provider, null);
+    }
+
+    // The indexes built by the render modules are saved in the store
+    // and loaded from it when the same map is rendered again.
+    public OffscreenMapRenderer(IMapProvider provider, IndexStore indexStore) {
+        assert(provider != null);
+        assert(provider.ZoomLevels() > 0);
+        // ------------------------------------------------
+        provider_ = provider;
+        indexStore_ = indexStore;
+        projection_ = provider.Projection();
+        profiler_ = new RenderProfiler();
+        quality_ = RenderQuality.High;
+        background_ = Color.WHITE;
+        renderers_ = new ArrayList<IRenderer>();
+
+        mapBounds_ = new Region2D[provider.ZoomLevels()];
+        for(int i = 0; i < mapBounds_.length; i++) {
+            mapBounds_[i] = provider.MapBounds(i);
+        }
+
+        // Create the render modules for all layers of the map.
+        // The images must be loaded before the frame is completed,
+        // there is no later redraw like in the viewer.
+        overlay_ = new OverlayRenderer(this);
+        renderers_.add(overlay_);
+        Iterator<ILayer> layerIt = provider.GetLayerIterator();
+
+        while(layerIt.hasNext()) {
+            IRenderer renderer = RendererFactory.Create(layerIt.next(), this);
+
+            if(renderer == null) {
+                continue;
+            }
+            else if(renderer instanceof ImageRenderer) {
+                ((ImageRenderer)renderer).SetSynchronousLoading(true);
+            }
+
+            renderers_.add(renderer);
+        }
+
+        Collections.sort(renderers_, new RendererComparator());
+    }
+
+    /*
+     ** Public methods.
+     */
+    public BufferedImage Render(Region region, int width, int height) {
+        assert(region != null);
+        assert(width > 0 && height > 0);
+        // ------------------------------------------------
+        // Select the largest zoom level at which the whole region
+        // fits into the image, then center the image on the region.
+        int zoom = 0;
+
+        for(int i = mapBounds_.length - 1; i >= 0; i--) {
+            Region2D bounds = projection_.FromRegion(region, i);
+
+            if((bounds.Width() <= width) && (bounds.Height() <= height)) {
+                zoom = i;
+                break;
+            }
+        }
+
+        Region2D bounds = projection_.FromRegion(region, zoom);
+        Point center = new Point(bounds.Left() + (bounds.Width() / 2),
+                                 bounds.Top() + (bounds.Height() / 2));
+        return RenderImpl(center, zoom, width, height);
+    }
+
+    public BufferedImage Render(Coordinates center, int zoom, int width, int height) {
+        assert(center != null);
+        assert(zoom >= 0 && zoom < mapBounds_.length);
+        assert(width > 0 && height > 0);
+        // ------------------------------------------------
+        return RenderImpl(projection_.FromCoordinates(center, zoom),
+                          zoom, width, height);
+    }
+
+    public BufferedImage Render(Point center, int zoom, int width, int height) {
+        assert(center != null);
+        assert(zoom >= 0 && zoom < mapBounds_.length);
+        assert(width > 0 && height > 0);
+        // ------------------------------------------------
+        // The center is given in pixels, at the specified zoom level.
+        return RenderImpl(center, zoom, width, height);
+    }
+
+    public Iterator<IRenderer> Renderers() {
+        return renderers_.iterator();
+    }
+
+    public RenderProfiler Profiler() {
+        return profiler_;
+    }
+
+    public RenderQuality Quality() {
+        return quality_;
+    }
+
+    public void SetQuality(RenderQuality value) {
+        quality_ = value;
+    }
+
+    public Color Background() {
+        return background_;
+    }
+
+    public void SetBackground(Color value) {
+        background_ = value;
+    }
+
+    /*
+     ** IRendererHost implementation.
+     */
+    public IMapProvider MapProvider() {
+        return provider_;
+    }
+
+    public IOverlayHost Overlay() {
+        return overlay_;
+    }
+
+    public IndexStore IndexStore() {
+        return indexStore_;
+    }
+
+    // There is a single frame, animations, actions
+    // and redraw requests are ignored.
+    public void AddAnimation(AnimationBase animation) {}
+    public void RemoveAnimation(AnimationBase animation) {}
+    public void Repaint() {}
+    public void Pan(Point delta, long duration) {}
+    public void Zoom(double amount, long duration) {}
+
+    public Action SendAction(Action action) {
+        return action;
+    }
+
+    /*
+     ** Private methods.
+     */
+    private View CreateView(Point center, int zoom, int width, int height) {
+        // Same setup as the view of the viewer, but the bounds
+        // are centered on the specified point.
+        View view = new View();
+        view.SetZoom(zoom);
+        view.SetMaxBounds(new Region2D(mapBounds_[zoom]));
+        view.SetViewBounds(new Region2D(0, 0, width, height));
+        view.SetQuality(quality_);
+
+        double boundsWidth = Math.min(width, view.MaxBounds().Width());
+        double boundsHeight = Math.min(height, view.MaxBounds().Height());
+        view.SetBounds(new Region2D(center.X() - (boundsWidth / 2),
+                                    center.Y() - (boundsHeight / 2),
+                                    boundsWidth, boundsHeight));
+        view.LimitBounds();
+        view.ComputeAdjacentBounds(mapBounds_);
+        return view;
+    }
+
+    private BufferedImage RenderImpl(Point center, int zoom, int width, int height) {
+        View view = CreateView(center, zoom, width, height);
+        BufferedImage buffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = buffer.createGraphics();
+        g.setBackground(background_);
+        g.clearRect(0, 0, width, height);
+        g.dispose();
+
+        // Draw the render modules in the order of their ZIndex.
+        view.SetOffscreenBuffer(buffer);
+        profiler_.FrameStarted();
+        int count = renderers_.size();
+
+        for(int i = 0; i < count; i++) {
+            IRenderer renderer = renderers_.get(i);
+
+            if(renderer.Visible()) {
+                long start = System.nanoTime();
+                renderer.Render(view);
+                profiler_.RendererCompleted(renderer, System.nanoTime() - start);
+            }
+        }
+
+        profiler_.FrameCompleted(view);
+
+        if((view.LeftMargin() == 0) && (view.TopMargin() == 0)) {
+            return buffer;
+        }
+
+        // The map is smaller than the image, it is centered
+        // the same way the viewer does it.
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        g = image.createGraphics();
+        g.setBackground(background_);
+        g.clearRect(0, 0, width, height);
+        view.Render(g, null);
+        g.dispose();
+        return image;
+    }
+}
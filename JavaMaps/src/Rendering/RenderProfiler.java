@@ -0,0 +1,278 @@
+// Copyright (c) 2010 Gratian Lup. All rights reserved.
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//
+// * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following
+// disclaimer in the documentation and/or other materials provided
+// with the distribution.
+//
+// * The name "JavaMaps" must not be used to endorse or promote
+// products derived from this software without prior written permission.
+//
+// * Products derived from this software may not be called "JavaMaps" nor
+// may "JavaMaps" appear in their names without prior written
+// permission of the author.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package Rendering;
+import Rendering.Utils.*;
+import java.lang.management.*;
+import java.util.*;
+import java.util.logging.*;
+import javax.management.*;
+
+// Measures the time needed by each render module to draw itself
+// and the time of the whole frame. Percentiles over the last frames
+// are available through this class and through JMX. When a frame takes
+// longer than a threshold a notification is sent with the zoom level,
+// the bounds of the view and the slowest render module.
+public final class RenderProfiler extends NotificationBroadcasterSupport
+                                  implements RenderProfilerMBean {
+    public static final String SLOW_FRAME_NOTIFICATION = "Rendering.SlowFrame";
+    public static final double DEFAULT_SLOW_FRAME_THRESHOLD = 50; // In milliseconds.
+
+    /*
+     ** Members.
+     */
+    private LinkedHashMap<IRenderer, TimeStatistics> layers_;
+    private TimeStatistics frames_;
+    private long frameStart_;
+    private IRenderer slowestRenderer_;
+    private long slowestTime_;
+    private long slowFrames_;
+    private long slowThreshold_;   // In nanoseconds.
+    private long sequence_;
+    private ObjectName objectName_;
+
+    /*
+     ** Constructors.
+     */
+    public RenderProfiler() {
+        layers_ = new LinkedHashMap<IRenderer, TimeStatistics>();
+        frames_ = new TimeStatistics();
+        SetSlowFrameThreshold(DEFAULT_SLOW_FRAME_THRESHOLD);
+    }
+
+    /*
+     ** Public methods.
+     */
+    public synchronized void FrameStarted() {
+        frameStart_ = System.nanoTime();
+        slowestRenderer_ = null;
+        slowestTime_ = 0;
+    }
+
+    public synchronized void RendererCompleted(IRenderer renderer, long time) {
+        assert(renderer != null);
+        // ------------------------------------------------
+        TimeStatistics stats = layers_.get(renderer);
+
+        if(stats == null) {
+            stats = new TimeStatistics();
+            layers_.put(renderer, stats);
+        }
+
+        stats.Add(time);
+
+        if(time > slowestTime_) {
+            slowestRenderer_ = renderer;
+            slowestTime_ = time;
+        }
+    }
+
+    public void FrameCompleted(View view) {
+        assert(view != null);
+        // ------------------------------------------------
+        Notification notification = null;
+
+        synchronized(this) {
+            long frameTime = System.nanoTime() - frameStart_;
+            frames_.Add(frameTime);
+
+            if(frameTime > slowThreshold_) {
+                slowFrames_++;
+                notification = CreateSlowFrameNotification(view, frameTime);
+            }
+        }
+
+        if(notification != null) {
+            // The listeners are not called while holding the lock.
+            sendNotification(notification);
+        }
+    }
+
+    public synchronized void Remove(IRenderer renderer) {
+        layers_.remove(renderer);
+    }
+
+    public synchronized boolean HasTimings(IRenderer renderer) {
+        return layers_.containsKey(renderer);
+    }
+
+    public synchronized double Percentile(IRenderer renderer, double percent) {
+        TimeStatistics stats = layers_.get(renderer);
+        return stats != null ? ToMilliseconds(stats.Percentile(percent)) : 0;
+    }
+
+    public void Register(String name) {
+        assert(name != null);
+        // ------------------------------------------------
+        if(objectName_ != null) {
+            return; // Already registered.
+        }
+
+        try {
+            ObjectName objectName = new ObjectName("Rendering:type=RenderProfiler,name=" +
+                                                   ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            objectName_ = objectName;
+        }
+        catch(JMException ex) {
+            Logger.getLogger(RenderProfiler.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    public void Unregister() {
+        if(objectName_ == null) {
+            return;
+        }
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName_);
+        }
+        catch(JMException ex) {
+            Logger.getLogger(RenderProfiler.class.getName()).log(Level.SEVERE, null, ex);
+        }
+
+        objectName_ = null;
+    }
+
+    public boolean Registered() {
+        return objectName_ != null;
+    }
+
+    public static String LayerName(IRenderer renderer) {
+        // Render modules without a layer (overlay, controls)
+        // are identified by their class name.
+        if((renderer.Layer() != null) && (renderer.Layer().Name() != null)) {
+            return renderer.Layer().Name();
+        }
+
+        return renderer.getClass().getSimpleName();
+    }
+
+    /*
+     ** RenderProfilerMBean implementation.
+     */
+    public synchronized long FrameCount() {
+        return frames_.TotalCount();
+    }
+
+    public synchronized long SlowFrameCount() {
+        return slowFrames_;
+    }
+
+    public synchronized double SlowFrameThreshold() {
+        return ToMilliseconds(slowThreshold_);
+    }
+
+    public synchronized void SetSlowFrameThreshold(double value) {
+        assert(value > 0);
+        // ------------------------------------------------
+        slowThreshold_ = (long)(value * 1000000.0);
+    }
+
+    public synchronized double FramePercentile(double percent) {
+        return ToMilliseconds(frames_.Percentile(percent));
+    }
+
+    public synchronized String[] LayerNames() {
+        String[] names = new String[layers_.size()];
+        int index = 0;
+
+        for(IRenderer renderer : layers_.keySet()) {
+            names[index++] = LayerName(renderer);
+        }
+
+        return names;
+    }
+
+    public synchronized double LayerPercentile(String layer, double percent) {
+        TimeStatistics stats = FindLayer(layer);
+        return stats != null ? ToMilliseconds(stats.Percentile(percent)) : 0;
+    }
+
+    public synchronized double LayerAverage(String layer) {
+        TimeStatistics stats = FindLayer(layer);
+        return stats != null ? ToMilliseconds(stats.Average()) : 0;
+    }
+
+    public synchronized void Reset() {
+        layers_.clear();
+        frames_.Clear();
+        slowFrames_ = 0;
+    }
+
+    @Override
+    public MBeanNotificationInfo[] getNotificationInfo() {
+        return new MBeanNotificationInfo[] {
+            new MBeanNotificationInfo(new String[] { SLOW_FRAME_NOTIFICATION },
+                                      Notification.class.getName(),
+                                      "Sent when a frame takes longer than the threshold")
+        };
+    }
+
+    /*
+     ** Private methods.
+     */
+    private TimeStatistics FindLayer(String layer) {
+        for(Map.Entry<IRenderer, TimeStatistics> entry : layers_.entrySet()) {
+            if(LayerName(entry.getKey()).equals(layer)) {
+                return entry.getValue();
+            }
+        }
+
+        return null;
+    }
+
+    private Notification CreateSlowFrameNotification(View view, long frameTime) {
+        Notification notification =
+            new Notification(SLOW_FRAME_NOTIFICATION, this, ++sequence_,
+                             "Slow frame: " + ToMilliseconds(frameTime) + " ms");
+
+        // Only standard types are used so that remote
+        // clients don't need the classes of the application.
+        HashMap<String, Object> data = new HashMap<String, Object>();
+        data.put("frameTime", ToMilliseconds(frameTime));
+        data.put("zoom", view.Zoom());
+        data.put("bounds", view.Bounds() != null ? view.Bounds().toString() : "");
+
+        if(slowestRenderer_ != null) {
+            data.put("slowestLayer", LayerName(slowestRenderer_));
+            data.put("slowestTime", ToMilliseconds(slowestTime_));
+        }
+
+        notification.setUserData(data);
+        return notification;
+    }
+
+    private static double ToMilliseconds(long time) {
+        return time / 1000000.0;
+    }
+}
@@ -314,7 +314,10 @@ public final class ImagePrefetcher implements IPrefetcher {
      ** Private methods.
      */
     private void CreateThread() {
+        // The thread should not keep the application alive
+        // (it never completes by itself).
         loaderThread_ = new Thread(new Loader());
+        loaderThread_.setDaemon(true);
         loaderThread_.start();
     }
 
@@ -41,7 +41,7 @@ import java.util.ArrayList;
 import java.awt.image.*;
 import java.awt.AlphaComposite;
 import java.awt.Color;
-import java.awt.Component;
+import java.awt.RenderingHints;
 import javax.swing.SwingUtilities;
 
 public class ImageRenderer implements IRenderer {
@@ -50,6 +50,7 @@ public class ImageRenderer implements IRenderer {
      */
     private IMapProvider provider_;
     private IRendererHost host_;
+    private ImageObserver observer_;
     private ILayer layer_;
     private int zoomLevels_;
     private double tileSize_;
@@ -67,6 +68,7 @@ public class ImageRenderer implements IRenderer {
     private double prevRight_;
     private double prevBottom_;
     private double prevZoom_;
+    private boolean synchronousLoading_;
 
     /*
      ** Constructors.
@@ -74,6 +76,8 @@ public class ImageRenderer implements IRenderer {
     public ImageRenderer(ILayer layer, IRendererHost host) {
         host_ = host;
         layer_ = layer;
+        // The host is not a component when rendering offscreen.
+        observer_ = (host instanceof ImageObserver) ? (ImageObserver)host : null;
         provider_ = host.MapProvider();
         zoomLevels_ = provider_.ZoomLevels();
 
@@ -166,6 +170,14 @@ public class ImageRenderer implements IRenderer {
         SetPreviousParams(view);
     }
 
+    public boolean SynchronousLoading() {
+        return synchronousLoading_;
+    }
+
+    public void SetSynchronousLoading(boolean value) {
+        synchronousLoading_ = value;
+    }
+
     public void TileLoaded(Image image, TileInfo tile) {
         // A requested tile has been loaded, force a redraw
         // on the GUI thread to display it.
@@ -197,7 +209,18 @@ public class ImageRenderer implements IRenderer {
         Image tileImage = cache_.Get(tile.Id(), tile.ZoomLevel());
 
         if((tileImage == null) && forceLoad) {
-            prefetcher_.LoadTile(tile);
+            if(synchronousLoading_) {
+                // When rendering offscreen there is no later redraw,
+                // the image is loaded on the calling thread.
+                tileImage = provider_.LoadTile(tile.Id());
+
+                if(tileImage != null) {
+                    cache_.Add(tileImage, tile.Id(), tile.ZoomLevel());
+                }
+            }
+            else {
+                prefetcher_.LoadTile(tile);
+            }
         }
 
         return tileImage;
@@ -291,7 +314,7 @@ public class ImageRenderer implements IRenderer {
                                                (int)destBottom,
                                                (int)x, (int)y,
                                                (int)(x + size), (int)(y + size),
-                                               (Component)host_);
+                                               observer_);
 
                         break;
                     }
@@ -303,17 +326,22 @@ public class ImageRenderer implements IRenderer {
                             (int)destLeft, (int)destTop,
                             (int)destRight,(int)destBottom,
                             0, 0, (int)tileSize_, (int)tileSize_,
-                            (Component)host_);
+                            observer_);
             }
         }
     }
 
     private void Draw(View view) {
         // Draw all images in the current view.
-        VolatileImage buffer = view.GetBuffer(this);
-        Graphics2D g = buffer.createGraphics();
+        Graphics2D g = view.CreateGraphics(this);
         g.clearRect(0, 0, (int)view.ViewBounds().Width(), (int)view.ViewBounds().Height());
 
+        // The scaled images are interpolated only when the view is not animated,
+        // nearest-neighbour is much faster and the difference can't be seen.
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                           view.HighQuality() ? RenderingHints.VALUE_INTERPOLATION_BILINEAR :
+                                                RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+
         // When the map is zoomed in/out during an animation
         // an interpolation between the images on the current level
         // ant the next/previous one is done.
@@ -234,15 +234,20 @@ public final class MarkerRenderer implements IRenderer, IAnimatable {
      */
     private IMapProvider provider_;
     private IRendererHost host_;
+    private ImageObserver observer_;
     private ILayer layer_;
     private IProjection projection_;
     private int zoomLevels_;
     private Region2D maxBounds_;
     private double opacity_;
-    private PointTree<MarkerVisual> markers_;
+    private IPointIndex<MarkerVisual> markers_;
+    private boolean editable_;
     private Image icon_;
     private boolean visible_;
     private BasicCollection<MarkerVisual> visibleMarkers_;
+    private BasicCollection<MarkerVisual> enteredMarkers_;
+    private BasicCollection<MarkerVisual> exitedMarkers_;
+    private Region2D queryRegion_; // Null if the markers must be queried again.
     private int iconWidth_;
     private int iconHeight_;
     private double[] scaleX;
@@ -257,20 +262,21 @@ public final class MarkerRenderer implements IRenderer, IAnimatable {
     public MarkerRenderer(ILayer layer, IRendererHost host) {
         host_ = host;
         layer_ = layer;
+        // The host is not a component when rendering offscreen.
+        observer_ = (host instanceof ImageObserver) ? (ImageObserver)host : null;
         provider_ = host.MapProvider();
         projection_ = provider_.Projection();
         zoomLevels_ = provider_.ZoomLevels();
         visible_ = true;
         maxBounds_ = provider_.MapBounds(zoomLevels_ - 1);
-        markers_ = new PointTree<MarkerVisual>(maxBounds_.Width(), maxBounds_.Height());
         
         // Try to load the icon used to represent the marker.
         try {
             icon_ = provider_.LoadMarkerIcon(layer.ID());
             
             if(icon_ != null) {
-                iconWidth_ = icon_.getWidth((ImageObserver)host);
-                iconHeight_ = icon_.getHeight((ImageObserver)host);
+                iconWidth_ = icon_.getWidth(observer_);
+                iconHeight_ = icon_.getHeight(observer_);
             }
             else {
                 iconWidth_ = 0;
@@ -282,16 +288,31 @@ public final class MarkerRenderer implements IRenderer, IAnimatable {
 
         SetOpacity(1.0);
         visibleMarkers_ = new BasicCollection<MarkerVisual>();
+        enteredMarkers_ = new BasicCollection<MarkerVisual>();
+        exitedMarkers_ = new BasicCollection<MarkerVisual>();
 
         // Load all markers form the associated layer.
+        // The index is built at once from all the markers. Many markers
+        // spread evenly over the map are stored in a grid, else in a tree.
+        // The grid is rebuilt by each edit, so it's replaced by a tree
+        // when an editor is attached (see 'SetEditable').
         Iterator<Marker> markerIt = provider_.GetMarkerIterator(layer.ID());
+        ArrayList<MarkerVisual> markers = new ArrayList<MarkerVisual>();
         
         while(markerIt.hasNext()) {
             Marker marker = markerIt.next();
             Point point = projection_.FromCoordinates(marker.Coordinates(),
                                                       zoomLevels_ - 1);
-            MarkerVisual markerVis = new MarkerVisual(marker, point);
-            markers_.Add(markerVis);
+            markers.add(new MarkerVisual(marker, point));
+        }
+
+        if(GridIndex.Suitable(markers, maxBounds_.Width(), maxBounds_.Height())) {
+            markers_ = new GridIndex<MarkerVisual>(maxBounds_.Width(), maxBounds_.Height(),
+                                                   markers);
+        }
+        else {
+            markers_ = new PointTree<MarkerVisual>(maxBounds_.Width(), maxBounds_.Height(),
+                                                   markers);
         }
 
         ComputeScaleFactor();
@@ -411,16 +432,35 @@ public final class MarkerRenderer implements IRenderer, IAnimatable {
         MarkerVisual markerVis = new MarkerVisual(marker, point);
         markers_.Add(markerVis);
         visibleMarkers_.Add(markerVis);
+        queryRegion_ = null;
     }
 
     public void RemoveMarker(MarkerVisual markerVis) {
         markers_.Remove(markerVis);
+        queryRegion_ = null;
     }
 
     public void MoveMarker(MarkerVisual markerVis, Point newPosition) {
         markers_.Remove(markerVis);
         markerVis.SetPosition(newPosition);
         markers_.Add(markerVis);
+        queryRegion_ = null;
+    }
+
+    public boolean Editable() {
+        return editable_;
+    }
+
+    public void SetEditable(boolean value) {
+        // Called by the editor of the markers.
+        editable_ = value;
+
+        if(editable_ && (markers_ instanceof GridIndex)) {
+            ArrayList<MarkerVisual> markers = new ArrayList<MarkerVisual>(markers_.Count());
+            ((GridIndex<MarkerVisual>)markers_).GetPoints(markers);
+            markers_ = new PointTree<MarkerVisual>(maxBounds_.Width(), maxBounds_.Height(),
+                                                   markers);
+        }
     }
 
     public MarkerVisual GetMarkerVisual(Marker marker) {
@@ -435,22 +475,19 @@ public final class MarkerRenderer implements IRenderer, IAnimatable {
     }
 
     public void Render(View view) {
-        VolatileImage buffer = view.GetBuffer(this);
-        Graphics2D g = buffer.createGraphics();
+        Graphics2D g = view.CreateGraphics(this);
         g.setComposite(opacityComp_);
         
-        // Activate antialiasing.
+        // Activate antialiasing (not while the view is animated).
         g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-                           RenderingHints.VALUE_ANTIALIAS_ON);
+                           view.HighQuality() ? RenderingHints.VALUE_ANTIALIAS_ON :
+                                                RenderingHints.VALUE_ANTIALIAS_OFF);
 
         // Get the markers visible in the current view.
-        Region2D bounds = view.LastBounds();
+        Region2D bounds = new Region2D(view.LastBounds());
         double inflateVal = 2 * Math.max(iconWidth_, iconHeight_);
-        
-        visibleMarkers_.Clear();
         bounds.Inflate(inflateVal, inflateVal);
-        markers_.Intersect(bounds, visibleMarkers_);
-        bounds.Inflate(-inflateVal, -inflateVal);
+        QueryMarkers(bounds);
 
         // Draw only the markes in the current view.
         Draw(g, view);
@@ -469,6 +506,46 @@ public final class MarkerRenderer implements IRenderer, IAnimatable {
     /*
      ** Private methods.
      */
+    private void QueryMarkers(Region2D region) {
+        // While the view is panned only the markers that entered
+        // or left the region since the last frame are found.
+        if((queryRegion_ == null) || !region.IntersectsWith(queryRegion_)) {
+            visibleMarkers_.Clear();
+            markers_.Intersect(region, visibleMarkers_);
+        }
+        else {
+            enteredMarkers_.Clear();
+            exitedMarkers_.Clear();
+            markers_.IntersectDelta(queryRegion_, region, 
+                                    enteredMarkers_, exitedMarkers_);
+
+            if(exitedMarkers_.Count() > 0) {
+                // Keep the markers still found in the region.
+                List<MarkerVisual> visible = visibleMarkers_.ObjectList();
+                int count = visible.size();
+                int kept = 0;
+
+                for(int i = 0; i < count; i++) {
+                    MarkerVisual markerVis = visible.get(i);
+
+                    if(region.Contains(markerVis.Position())) {
+                        visible.set(kept++, markerVis);
+                    }
+                }
+
+                for(int i = count - 1; i >= kept; i--) {
+                    visible.remove(i);
+                }
+            }
+
+            visibleMarkers_.ObjectList().addAll(enteredMarkers_.ObjectList());
+            enteredMarkers_.Clear();
+            exitedMarkers_.Clear();
+        }
+
+        queryRegion_ = region;
+    }
+
     private void ComputeScaleFactor() {
         // Compute the scale factores based on the map size
         // for each of the possible zoom levels.
@@ -505,21 +582,12 @@ public final class MarkerRenderer implements IRenderer, IAnimatable {
     private MarkerVisual HitTestImpl(Point point, View view) {
         double sx = 1.0 / GetScaleX(view.Zoom());
         double sy = 1.0 / GetScaleY(view.Zoom());
-        Point test = new Point(sx * (point.X() + view.Bounds().Left()),
-                               sy * (point.Y() + view.Bounds().Top()));
-
-        PointTree<MarkerVisual>.NearestInfo nearest = markers_.NearestPoint(test);
-        
-        if(nearest == null) {
-            // This happens if there are no markes in the entire layer.
-            return null;
-        }
+        double testX = sx * (point.X() + view.Bounds().Left());
+        double testY = sy * (point.Y() + view.Bounds().Top());
 
-        if(nearest.Distance() < Math.min(sx * iconWidth_, sy * iconHeight_)) {
-            return nearest.Value();
-        }
-
-        return null;
+        // Null if there is no marker near enough.
+        return markers_.NearestPoint(testX, testY, Math.min(sx * iconWidth_, 
+                                                            sy * iconHeight_));
     }
 
     private void ShowMarkerName(MarkerVisual markerVis) {
@@ -577,7 +645,7 @@ public final class MarkerRenderer implements IRenderer, IAnimatable {
             MarkerVisual markerVis = markerIt.next();
             int x = (int)((sx * markerVis.X()) - (iconWidth_ / 2) - viewX);
             int y = (int)((sy * markerVis.Y()) - (iconHeight_ / 2) - viewY);
-            g.drawImage(icon_, x, y, (ImageObserver)host_);
+            g.drawImage(icon_, x, y, observer_);
         }
     }
 }
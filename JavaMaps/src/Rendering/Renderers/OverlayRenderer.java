@@ -116,8 +116,7 @@ public class OverlayRenderer implements IRenderer, IOverlayHost {
         }
 
         // Draw all registered objects.
-        VolatileImage buffer = view.GetBuffer(this);
-        Graphics2D g = buffer.createGraphics();
+        Graphics2D g = view.CreateGraphics(this);
         Iterator<IVisual> overlayIt = overlays_.values().iterator();
         
         while(overlayIt.hasNext()) {
@@ -0,0 +1,228 @@
+// Copyright (c) 2010 Gratian Lup. All rights reserved.
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//
+// * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following
+// disclaimer in the documentation and/or other materials provided
+// with the distribution.
+//
+// * The name "JavaMaps" must not be used to endorse or promote
+// products derived from this software without prior written permission.
+//
+// * Products derived from this software may not be called "JavaMaps" nor
+// may "JavaMaps" appear in their names without prior written
+// permission of the author.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package Rendering.Renderers;
+import Core.*;
+import Rendering.Utils.*;
+import java.util.*;
+
+// Selects the streets shown at the zoom levels below the maximum one.
+// The streets are ranked by importance (type, length and the number
+// of junctions with other streets) and are selected in this order
+// while the length of the streets already found in a map cell is below
+// a limit. This way about the same amount of streets is drawn
+// for an area of the screen, no matter how dense the map is.
+public final class StreetDetail {
+    // The weight of each street type, indexed by StreetType.Index().
+    static final double[] TYPE_WEIGHT = new double[] { 1, 4, 16 };
+    static final double JUNCTION_WEIGHT = 0.25;
+
+    /*
+     ** Members.
+     */
+    private List<Polyline> streets_;
+    private double[] importance_;
+    private Integer[] order_;      // Street indices, most important first.
+    private double maxDensity_;    // Street length in a cell, in cell widths.
+
+    /*
+     ** Constructors.
+     */
+    public StreetDetail(List<Polyline> streets, Map<ObjectId, Integer> junctions,
+                        double maxDensity) {
+        assert(streets != null && junctions != null);
+        assert(maxDensity > 0);
+        // ------------------------------------------------
+        streets_ = streets;
+        maxDensity_ = maxDensity;
+        ComputeImportance(junctions);
+    }
+
+    /*
+     ** Public methods.
+     */
+    public static Map<ObjectId, Integer> CountJunctions(Iterator<Node> nodeIt) {
+        // A street has a junction in each node where it meets another street.
+        HashMap<ObjectId, Integer> junctions = new HashMap<ObjectId, Integer>();
+
+        if(nodeIt == null) {
+            return junctions;
+        }
+
+        while(nodeIt.hasNext()) {
+            Collection<Link> links = nodeIt.next().Links().values();
+            ObjectId first = null;
+            boolean shared = false;
+
+            for(Link link : links) {
+                if(first == null) {
+                    first = link.StreetId();
+                }
+                else if(!first.equals(link.StreetId())) {
+                    shared = true;
+                    break;
+                }
+            }
+
+            if(!shared) {
+                continue;
+            }
+
+            for(Link link : links) {
+                Integer count = junctions.get(link.StreetId());
+                junctions.put(link.StreetId(), count == null ? 1 : count + 1);
+            }
+        }
+
+        return junctions;
+    }
+
+    public double Importance(int street) {
+        return importance_[street];
+    }
+
+    public int Ranked(int rank) {
+        return order_[rank];
+    }
+
+    public double MaxDensity() {
+        return maxDensity_;
+    }
+
+    // Selects the streets shown for a map of the specified size.
+    // 'scaleX' and 'scaleY' transform the street points to this map.
+    public boolean[] Select(double scaleX, double scaleY, double width, 
+                            double height, double cellSize) {
+        return Select(scaleX, scaleY, width, height, cellSize, null);
+    }
+
+    // Like above, but only the streets marked in 'visible' are considered
+    // (all if it's null). The streets that are not drawn at the zoom level
+    // don't use the length allowed in the cells they cross.
+    public boolean[] Select(double scaleX, double scaleY, double width, 
+                            double height, double cellSize, boolean[] visible) {
+        assert(width > 0 && height > 0 && cellSize > 0);
+        assert(visible == null || visible.length == streets_.size());
+        // ------------------------------------------------
+        int columns = Math.max(1, (int)Math.ceil(width / cellSize));
+        int rows = Math.max(1, (int)Math.ceil(height / cellSize));
+        double[] used = new double[columns * rows];
+        double limit = maxDensity_ * cellSize;
+        boolean[] selected = new boolean[streets_.size()];
+
+        for(int rank = 0; rank < order_.length; rank++) {
+            // A street is selected if at least half of it
+            // is found in cells that are not full yet.
+            int index = order_[rank];
+
+            if((visible != null) && !visible[index]) {
+                continue;
+            }
+
+            Polyline street = streets_.get(index);
+            int count = street.SegmentCount();
+            double total = 0;
+            double free = 0;
+
+            for(int i = 0; i < count; i++) {
+                double length = SegmentLength(street, i, scaleX, scaleY);
+                total += length;
+
+                if(used[Cell(street, i, scaleX, scaleY, cellSize, columns, rows)] < limit) {
+                    free += length;
+                }
+            }
+
+            if((free * 2) < total) {
+                continue;
+            }
+
+            for(int i = 0; i < count; i++) {
+                used[Cell(street, i, scaleX, scaleY, cellSize, columns, rows)] += 
+                    SegmentLength(street, i, scaleX, scaleY);
+            }
+
+            selected[index] = true;
+        }
+
+        return selected;
+    }
+
+    /*
+     ** Private methods.
+     */
+    private void ComputeImportance(Map<ObjectId, Integer> junctions) {
+        int count = streets_.size();
+        importance_ = new double[count];
+        order_ = new Integer[count];
+
+        for(int i = 0; i < count; i++) {
+            Polyline street = streets_.get(i);
+            Street value = (Street)street.Value();
+            Integer junctionCount = junctions.get(value.Id());
+            double length = 0;
+
+            for(int j = 0; j < street.SegmentCount(); j++) {
+                length += street.SegmentLength(j);
+            }
+
+            importance_[i] = TYPE_WEIGHT[value.Type().Index()] * length *
+                             (1 + JUNCTION_WEIGHT * (junctionCount == null ? 0 : junctionCount));
+            order_[i] = i;
+        }
+
+        // The sort is stable, streets with the same importance
+        // remain in the order they were loaded.
+        Arrays.sort(order_, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Double.compare(importance_[b], importance_[a]);
+            }
+        });
+    }
+
+    private double SegmentLength(Polyline street, int segment,
+                                 double scaleX, double scaleY) {
+        double dx = (street.X(segment + 1) - street.X(segment)) * scaleX;
+        double dy = (street.Y(segment + 1) - street.Y(segment)) * scaleY;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private int Cell(Polyline street, int segment, double scaleX, double scaleY,
+                     double cellSize, int columns, int rows) {
+        // The segment is considered to be in the cell of its middle point.
+        double x = (street.X(segment) + street.X(segment + 1)) / 2 * scaleX;
+        double y = (street.Y(segment) + street.Y(segment + 1)) / 2 * scaleY;
+        int column = Math.max(0, Math.min(columns - 1, (int)(x / cellSize)));
+        int row = Math.max(0, Math.min(rows - 1, (int)(y / cellSize)));
+        return row * columns + column;
+    }
+}
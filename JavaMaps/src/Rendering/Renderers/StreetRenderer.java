@@ -42,6 +42,7 @@ import java.awt.Stroke;
 import java.awt.BasicStroke;
 import java.awt.RenderingHints;
 import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
 import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.AlphaComposite;
@@ -53,6 +54,32 @@ public final class StreetRenderer implements IRenderer {
     static final double AVENUE_WIDTH = 12;
     static final double BOULEVARD_WIDTH = 16;
     static final double NAME_DISTANCE = 256;
+    static final int CHUNK_SEGMENTS = 16; // Segments in a polyline chunk.
+    static final int MAX_LOADED_LEVELS = 3;
+    static final int MIN_STREET_BATCH = 256; // Streets processed by a task.
+    static final double MAX_STREET_DENSITY = 6; // Street length in a tile, in tile widths.
+    static final double LABEL_CELL_SIZE = 64; // Cell size of the collision grid.
+    static final Color LABEL_BACKGROUND = new Color(0, 0, 0, 160);
+    static final int MAX_LABEL_SPRITES = 256;
+    static final int INDEX_VERSION = 1; // Changed when the saved levels are built differently.
+
+    // A street name accepted by the label placement. The position
+    // is in map coordinates, at the scale used when drawing.
+    private static final class StreetLabel {
+        public double textX_;    // The origin of the text.
+        public double textY_;
+        public double[] corners_;
+        public LabelCache.Sprite sprite_;
+
+        // ------------------------------------------------
+        public StreetLabel(double textX, double textY, double[] corners,
+                           LabelCache.Sprite sprite) {
+            textX_ = textX;
+            textY_ = textY;
+            corners_ = corners;
+            sprite_ = sprite;
+        }
+    }
 
     /*
      ** Members.
@@ -61,12 +88,44 @@ public final class StreetRenderer implements IRenderer {
     private IRendererHost host_;
     private ILayer layer_;
     private IProjection projection_;
-    private LineTree lines_;
+    private LineTree lines_;               // Used after an editor is attached.
+    private PackedLineTree packedLines_;   // Used while the streets are static.
+    private boolean editorAttached_;
+    private LineTree.NearestInfo nearest_; // Reused by the hit tests.
     private LineCollection visibleLines_;
+    private LineCollection enteredLines_;  // Lines that entered the padded region.
+    private LineCollection exitedLines_;   // Lines that left the padded region.
+    private Region2D queryRegion_;         // The padded region of the visible lines.
+    private int queryLevel_;               // -1 if the lines must be queried again.
+    private HashMap<ObjectId, PolylineChunk[]> editableChunks_;
+    private ArrayList<Polyline> streets_;      // At the maximum zoom level.
+    private IndexStore indexStore_;            // Null if the levels are not saved.
+    private String layerHash_;
+    private StreetDetail streetDetail_;
+    private boolean[] loadedLevels_;
+    private LinkedList<Integer> levelOrder_;   // Most recently used first.
+    private int maxLoadedLevels_;
     private int zoomLevels_;
     private java.awt.Color[] streetColors_;
+    private ArrayList<Line> streetList_;
     private ArrayList<Line> avenueList_;
     private ArrayList<Line> boulevardList_;
+    private LineCollection labelLines_;
+    private ArrayList<StreetLabel> labels_;
+    private LabelCache labelSprites_;
+    private int labelLevel_;      // -1 if the labels must be placed again.
+    private double labelScale_;
+    private double labelX_;       // The view position when the labels were placed.
+    private double labelY_;
+    private double tileSize_;
+    private Path2D.Double[] paths_;    // One for each street type.
+    private double[] pathEndX_;        // The last point added to each path.
+    private double[] pathEndY_;
+    private BasicStroke[] strokes_;    // Indexed by the street width.
+    private double[] clipped_;         // The last clipped segment.
+    private double clipRight_;         // The view, inflated by the street width.
+    private double clipBottom_;
+    private double clipMargin_;
     private Font[] fonts_;
     private Font[] largeFonts_;
     private double opacity_;
@@ -82,16 +141,32 @@ public final class StreetRenderer implements IRenderer {
         projection_ = provider_.Projection();
         zoomLevels_ = provider_.ZoomLevels();
         visibleLines_ = new LineCollection();
+        enteredLines_ = new LineCollection();
+        exitedLines_ = new LineCollection();
+        queryLevel_ = -1;
 
         // Initialize the used data structures
         // and load/preprocess the street information.
         Region2D maxBounds = provider_.MapBounds(zoomLevels_ - 1);
         lines_ = new LineTree(maxBounds.Width(), maxBounds.Height(), zoomLevels_);
+        packedLines_ = new PackedLineTree(maxBounds.Width(), maxBounds.Height(), zoomLevels_);
+        nearest_ = new LineTree.NearestInfo();
+        loadedLevels_ = new boolean[zoomLevels_];
+        levelOrder_ = new LinkedList<Integer>();
+        maxLoadedLevels_ = MAX_LOADED_LEVELS;
+        indexStore_ = host.IndexStore();
         SetStreetColors();
         SetFonts();
         LoadStreets();
+        streetList_ = new ArrayList<Line>(100);
         avenueList_ = new ArrayList<Line>(100);
         boulevardList_ = new ArrayList<Line>(100);
+        labelLines_ = new LineCollection();
+        labels_ = new ArrayList<StreetLabel>(100);
+        labelSprites_ = new LabelCache(MAX_LABEL_SPRITES, Color.WHITE, LABEL_BACKGROUND);
+        labelLevel_ = -1;
+        tileSize_ = provider_.TileSize();
+        CreatePaths();
         opacity_ = 1.0;
         visible_ = true;
     }
@@ -173,20 +248,20 @@ public final class StreetRenderer implements IRenderer {
     public IObjectInfo HitTest(Point point, View view) {
         // Project the point on the map sourface,
         // then try to find the nearest line.
-        Point test = new Point(point.X() + view.Bounds().Left(),
-                               point.Y() + view.Bounds().Top());
-        LineTree.NearestInfo nearest = lines_.NearestLine(test, (int)view.Zoom());
+        double testX = point.X() + view.Bounds().Left();
+        double testY = point.Y() + view.Bounds().Top();
+        LoadLevel((int)view.Zoom());
         
-        if((nearest == null) || (nearest.Line() == null)) {
+        if(!Index().NearestLine(testX, testY, (int)view.Zoom(), nearest_)) {
             return null;
         }
 
         // Check if the street is close enough
         // to be considered as being under the mouse cursor,
-        Street street = (Street)nearest.Line().Value();
+        Street street = (Street)nearest_.Line().Value();
         double streetWidth = ScaledStreetWidth(street.Type(), view.Zoom()) / 2;
         
-        if(nearest.Distance() < streetWidth) {
+        if(nearest_.Distance() < streetWidth) {
             return new StreetInfo(street, this);
         }
         
@@ -194,14 +269,68 @@ public final class StreetRenderer implements IRenderer {
     }
 
     public void AddLine(Line line, int zoomLevel) {
+        AttachEditor();
+        ExplodeStreet((Street)line.Value(), zoomLevel);
         lines_.Add(line, zoomLevel);
+        labelLevel_ = -1;
+        queryLevel_ = -1;
     }
 
     public void RemoveLine(Line line, int zoomLevel) {
+        AttachEditor();
+        ExplodeStreet((Street)line.Value(), zoomLevel);
         lines_.Remove(line, zoomLevel);
+        labelLevel_ = -1;
+        queryLevel_ = -1;
+    }
+
+    public void AttachEditor() {
+        // The packed tree can't be modified, the lines
+        // of the loaded levels are moved to a LineTree,
+        // which is used from now on.
+        if(editorAttached_) {
+            return;
+        }
+
+        ArrayList<Line> levelLines = new ArrayList<Line>();
+
+        for(int i = 0; i < zoomLevels_; i++) {
+            if(loadedLevels_[i]) {
+                levelLines.clear();
+                packedLines_.GetLines(i, levelLines);
+                lines_.AddAll(levelLines, i);
+            }
+        }
+
+        packedLines_.Clear();
+        editorAttached_ = true;
+        labelLevel_ = -1;
+        queryLevel_ = -1;
+    }
+
+    public boolean EditorAttached() {
+        return editorAttached_;
+    }
+
+    public LabelCache LabelSprites() {
+        return labelSprites_;
+    }
+
+    public int MaxLoadedLevels() {
+        return maxLoadedLevels_;
+    }
+
+    public void SetMaxLoadedLevels(int value) {
+        assert(value > 0);
+        // ------------------------------------------------
+        maxLoadedLevels_ = value;
     }
 
     public void UpdateName(Street street) {
+        AttachEditor();
+        ExplodeStreet(street, zoomLevels_ - 1);
+        labelLevel_ = -1;
+        queryLevel_ = -1;
         List<Coordinates> streetCoords = street.Coordinates();
         int coordCount = streetCoords.size();
         
@@ -275,7 +404,31 @@ public final class StreetRenderer implements IRenderer {
     }
 
     private Stroke ScaledStreetStroke(StreetType type, double zoom) {
-        return new BasicStroke((int)ScaledStreetWidth(type, zoom));
+        // The stroke depends only on the street width, so the strokes
+        // are created once and shared by all (type, zoom) pairs with the same width.
+        // Round joins and caps are used so that the segments of a street
+        // are connected smoothly.
+        int width = (int)ScaledStreetWidth(type, zoom);
+
+        if(strokes_[width] == null) {
+            strokes_[width] = new BasicStroke(width, BasicStroke.CAP_ROUND,
+                                              BasicStroke.JOIN_ROUND);
+        }
+
+        return strokes_[width];
+    }
+
+    private void CreatePaths() {
+        int types = StreetType.values().length;
+        paths_ = new Path2D.Double[types];
+        pathEndX_ = new double[types];
+        pathEndY_ = new double[types];
+        strokes_ = new BasicStroke[(int)BOULEVARD_WIDTH + 1];
+        clipped_ = new double[4];
+
+        for(int i = 0; i < types; i++) {
+            paths_[i] = new Path2D.Double(Path2D.WIND_NON_ZERO, 1024);
+        }
     }
 
     private void SetFonts() {
@@ -299,26 +452,78 @@ public final class StreetRenderer implements IRenderer {
     }
 
     private void AttachNames(ArrayList<Line> lines, Street street) {
+        // Compute on which lines the street name should appear.
+        int count = lines.size();
+        double[] lengths = new double[count];
+        short[] nameCounts = new short[count];
+
+        for(int i = 0; i < count; i++) {
+            Line line = lines.get(i);
+            lengths[i] = Point.Distance(line.XA(), line.YA(),
+                                        line.XB(), line.YB());
+            line.SetLength((short)lengths[i]);
+        }
+
+        ComputeNames(lengths, nameCounts);
+
+        for(int i = 0; i < count; i++) {
+            lines.get(i).SetNameCount(nameCounts[i]);
+        }
+    }
+
+    private void AttachNames(Polyline polyline) {
+        // Compute on which segments the street name should appear.
+        // Only the segments with a name are stored in the polyline.
+        int count = polyline.SegmentCount();
+        double[] lengths = new double[count];
+        short[] nameCounts = new short[count];
+        int named = 0;
+
+        for(int i = 0; i < count; i++) {
+            lengths[i] = polyline.SegmentLength(i);
+        }
+
+        ComputeNames(lengths, nameCounts);
+
+        for(int i = 0; i < count; i++) {
+            if(nameCounts[i] > 0) {
+                named++;
+            }
+        }
+
+        int[] segments = new int[named];
+        short[] segmentNames = new short[named];
+        named = 0;
+
+        for(int i = 0; i < count; i++) {
+            if(nameCounts[i] > 0) {
+                segments[named] = i;
+                segmentNames[named] = nameCounts[i];
+                named++;
+            }
+        }
+
+        polyline.SetNames(segments, segmentNames);
+    }
+
+    private void ComputeNames(double[] lengths, short[] nameCounts) {
         // COmpute the position of the street name.
         double dist = 0;
         int last = -1;
-        int count = lines.size();
+        int count = lengths.length;
         
         for(int i = 0; i < count; i++) {
-            Line line = lines.get(i);
-            double length = Point.Distance(line.XA(), line.YA(),
-                                           line.XB(), line.YB());
-            line.SetLength((short)length);
+            double length = lengths[i];
             dist += length;
             
             if(dist > NAME_DISTANCE) {
                 // The name bust be attached to this name.
                 if((i - last) < 2) {
                     // A single line.
-                    line.SetNameCount((short)(dist / NAME_DISTANCE));
+                    nameCounts[i] = (short)(dist / NAME_DISTANCE);
                 }
                 else {
-                    lines.get(last + ((i - last) / 2)).SetNameCount((short)1);
+                    nameCounts[last + ((i - last) / 2)] = (short)1;
                 }
 
                 last = i;
@@ -329,285 +534,768 @@ public final class StreetRenderer implements IRenderer {
         if(last == -1) {
             // The street must have at least one line
             // where the name should appear.
-            lines.get(lines.size() / 2).SetNameCount((short)1);
+            nameCounts[count / 2] = (short)1;
         }
     }
 
-    // Incarca toate strazile, la toate nivelurile de zoom.
-    // Pentru niveluri de zoom mai mici decat cel maxim se aplica selectie
-    // si simplificare de linii.
-    private void LoadStreets() {
-        // Load all streets at all valid zoom levels.
-        // For all zoom levels below the maximum one a line simplification
-        // algorithm is applied on each of the line to reduce rendering time.
-        int count = provider_.StreetCount();
-        HashMap<ObjectId, ArrayList<Point>> streetPoints = 
-                new HashMap<ObjectId, ArrayList<Point>>(count);
-        ArrayList<Line> unnamed = new ArrayList<Line>(32);
-        Iterator<Street> streetIt = provider_.GetStreetIterator();
-        
-        while(streetIt.hasNext()) {
-            Street street = streetIt.next();
-            List<Coordinates> streetCoords = street.Coordinates();
-            int coordCount = streetCoords.size();
-            
-            if(coordCount < 2) {
-                continue; // Shouldn't happen im practice.
-            }
+    private ILineIndex Index() {
+        return editorAttached_ ? lines_ : packedLines_;
+    }
 
-            // Transform the coordinates to pixels.
-            ArrayList<Point> points = new ArrayList<Point>(coordCount);
-            
-            for(int i = 0; i < coordCount; i++) {
-                points.add(projection_.FromCoordinates(streetCoords.get(i), 
-                                                       zoomLevels_ - 1));
+    private void AddChunks(PolylineChunk[][] chunks, int zoomLevel,
+                           IndexStore.Data saved) {
+        // The chunks are added to the tree instead of each segment.
+        // Until an editor is attached the level is stored in a packed tree,
+        // built at once from the chunks of all streets, or loaded
+        // from the saved level if there is one.
+        ArrayList<Line> levelLines = new ArrayList<Line>();
+
+        for(int i = 0; i < chunks.length; i++) {
+            if(chunks[i] != null) {
+                levelLines.addAll(Arrays.asList(chunks[i]));
             }
+        }
 
-            // Create the lines based on the street points.
-            streetPoints.put(street.Id(), points);
-            unnamed.clear();
-            
-            for(int i = 0; i < coordCount - 1; i++) {
-                Line line = new Line(points.get(i), points.get(i + 1), street);
-                unnamed.add(line);
-                lines_.Add(line, zoomLevels_ - 1);
+        if(editorAttached_) {
+            lines_.AddAll(levelLines, zoomLevel);
+        }
+        else if((saved == null) || 
+                !packedLines_.Load(levelLines, zoomLevel, saved, saved.Count() - 3)) {
+            packedLines_.Build(levelLines, zoomLevel);
+            SaveLevel(chunks, levelLines, zoomLevel);
+        }
+    }
+
+    private String LevelName(int zoomLevel) {
+        return "streets-" + zoomLevel;
+    }
+
+    private String LayerHash(Map<ObjectId, Integer> junctions) {
+        // The hash covers everything the saved levels are built from:
+        // the streets and their junctions at the maximum zoom level,
+        // the size of the map at each zoom level and the settings.
+        ContentHash hash = new ContentHash();
+        hash.Add(INDEX_VERSION);
+        hash.Add(CHUNK_SEGMENTS);
+        hash.Add(MAX_STREET_DENSITY);
+        hash.Add(provider_.TileSize());
+        hash.Add(zoomLevels_);
+
+        for(int i = 0; i < zoomLevels_; i++) {
+            Region2D bounds = provider_.MapBounds(i);
+            hash.Add(bounds.Left());
+            hash.Add(bounds.Top());
+            hash.Add(bounds.Width());
+            hash.Add(bounds.Height());
+        }
+
+        hash.Add(streets_.size());
+
+        for(int i = 0; i < streets_.size(); i++) {
+            Polyline polyline = streets_.get(i);
+            Street street = (Street)polyline.Value();
+            Integer junctionCount = junctions.get(street.Id());
+            hash.Add(street.Id().Id());
+            hash.Add(street.Type().ordinal());
+            hash.Add(junctionCount != null ? junctionCount : 0);
+            hash.Add(polyline.PointCount());
+
+            for(int j = 0; j < polyline.PointCount(); j++) {
+                hash.Add(polyline.X(j));
+                hash.Add(polyline.Y(j));
             }
+        }
+
+        return hash.Value();
+    }
 
-            AttachNames(unnamed, street);
+    private IndexStore.Data ReadLevel(int zoomLevel) {
+        if((indexStore_ == null) || editorAttached_) {
+            return null;
         }
 
-        // Run the simplification algorithm on each line
-        // for each smaller zoom level than the maximum one.
-        ArrayList<Point> selected = new ArrayList<Point>();
-        double sx = 1.0; // The scaling factors for X and Y.
-        double sy = 1.0;
+        return indexStore_.Read(layerHash_, LevelName(zoomLevel));
+    }
 
-        for(int zoom = zoomLevels_ - 2; zoom >= 0; zoom--) {
-            double minDistance =  Math.pow(2, zoomLevels_ - zoom - 1);
-            Region2D cntBounds = provider_.MapBounds(zoom);
-            Region2D prevBounds = provider_.MapBounds(zoom + 1);
-            sx *= cntBounds.Width() / prevBounds.Width();
-            sy *= cntBounds.Height() / prevBounds.Height();
-            streetIt = provider_.GetStreetIterator();
-            
-            while(streetIt.hasNext()) {
-                Street street = streetIt.next();
+    private void SaveLevel(PolylineChunk[][] chunks, List<Line> levelLines,
+                           int zoomLevel) {
+        // Saves the packed tree of the level. For the lower zoom levels
+        // the simplified streets are saved too, the selection and the
+        // simplification are not needed when the level is loaded.
+        if((indexStore_ == null) || editorAttached_) {
+            return;
+        }
 
-                // If the width of the street is below 2 pixels
-                // the street isn't shown at all.
-                if(ScaledStreetWidth(street.Type(), zoom) < 2.0) {
-                    continue;
+        IndexStore.Data data = new IndexStore.Data();
+
+        if(zoomLevel < (zoomLevels_ - 1)) {
+            int streetCount = 0;
+            int pointCount = 0;
+
+            for(int i = 0; i < chunks.length; i++) {
+                if(chunks[i] != null) {
+                    streetCount++;
+                    pointCount += chunks[i][0].Polyline().PointCount();
                 }
+            }
+
+            int[] streets = new int[streetCount];
+            int[] offsets = new int[streetCount + 1];
+            double[] points = new double[pointCount * 2];
+            int street = 0;
+            int point = 0;
 
-                // Simplifiy the points on the line.
-                // A subsets of the points is selected which 
-                // approximate the original lines fairly accurately.
-                ArrayList<Point> points = streetPoints.get(street.Id());
-                
-                if(points == null || points.size() < 2) {
-                    continue; // Shouldn't happen im practice.
+            for(int i = 0; i < chunks.length; i++) {
+                if(chunks[i] == null) {
+                    continue;
                 }
-                
-                selected.clear();
-                LineSimplifier.Simplify(points, minDistance, selected);
-
-                // It is guaranteed that at least two points remain.
-                unnamed.clear();
-                int selCount = selected.size();
-                
-                for(int i = 0; i < selCount - 1; i++) {
-                    Point a = selected.get(i);
-                    Point b = selected.get(i + 1);
-                    Line line = new Line(a.X() * sx, a.Y() * sy,
-                                         b.X() * sx, b.Y() * sy, street);
-                    unnamed.add(line);
-                    lines_.Add(line, zoom);
+
+                Polyline polyline = chunks[i][0].Polyline();
+                streets[street] = i;
+                offsets[street] = point;
+                street++;
+
+                for(int j = 0; j < polyline.PointCount(); j++) {
+                    points[point * 2] = polyline.X(j);
+                    points[point * 2 + 1] = polyline.Y(j);
+                    point++;
                 }
+            }
 
-                AttachNames(unnamed, street);
+            offsets[streetCount] = point;
+            data.Add(streets);
+            data.Add(offsets);
+            data.Add(points);
+        }
+
+        if(packedLines_.Save(levelLines, zoomLevel, data)) {
+            indexStore_.Write(layerHash_, LevelName(zoomLevel), data);
+        }
+    }
+
+    private boolean LoadSavedLevel(int zoom) {
+        // Creates the streets of a lower zoom level from the saved
+        // simplified polylines. Returns false if there is no saved level
+        // or it doesn't match the streets, which are then simplified again.
+        IndexStore.Data saved = ReadLevel(zoom);
+
+        if(saved == null) {
+            return false;
+        }
+
+        int[] streets = saved.Ints(0);
+        int[] offsets = saved.Ints(1);
+        double[] points = saved.Doubles(2);
+
+        if((streets == null) || (offsets == null) || (points == null) ||
+           (offsets.length != streets.length + 1) || 
+           (offsets[streets.length] * 2 != points.length)) {
+            return false;
+        }
+
+        PolylineChunk[][] chunks = new PolylineChunk[streets_.size()][];
+
+        for(int i = 0; i < streets.length; i++) {
+            int first = offsets[i];
+            int last = offsets[i + 1];
+
+            if((streets[i] < 0) || (streets[i] >= chunks.length) ||
+               (chunks[streets[i]] != null) || (last - first < 2)) {
+                return false;
             }
+
+            Polyline polyline = new Polyline(Arrays.copyOfRange(points, first * 2, last * 2),
+                                             streets_.get(streets[i]).Value());
+            AttachNames(polyline);
+            chunks[streets[i]] = polyline.CreateChunks(CHUNK_SEGMENTS);
         }
+
+        AddChunks(chunks, zoom, saved);
+        return true;
     }
 
-    private void DrawName(Line line, Graphics2D g, View view, 
-                          double scale, Font font, Color color) {
-        // Draw the name of the street near the specified line.
-        Street street = (Street)line.Value();
-        
-        if((line.NameCount() == 0) || (street.Name() == null)) {
+    private void ExplodeStreet(Street street, int zoomLevel) {
+        // The editor works with the individual segments of the streets
+        // found at the maximum zoom level. Before a street is edited
+        // its chunks are replaced by a line for each segment.
+        if(zoomLevel != (zoomLevels_ - 1)) {
             return;
         }
 
-        double length = (double)line.Length();
-        double viewX = view.Bounds().Left();
-        double viewY = view.Bounds().Top();
-        double dirX = 1.0;  // Controls the name orientation.
-        double dirY = -1.0;
-        double streetWidth = ScaledStreetWidth(street.Type(), 
-                                               (int)Math.rint(view.Zoom()));
+        PolylineChunk[] chunks = editableChunks_.remove(street.Id());
+        
+        if(chunks == null) {
+            return; // Already replaced or added by the editor.
+        }
+
+        Polyline polyline = chunks[0].Polyline();
+        int count = polyline.SegmentCount();
+        ArrayList<Line> segments = new ArrayList<Line>(count);
 
-        // Compute the text size if not done already.
-        if(line.NameHeight() == 0) {
-            FontMetrics metrics = g.getFontMetrics(font);
-            line.SetNameHeight((short)metrics.getHeight());
-            line.SetNameWidth((short)metrics.stringWidth(street.Name()));
+        for(int i = 0; i < chunks.length; i++) {
+            lines_.Remove(chunks[i], zoomLevel);
         }
 
-        // Find the line angle and prevent a rotation greater
-        // than ~110 degrees (the text would be hard to read).
-        // textului cu mai mult de ~110 grade.
-        double angle = Math.atan2(line.YB() - line.YA(), line.XB() - line.XA());
+        for(int i = 0; i < count; i++) {
+            Line line = new Line(polyline.X(i), polyline.Y(i),
+                                 polyline.X(i + 1), polyline.Y(i + 1), street);
+            segments.add(line);
+            lines_.Add(line, zoomLevel);
+        }
+
+        AttachNames(segments, street);
+    }
+
+    private void LoadStreets() {
+        // Load all streets at the maximum zoom level. The streets
+        // for the other zoom levels are created when first needed.
+        int count = provider_.StreetCount();
+        Iterator<Street> streetIt = provider_.GetStreetIterator();
+        final ArrayList<Street> streets = new ArrayList<Street>(count);
         
-        if(Math.abs(angle) > 1.88) {
-            dirX = -1.0;
-            dirY = 1.0;
-            angle += Math.PI;
-            streetWidth += line.NameHeight() / 2;
+        while(streetIt.hasNext()) {
+            streets.add(streetIt.next());
+        }
+
+        // The polylines are created in parallel, each task
+        // writing the results for its streets in the arrays.
+        count = streets.size();
+        final Polyline[] polylines = new Polyline[count];
+        final PolylineChunk[][] chunks = new PolylineChunk[count][];
+
+        ParallelTasks.ForRange(count, MIN_STREET_BATCH, new ParallelTasks.RangeTask() {
+            public void Run(int first, int last) {
+                for(int i = first; i < last; i++) {
+                    polylines[i] = CreatePolyline(streets.get(i));
+
+                    if(polylines[i] != null) {
+                        chunks[i] = polylines[i].CreateChunks(CHUNK_SEGMENTS);
+                    }
+                }
+            }
+        });
+
+        // The chunks are added to the tree in the order of the streets,
+        // the tree is the same as the one created on a single thread.
+        editableChunks_ = new HashMap<ObjectId, PolylineChunk[]>(count);
+        streets_ = new ArrayList<Polyline>(count);
+
+        for(int i = 0; i < count; i++) {
+            if(polylines[i] != null) {
+                editableChunks_.put(streets.get(i).Id(), chunks[i]);
+                streets_.add(polylines[i]);
+            }
         }
+
+        // Rank the streets, used to select the ones
+        // shown at the lower zoom levels.
+        Map<ObjectId, Integer> junctions = StreetDetail.CountJunctions(provider_.GetNodeIterator());
+        streetDetail_ = new StreetDetail(streets_, junctions, MAX_STREET_DENSITY);
+
+        if(indexStore_ != null) {
+            layerHash_ = LayerHash(junctions);
+        }
+
+        AddChunks(chunks, zoomLevels_ - 1, ReadLevel(zoomLevels_ - 1));
+        loadedLevels_[zoomLevels_ - 1] = true;
+    }
+
+    private Polyline CreatePolyline(Street street) {
+        // Creates the polyline for the maximum zoom level.
+        // Called in parallel for multiple streets.
+        List<Coordinates> streetCoords = street.Coordinates();
+        int coordCount = streetCoords.size();
         
-        g.setFont(font);
-        g.setColor(color);
-
-        // Translate and rotate the text in the start position.
-        AffineTransform prevTransf = g.getTransform();
-        g.translate((int)(line.XA() * scale - viewX),
-                    (int)(line.YA() * scale - viewY));
-        g.rotate(angle);
-
-        if(line.NameCount() < 2) {
-            // The name if showed a single time.
-            g.translate(dirX * (length / 2) * scale - (line.NameWidth() / 2),
-                        dirY * streetWidth * scale);
-            g.setColor(new Color(0, 0, 0, 160));
-            g.fillRect(-2, -line.NameHeight() + 2, 
-                       line.NameWidth() + 5, line.NameHeight() + 3);
-            
-            g.setColor(color);
-            g.drawString(street.Name(), 0, 0);
+        if(coordCount < 2) {
+            return null; // Shouldn't happen im practice.
         }
-        else {
-            // The line is split into multiple segments
-            // and each one will have one of the words.
-            int count = line.NameCount();
-            double segLength = length / count;
-            g.translate(0, dirY * streetWidth * scale);
 
-            for(int i = 0; i < count; i++) {
-                g.translate(dirX * (segLength / 2) * scale - 
-                            (line.NameWidth() / 2), 0);
-
-                g.setColor(new Color(0, 0, 0, 160));
-                g.fillRect(-2, -line.NameHeight() + 2, 
-                           line.NameWidth() + 5, line.NameHeight() + 3);
-                g.setColor(color);
-                g.drawString(street.Name(), 0, 0);
-                
-                g.translate(dirX * (segLength / 2) * scale + 
-                            (line.NameWidth() / 2), 0);
+        // Transform the coordinates to pixels.
+        ArrayList<Point> points = new ArrayList<Point>(coordCount);
+        
+        for(int i = 0; i < coordCount; i++) {
+            points.add(projection_.FromCoordinates(streetCoords.get(i), 
+                                                   zoomLevels_ - 1));
+        }
+
+        // The street is stored as a single polyline.
+        Polyline polyline = new Polyline(points, street);
+        AttachNames(polyline);
+        return polyline;
+    }
+
+    private void LoadLevel(int zoom) {
+        // Make sure the streets for the zoom level are loaded.
+        // Only a few levels are kept, the least recently used one
+        // is removed when the limit is reached. The maximum level
+        // is always kept, it's the one modified by the editor.
+        if(zoom == (zoomLevels_ - 1)) {
+            return;
+        }
+        else if(loadedLevels_[zoom]) {
+            levelOrder_.remove((Integer)zoom);
+            levelOrder_.addFirst(zoom);
+            return;
+        }
+
+        while(levelOrder_.size() >= maxLoadedLevels_) {
+            int unused = levelOrder_.removeLast();
+            Index().ClearLevel(unused);
+            loadedLevels_[unused] = false;
+
+            if(unused == queryLevel_) {
+                queryLevel_ = -1;
             }
         }
 
-        // Restore the old transformation matrix.
-        g.setTransform(prevTransf);
+        if(!LoadSavedLevel(zoom)) {
+            SimplifyStreets(zoom);
+        }
+
+        loadedLevels_[zoom] = true;
+        levelOrder_.addFirst(zoom);
     }
 
-    private void DrawLine(Line line, Graphics2D g, View view, double scale) {
-        // Draws the line at the specified scale factor.
-        double viewX = view.Bounds().Left();
-        double viewY = view.Bounds().Top();
-        Street street = (Street)line.Value();        
+    private void SimplifyStreets(final int zoom) {
+        // Run the simplification algorithm on the streets
+        // from the maximum zoom level to reduce rendering time.
+        // The streets are simplified in parallel, then added
+        // to the tree in order, like when done on a single thread.
+        Region2D cntBounds = provider_.MapBounds(zoom);
+        Region2D maxBounds = provider_.MapBounds(zoomLevels_ - 1);
+        final double minDistance =  Math.pow(2, zoomLevels_ - zoom - 1);
+        final double sx = cntBounds.Width() / maxBounds.Width(); // The scaling factors.
+        final double sy = cntBounds.Height() / maxBounds.Height();
+        int count = streets_.size();
+        final PolylineChunk[][] chunks = new PolylineChunk[count][];
+
+        // Only the most important streets are kept, so that
+        // the map doesn't get too crowded when zoomed out.
+        // The streets too narrow to be drawn are not considered.
+        boolean[] visible = new boolean[count];
 
-        g.setStroke(ScaledStreetStroke(street.Type(), view.Zoom()));
-        g.setColor(StreetColor(street.Type()));
-        g.drawLine((int)(line.XA() * scale - viewX), (int)(line.YA() * scale - viewY),
-                   (int)(line.XB() * scale - viewX), (int)(line.YB() * scale - viewY));
+        for(int i = 0; i < count; i++) {
+            Street street = (Street)streets_.get(i).Value();
+            visible[i] = ScaledStreetWidth(street.Type(), zoom) >= 2.0;
+        }
+
+        final boolean[] shown = streetDetail_.Select(sx, sy, cntBounds.Width(),
+                                                     cntBounds.Height(), provider_.TileSize(),
+                                                     visible);
+
+        ParallelTasks.ForRange(count, MIN_STREET_BATCH, new ParallelTasks.RangeTask() {
+            public void Run(int first, int last) {
+                ArrayList<Point> points = new ArrayList<Point>();
+                ArrayList<Point> selected = new ArrayList<Point>();
+
+                for(int i = first; i < last; i++) {
+                    if(!shown[i]) {
+                        continue;
+                    }
+
+                    Polyline polyline = SimplifyStreet(streets_.get(i), zoom, minDistance,
+                                                       sx, sy, points, selected);
+                    if(polyline != null) {
+                        chunks[i] = polyline.CreateChunks(CHUNK_SEGMENTS);
+                    }
+                }
+            }
+        });
+
+        AddChunks(chunks, zoom, null);
     }
 
-    private void DrawNames(LineCollection lines, Graphics2D g, 
-                           View view, double scale) {
-        // Draws all street names at the specified scale factor.
-        Iterator<Line> lineIt = lines.Objects().iterator();
+    private Polyline SimplifyStreet(Polyline source, int zoom, double minDistance,
+                                    double sx, double sy, ArrayList<Point> points,
+                                    ArrayList<Point> selected) {
+        // If the width of the street is below 2 pixels
+        // the street isn't shown at all.
+        Street street = (Street)source.Value();
+
+        if(ScaledStreetWidth(street.Type(), zoom) < 2.0) {
+            return null;
+        }
+
+        // Simplifiy the points on the line.
+        // A subsets of the points is selected which 
+        // approximate the original lines fairly accurately.
+        points.clear();
+        selected.clear();
+        source.GetPoints(points);
+        LineSimplifier.Simplify(points, minDistance, selected);
+
+        // It is guaranteed that at least two points remain.
+        Polyline polyline = new Polyline(Polyline.ToArray(selected, sx, sy),
+                                         street);
+        AttachNames(polyline);
+        return polyline;
+    }
+
+    private void AddToPath(Line line, double scale, double viewX, double viewY) {
+        // Adds the line to the path associated with its street type.
+        int index = ((Street)line.Value()).Type().Index();
+
+        if(line instanceof PolylineChunk) {
+            // All segments of the chunk form a single run.
+            PolylineChunk chunk = (PolylineChunk)line;
+            Polyline polyline = chunk.Polyline();
+            int first = chunk.FirstSegment();
+            int last = chunk.LastSegment();
+            double prevX = polyline.X(first) * scale - viewX;
+            double prevY = polyline.Y(first) * scale - viewY;
+
+            for(int i = first + 1; i <= last; i++) {
+                double x = polyline.X(i) * scale - viewX;
+                double y = polyline.Y(i) * scale - viewY;
+                AddSegment(index, prevX, prevY, x, y);
+                prevX = x;
+                prevY = y;
+            }
+        }
+        else {
+            AddSegment(index, line.XA() * scale - viewX, line.YA() * scale - viewY,
+                              line.XB() * scale - viewX, line.YB() * scale - viewY);
+        }
+    }
+
+    private void AddSegment(int index, double xa, double ya, double xb, double yb) {
+        // Only the part of the segment found in the view is added,
+        // the stroker would spend time on the invisible parts otherwise.
+        // A segment that is not clipped continues the run of the previous one.
+        if(LineUtils.ClipLine(xa, ya, xb, yb, -clipMargin_, -clipMargin_,
+                              clipRight_, clipBottom_, clipped_)) {
+            StartRun(index, clipped_[0], clipped_[1]);
+            ContinueRun(index, clipped_[2], clipped_[3]);
+        }
+    }
+
+    private void StartRun(int index, double x, double y) {
+        // If the run continues the previous one (the chunks of a street
+        // usually come in order) the path is not interrupted.
+        if((pathEndX_[index] != x) || (pathEndY_[index] != y)) {
+            paths_[index].moveTo(x, y);
+            pathEndX_[index] = x;
+            pathEndY_[index] = y;
+        }
+    }
+
+    private void ContinueRun(int index, double x, double y) {
+        paths_[index].lineTo(x, y);
+        pathEndX_[index] = x;
+        pathEndY_[index] = y;
+    }
+
+    private void DrawPath(StreetType type, Graphics2D g, View view) {
+        // All lines of the street type are drawn with a single call.
+        Path2D.Double path = paths_[type.Index()];
+
+        if(path.getCurrentPoint() == null) {
+            return; // No lines added.
+        }
+
+        g.setStroke(ScaledStreetStroke(type, view.Zoom()));
+        g.setColor(StreetColor(type));
+        g.draw(path);
+    }
+
+    private void DrawNames(Graphics2D g, View view, int level, double scale) {
+        // The names are placed again only when the zoom level changes
+        // or after the view moved by at least a tile since the last placement,
+        // otherwise the accepted labels are drawn at the same positions.
+        Region2D bounds = view.Bounds();
+
+        if((level != labelLevel_) || (scale != labelScale_) ||
+           (Math.abs(bounds.Left() - labelX_) >= tileSize_) ||
+           (Math.abs(bounds.Top() - labelY_) >= tileSize_)) {
+            PlaceLabels(g, view, level, scale);
+        }
+
+        // The labels are already rendered and rotated,
+        // drawing them requires just copying the images.
+        double viewX = bounds.Left();
+        double viewY = bounds.Top();
+        int count = labels_.size();
+
+        for(int i = 0; i < count; i++) {
+            StreetLabel label = labels_.get(i);
+
+            if(LabelVisible(label, bounds)) {
+                LabelCache.Sprite sprite = label.sprite_;
+                g.drawImage(sprite.Image(), 
+                            (int)Math.round(label.textX_ - viewX - sprite.AnchorX()),
+                            (int)Math.round(label.textY_ - viewY - sprite.AnchorY()), 
+                            null);
+            }
+        }
+    }
+
+    private boolean LabelVisible(StreetLabel label, Region2D bounds) {
+        // Test the bounding box of the label against the view.
+        double[] corners = label.corners_;
+        double left = Double.MAX_VALUE;
+        double top = Double.MAX_VALUE;
+        double right = -Double.MAX_VALUE;
+        double bottom = -Double.MAX_VALUE;
+
+        for(int i = 0; i < 8; i += 2) {
+            left = Math.min(left, corners[i]);
+            right = Math.max(right, corners[i]);
+            top = Math.min(top, corners[i + 1]);
+            bottom = Math.max(bottom, corners[i + 1]);
+        }
+
+        return bounds.IntersectsWith(left, top, right - left, bottom - top);
+    }
+
+    private void PlaceLabels(Graphics2D g, View view, int level, double scale) {
+        // The labels are placed for a region that is larger with a tile
+        // on each side than the view, so that the ones near the edges
+        // are not moved around while the view is moved.
+        Region2D bounds = view.Bounds();
+        labels_.clear();
+        labelLevel_ = level;
+        labelScale_ = scale;
+        labelX_ = bounds.Left();
+        labelY_ = bounds.Top();
+
+        double left = bounds.Left() - tileSize_;
+        double top = bounds.Top() - tileSize_;
+        double width = bounds.Width() + 2 * tileSize_;
+        double height = bounds.Height() + 2 * tileSize_;
+        double inflateVal = 2 * ScaledStreetWidth(StreetType.Boulevard, level);
+        Region2D region = new Region2D((left / scale) - inflateVal, 
+                                       (top / scale) - inflateVal,
+                                       (width / scale) + 2 * inflateVal,
+                                       (height / scale) + 2 * inflateVal);
+        labelLines_.Clear();
+        Index().Intersect(region, level, labelLines_);
+
+        // Split the lines by street type.
+        int count = labelLines_.Count();
+        streetList_.clear();
         avenueList_.clear();
         boulevardList_.clear();
 
-        // First draw the name for the standard streets, while puting 
-        // the other types of streets in separate lists to be draw later.
-        while(lineIt.hasNext()) {
-            Line line = lineIt.next();
-            StreetType type = ((Street)line.Value()).Type();
+        for(int i = 0; i < count; i++) {
+            Line line = labelLines_.Get(i);
             
-            switch(type) {
-                case Street: {
-                    DrawName(line, g, view, scale, StreetFont(type), Color.WHITE);
-                    break;
-                }
+            switch(((Street)line.Value()).Type()) {
+                case Street: { streetList_.add(line); break; }
                 case Avenue: { avenueList_.add(line); break; }
                 case Boulevard: { boulevardList_.add(line); break; }
             }
         }
 
-        // Draw the names for other types of streets based on their importance
+        // The names are placed based on the importance of the street type
         // (a Bulevard is considere more important than an Avenue).
-        int count = avenueList_.size();
-        
+        // A name is rejected if it overlaps one that was already placed.
+        CollisionGrid grid = new CollisionGrid(left, top, width, height,
+                                               LABEL_CELL_SIZE);
+        PlaceLabels(boulevardList_, grid, g, view, scale);
+        PlaceLabels(avenueList_, grid, g, view, scale);
+        PlaceLabels(streetList_, grid, g, view, scale);
+        labelLines_.Clear();
+    }
+
+    private void PlaceLabels(ArrayList<Line> lines, CollisionGrid grid,
+                             Graphics2D g, View view, double scale) {
+        int count = lines.size();
+
         for(int i = 0; i < count; i++) {
-            StreetType type = ((Street)avenueList_.get(i).Value()).Type();
-            DrawName(avenueList_.get(i), g, view, scale, StreetFont(type), Color.WHITE);
+            Line line = lines.get(i);
+            Street street = (Street)line.Value();
+
+            if(street.Name() == null) {
+                continue;
+            }
+
+            Font font = StreetFont(street.Type());
+
+            if(line instanceof PolylineChunk) {
+                // For a polyline chunk the name is placed near
+                // each of its segments that should have one.
+                PolylineChunk chunk = (PolylineChunk)line;
+                Polyline polyline = chunk.Polyline();
+
+                // Compute the text size if not done already.
+                if(polyline.NameHeight() == 0) {
+                    FontMetrics metrics = g.getFontMetrics(font);
+                    polyline.SetNameHeight((short)metrics.getHeight());
+                    polyline.SetNameWidth((short)metrics.stringWidth(street.Name()));
+                }
+
+                int namedCount = polyline.NamedSegmentCount();
+
+                for(int j = 0; j < namedCount; j++) {
+                    int segment = polyline.NamedSegment(j);
+
+                    if((segment >= chunk.FirstSegment()) &&
+                       (segment < chunk.LastSegment())) {
+                        PlaceName(street, font, polyline.X(segment), polyline.Y(segment),
+                                  polyline.X(segment + 1), polyline.Y(segment + 1),
+                                  polyline.SegmentLength(segment), polyline.NameCount(j),
+                                  polyline.NameWidth(), polyline.NameHeight(),
+                                  grid, view, scale);
+                    }
+                }
+            }
+            else if(line.NameCount() > 0) {
+                // Compute the text size if not done already.
+                if(line.NameHeight() == 0) {
+                    FontMetrics metrics = g.getFontMetrics(font);
+                    line.SetNameHeight((short)metrics.getHeight());
+                    line.SetNameWidth((short)metrics.stringWidth(street.Name()));
+                }
+
+                PlaceName(street, font, line.XA(), line.YA(), line.XB(), line.YB(),
+                          (double)line.Length(), line.NameCount(),
+                          line.NameWidth(), line.NameHeight(),
+                          grid, view, scale);
+            }
         }
+    }
+
+    private void PlaceName(Street street, Font font, double xa, double ya, 
+                           double xb, double yb, double length, int nameCount,
+                           int nameWidth, int nameHeight, CollisionGrid grid,
+                           View view, double scale) {
+        // Place the name of the street near the specified segment.
+        // If the segment is long the name appears multiple times.
+        double dirX = 1.0;  // Controls the name orientation.
+        double dirY = -1.0;
+        double streetWidth = ScaledStreetWidth(street.Type(), 
+                                               (int)Math.rint(view.Zoom()));
 
-        count = boulevardList_.size();
+        // Find the line angle and prevent a rotation greater
+        // than ~110 degrees (the text would be hard to read).
+        double angle = Math.atan2(yb - ya, xb - xa);
         
+        if(Math.abs(angle) > 1.88) {
+            dirX = -1.0;
+            dirY = 1.0;
+            angle += Math.PI;
+            streetWidth += nameHeight / 2;
+        }
+
+        double x = xa * scale;
+        double y = ya * scale;
+        double cos = Math.cos(angle);
+        double sin = Math.sin(angle);
+        int count = Math.max(1, nameCount);
+        double segLength = length / count;
+        double offsetY = dirY * streetWidth * scale;
+
         for(int i = 0; i < count; i++) {
-            StreetType type = ((Street)boulevardList_.get(i).Value()).Type();
-            DrawName(boulevardList_.get(i), g, view, scale, StreetFont(type), Color.WHITE);
+            double offsetX = dirX * segLength * (i + 0.5) * scale - (nameWidth / 2);
+
+            // The corners of the text background, rotated around the start.
+            double textLeft = offsetX - 2;
+            double textTop = offsetY - nameHeight + 2;
+            double textRight = offsetX + nameWidth + 3;
+            double textBottom = offsetY + 5;
+            double[] corners = new double[] {
+                x + textLeft * cos - textTop * sin, y + textLeft * sin + textTop * cos,
+                x + textRight * cos - textTop * sin, y + textRight * sin + textTop * cos,
+                x + textRight * cos - textBottom * sin, y + textRight * sin + textBottom * cos,
+                x + textLeft * cos - textBottom * sin, y + textLeft * sin + textBottom * cos
+            };
+
+            if(grid.TryAdd(corners)) {
+                LabelCache.Sprite sprite = labelSprites_.Get(street.Name(), font, angle,
+                                                             nameWidth, nameHeight);
+                labels_.add(new StreetLabel(x + offsetX * cos - offsetY * sin,
+                                            y + offsetX * sin + offsetY * cos,
+                                            corners, sprite));
+            }
         }
     }
 
-    private void DrawImpl(LineCollection lines, Graphics2D g, View view, double scale) {
+    private void DrawImpl(LineCollection lines, Graphics2D g, View view,
+                          int level, double scale) {
         // Draw all lines at the specified scaling factor.
-        Iterator<Line> lineIt = lines.Objects().iterator();
-        avenueList_.clear();
-        boulevardList_.clear();
+        // The lines are collected into one path for each street type.
+        double viewX = view.Bounds().Left();
+        double viewY = view.Bounds().Top();
+        int count = lines.Count();
+        clipMargin_ = ScaledStreetWidth(StreetType.Boulevard, view.Zoom()) + 1;
+        clipRight_ = view.Bounds().Width() + clipMargin_;
+        clipBottom_ = view.Bounds().Height() + clipMargin_;
         
-        // First draw the name for the standard streets, while puting 
-        // the other types of streets in separate lists to be draw later.
-        while(lineIt.hasNext()) {
-            Line line = lineIt.next();
-            StreetType type = ((Street)line.Value()).Type();
-            
-            switch(type) {
-                case Street: {
-                    DrawLine(line, g, view, scale);
-                    break;
-                }
-                case Avenue: { avenueList_.add(line); break; }
-                case Boulevard: { boulevardList_.add(line); break; }
-            }
+        for(int i = 0; i < paths_.length; i++) {
+            // NaN never equals a coordinate, so the first line starts the path.
+            paths_[i].reset();
+            pathEndX_[i] = Double.NaN;
         }
 
-        // Draw the other types of streets based on their importance
-        // (a Bulevard is considere more important than an Avenue).
-        int count = avenueList_.size();
         for(int i = 0; i < count; i++) {
-            DrawLine(avenueList_.get(i), g, view, scale);
+            AddToPath(lines.Get(i), scale, viewX, viewY);
         }
 
-        count = boulevardList_.size();
-        for(int i = 0; i < count; i++) {
-            DrawLine(boulevardList_.get(i), g, view, scale);
-        }
+        // Draw the paths based on the importance of the street type
+        // (a Bulevard is considere more important than an Avenue).
+        DrawPath(StreetType.Street, g, view);
+        DrawPath(StreetType.Avenue, g, view);
+        DrawPath(StreetType.Boulevard, g, view);
 
         // Now draw the street names. It is done last
         // so that the names are not covered by other streets.
-        DrawNames(lines, g, view, scale);
+        // The names are not drawn while the view is animated.
+        if(view.HighQuality()) {
+            DrawNames(g, view, level, scale);
+        }
+    }
+
+    private void QueryLines(Region2D region, int level) {
+        // The lines are queried for a region padded with a tile on each side
+        // and reused while the view doesn't leave it. After that only the
+        // strips that entered and left the padded region are queried,
+        // so panning doesn't require the whole view to be queried again.
+        if((level == queryLevel_) && queryRegion_.Contains(region)) {
+            return;
+        }
+
+        Region2D padded = new Region2D(region);
+        padded.Inflate(tileSize_, tileSize_);
+
+        if((level != queryLevel_) || !padded.IntersectsWith(queryRegion_)) {
+            visibleLines_.Clear();
+            Index().Intersect(padded, level, visibleLines_);
+        }
+        else {
+            // Only the lines that entered or left the region are found.
+            // The exited lines are removed in a single pass over the visible
+            // ones, cheaper than removing each of them from the list.
+            enteredLines_.Clear();
+            exitedLines_.Clear();
+            Index().IntersectDelta(queryRegion_, padded, level, 
+                                   enteredLines_, exitedLines_);
+
+            if(exitedLines_.Count() > 0) {
+                visibleLines_.RetainIntersecting(padded.Left(), padded.Top(),
+                                                 padded.Right(), padded.Bottom());
+            }
+
+            int count = enteredLines_.Count();
+
+            for(int i = 0; i < count; i++) {
+                visibleLines_.Add(enteredLines_.Get(i));
+            }
+
+            enteredLines_.Clear();
+            exitedLines_.Clear();
+        }
+
+        queryRegion_ = padded;
+        queryLevel_ = level;
     }
 
     private void Draw(View view) {
         // Activate antialiasing (makes the lines look much nicer).
-        VolatileImage buffer = view.GetBuffer(this);
-        Graphics2D g = buffer.createGraphics();
+        // It is disabled while the view is animated to speed up drawing.
+        Graphics2D g = view.CreateGraphics(this);
         g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-                           RenderingHints.VALUE_ANTIALIAS_ON);
+                           view.HighQuality() ? RenderingHints.VALUE_ANTIALIAS_ON :
+                                                RenderingHints.VALUE_ANTIALIAS_OFF);
         
         Region2D bounds = view.Bounds();
         int nextLevel = (int)Math.ceil(view.Zoom());
@@ -626,23 +1314,23 @@ public final class StreetRenderer implements IRenderer {
             // The lines from the previous level are displayed.
             g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER,
                            (float)(opacity_ * (1.0 - position*2))));
-            visibleLines_.Clear();
             view.PreviousBounds().Inflate(inflateVal, inflateVal);
-            lines_.Intersect(view.PreviousBounds(), (int)view.Zoom(), visibleLines_);
+            LoadLevel((int)view.Zoom());
+            QueryLines(view.PreviousBounds(), (int)view.Zoom());
             view.PreviousBounds().Inflate(-inflateVal, -inflateVal);
 
-            DrawImpl(visibleLines_, g, view, 1.0 + position);            
+            DrawImpl(visibleLines_, g, view, (int)view.Zoom(), 1.0 + position);            
         }
         else if(position >= 0.1) {
             // The lines from the next level are displayed.
             g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER,
                            (float)(opacity_ * Math.min(1.0, position * Math.E - 0.1))));
-            visibleLines_.Clear();
             view.NextBounds().Inflate(inflateVal, inflateVal);
-            lines_.Intersect(view.NextBounds(), nextLevel, visibleLines_);
+            LoadLevel(nextLevel);
+            QueryLines(view.NextBounds(), nextLevel);
             view.NextBounds().Inflate(-inflateVal, -inflateVal);
 
-            DrawImpl(visibleLines_, g, view, 0.5 + (position / 2));
+            DrawImpl(visibleLines_, g, view, nextLevel, 0.5 + (position / 2));
         }
 
         g.dispose();
@@ -0,0 +1,193 @@
+// Copyright (c) 2010 Gratian Lup. All rights reserved.
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//
+// * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following
+// disclaimer in the documentation and/or other materials provided
+// with the distribution.
+//
+// * The name "JavaMaps" must not be used to endorse or promote
+// products derived from this software without prior written permission.
+//
+// * Products derived from this software may not be called "JavaMaps" nor
+// may "JavaMaps" appear in their names without prior written
+// permission of the author.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package Rendering.Utils;
+import java.util.*;
+
+// Screen-space index of the rectangles (possibly rotated) already placed,
+// used to reject labels that would overlap. A rectangle is described by
+// its 4 corners, in order (x0, y0, x1, y1, x2, y2, x3, y3). It is stored
+// in every grid cell covered by its bounding box, so that only the
+// rectangles found in the same cells need to be tested.
+public final class CollisionGrid {
+    /*
+     ** Members.
+     */
+    private double left_;
+    private double top_;
+    private double cellSize_;
+    private int columns_;
+    private int rows_;
+    private ArrayList<ArrayList<double[]>> cells_;
+    private int count_;
+
+    /*
+     ** Constructors.
+     */
+    public CollisionGrid(double left, double top, double width,
+                         double height, double cellSize) {
+        assert(width > 0 && height > 0);
+        assert(cellSize > 0);
+        // ------------------------------------------------
+        left_ = left;
+        top_ = top;
+        cellSize_ = cellSize;
+        columns_ = Math.max(1, (int)Math.ceil(width / cellSize));
+        rows_ = Math.max(1, (int)Math.ceil(height / cellSize));
+        cells_ = new ArrayList<ArrayList<double[]>>(columns_ * rows_);
+
+        for(int i = 0; i < columns_ * rows_; i++) {
+            cells_.add(null); // Created when first used.
+        }
+    }
+
+    /*
+     ** Public methods.
+     */
+    public boolean TryAdd(double[] corners) {
+        assert(corners != null && corners.length == 8);
+        // ------------------------------------------------
+        // Adds the rectangle only if it doesn't overlap
+        // with any of the rectangles already added.
+        int firstColumn = Column(Min(corners, 0));
+        int lastColumn = Column(Max(corners, 0));
+        int firstRow = Row(Min(corners, 1));
+        int lastRow = Row(Max(corners, 1));
+
+        for(int row = firstRow; row <= lastRow; row++) {
+            for(int column = firstColumn; column <= lastColumn; column++) {
+                ArrayList<double[]> cell = cells_.get(row * columns_ + column);
+
+                if(cell == null) {
+                    continue;
+                }
+
+                for(int i = 0; i < cell.size(); i++) {
+                    if(Overlap(corners, cell.get(i))) {
+                        return false;
+                    }
+                }
+            }
+        }
+
+        for(int row = firstRow; row <= lastRow; row++) {
+            for(int column = firstColumn; column <= lastColumn; column++) {
+                int index = row * columns_ + column;
+                ArrayList<double[]> cell = cells_.get(index);
+
+                if(cell == null) {
+                    cell = new ArrayList<double[]>(4);
+                    cells_.set(index, cell);
+                }
+
+                cell.add(corners);
+            }
+        }
+
+        count_++;
+        return true;
+    }
+
+    public void Clear() {
+        for(int i = 0; i < cells_.size(); i++) {
+            cells_.set(i, null);
+        }
+
+        count_ = 0;
+    }
+
+    public int Count() {
+        return count_;
+    }
+
+    public static boolean Overlap(double[] a, double[] b) {
+        // Separating axis test for two convex quadrilaterals:
+        // they don't overlap if there is an edge of one of them
+        // such that the other one is found completely on its outer side.
+        return !Separated(a, b) && !Separated(b, a);
+    }
+
+    /*
+     ** Private methods.
+     */
+    private static boolean Separated(double[] a, double[] b) {
+        for(int i = 0; i < 4; i++) {
+            int next = (i + 1) % 4;
+            double ax = a[i * 2];
+            double ay = a[i * 2 + 1];
+            // The normal of the edge.
+            double nx = a[next * 2 + 1] - ay;
+            double ny = ax - a[next * 2];
+
+            // Project both quadrilaterals on the normal.
+            double minA = Double.MAX_VALUE;
+            double maxA = -Double.MAX_VALUE;
+            double minB = Double.MAX_VALUE;
+            double maxB = -Double.MAX_VALUE;
+
+            for(int j = 0; j < 4; j++) {
+                double projA = (a[j * 2] - ax) * nx + (a[j * 2 + 1] - ay) * ny;
+                double projB = (b[j * 2] - ax) * nx + (b[j * 2 + 1] - ay) * ny;
+                minA = Math.min(minA, projA);
+                maxA = Math.max(maxA, projA);
+                minB = Math.min(minB, projB);
+                maxB = Math.max(maxB, projB);
+            }
+
+            if((maxB < minA) || (minB > maxA)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static double Min(double[] corners, int offset) {
+        return Math.min(Math.min(corners[offset], corners[offset + 2]),
+                        Math.min(corners[offset + 4], corners[offset + 6]));
+    }
+
+    private static double Max(double[] corners, int offset) {
+        return Math.max(Math.max(corners[offset], corners[offset + 2]),
+                        Math.max(corners[offset + 4], corners[offset + 6]));
+    }
+
+    private int Column(double x) {
+        int column = (int)Math.floor((x - left_) / cellSize_);
+        return Math.max(0, Math.min(columns_ - 1, column));
+    }
+
+    private int Row(double y) {
+        int row = (int)Math.floor((y - top_) / cellSize_);
+        return Math.max(0, Math.min(rows_ - 1, row));
+    }
+}
@@ -0,0 +1,103 @@
+// Copyright (c) 2010 Gratian Lup. All rights reserved.
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//
+// * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following
+// disclaimer in the documentation and/or other materials provided
+// with the distribution.
+//
+// * The name "JavaMaps" must not be used to endorse or promote
+// products derived from this software without prior written permission.
+//
+// * Products derived from this software may not be called "JavaMaps" nor
+// may "JavaMaps" appear in their names without prior written
+// permission of the author.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package Rendering.Utils;
+
+// A 128 bit hash of the content of a layer, used as the key of the indexes
+// saved for it. It's not a cryptographic hash, but it's fast and any
+// changed value produces an unrelated result.
+public final class ContentHash {
+    /*
+     ** Members.
+     */
+    private long first_;
+    private long second_;
+    private long count_;
+
+    /*
+     ** Constructors.
+     */
+    public ContentHash() {
+        first_ = 0x9E3779B97F4A7C15L;
+        second_ = 0xC2B2AE3D27D4EB4FL;
+    }
+
+    /*
+     ** Public methods.
+     */
+    public void Add(long value) {
+        // The two halves are mixed differently,
+        // so they don't collide at the same time.
+        first_ = Mix(first_ ^ value);
+        second_ = Mix(Long.rotateLeft(second_, 31) + value);
+        count_++;
+    }
+
+    public void Add(int value) {
+        Add((long)value);
+    }
+
+    public void Add(double value) {
+        Add(Double.doubleToLongBits(value));
+    }
+
+    public void Add(String value) {
+        if(value == null) {
+            Add(-1);
+            return;
+        }
+
+        Add(value.length());
+
+        for(int i = 0; i < value.length(); i++) {
+            Add((int)value.charAt(i));
+        }
+    }
+
+    public String Value() {
+        return String.format("%016x%016x", Mix(first_ ^ count_),
+                                           Mix(second_ + count_));
+    }
+
+    /*
+     ** Private methods.
+     */
+    private static long Mix(long value) {
+        // The finalizer of MurmurHash3.
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
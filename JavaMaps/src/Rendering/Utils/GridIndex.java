@@ -0,0 +1,477 @@
+// Copyright (c) 2010 Gratian Lup. All rights reserved.
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//
+// * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following
+// disclaimer in the documentation and/or other materials provided
+// with the distribution.
+//
+// * The name "JavaMaps" must not be used to endorse or promote
+// products derived from this software without prior written permission.
+//
+// * Products derived from this software may not be called "JavaMaps" nor
+// may "JavaMaps" appear in their names without prior written
+// permission of the author.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+// A uniform grid of buckets for point-like objects, an alternative
+// to PointTree for layers with many points spread evenly over the map
+// (street lamps, bus stops). The points are sorted by cell and their
+// coordinates are stored in arrays of primitives, so a query scans
+// the cells it covers without following any pointers. The points outside
+// the map are kept in the cells found on the border of the grid.
+// The grid is built again by each change, it's meant for layers
+// that are rarely modified. Like with PointTree, the queries don't lock
+// and see the grid either before or after a change.
+package Rendering.Utils;
+import Core.*;
+import Rendering.IVisual;
+import java.util.*;
+
+public final class GridIndex<T extends IVisual> implements IPointIndex<T> {
+    // The average number of points in a cell.
+    private static final int POINTS_PER_CELL = 4;
+
+    // The distribution of the points is checked on a grid
+    // with SAMPLE_CELLS cells on each side.
+    private static final int SAMPLE_CELLS = 16;
+    private static final int MIN_GRID_POINTS = 4096;
+    private static final double MIN_OCCUPIED_CELLS = 0.75; // Of the sample cells.
+    private static final double MAX_CELL_LOAD = 4; // Relative to the average load.
+
+    private static final class Grid {
+        // The fields are final, so a grid can be used by queries
+        // running on other threads as soon as they can see it.
+        public final int columns_;
+        public final int rows_;
+        public final double cellWidth_;
+        public final double cellHeight_;
+        public final int[] cellStarts_;  // The first point of each cell, then the end.
+        public final double[] xs_;       // Sorted by cell.
+        public final double[] ys_;
+        public final Object[] values_;
+
+        // ------------------------------------------------
+        public Grid(int columns, int rows, double cellWidth, double cellHeight,
+                    int[] cellStarts, double[] xs, double[] ys, Object[] values) {
+            columns_ = columns;
+            rows_ = rows;
+            cellWidth_ = cellWidth;
+            cellHeight_ = cellHeight;
+            cellStarts_ = cellStarts;
+            xs_ = xs;
+            ys_ = ys;
+            values_ = values;
+        }
+
+        // ------------------------------------------------
+        public int Column(double x) {
+            return Math.max(0, Math.min(columns_ - 1, (int)Math.floor(x / cellWidth_)));
+        }
+
+        public int Row(double y) {
+            return Math.max(0, Math.min(rows_ - 1, (int)Math.floor(y / cellHeight_)));
+        }
+    }
+
+    /*
+     ** Members.
+     */
+    private volatile Grid grid_;
+    private double width_;
+    private double height_;
+
+    /*
+     ** Constructors.
+     */
+    public GridIndex(double width, double height) {
+        width_ = width;
+        height_ = height;
+        grid_ = Build(new Object[0]);
+    }
+
+    public GridIndex(double width, double height, Collection<T> values) {
+        this(width, height);
+        AddAll(values);
+    }
+
+    /*
+     ** Public methods.
+     */
+    public static boolean Suitable(Collection<? extends IVisual> values,
+                                   double width, double height) {
+        assert(values != null);
+        // ------------------------------------------------
+        // Checks if a grid should be used instead of a PointTree for the
+        // points. The grid is faster only if there are many points and
+        // most cells have about the same number of points, else many
+        // cells are empty and a few of them have most points.
+        int count = values.size();
+
+        if(count < MIN_GRID_POINTS) {
+            return false;
+        }
+
+        int[] loads = new int[SAMPLE_CELLS * SAMPLE_CELLS];
+
+        for(IVisual value : values) {
+            Point position = value.Position();
+            int column = (int)Math.floor(position.X() / width * SAMPLE_CELLS);
+            int row = (int)Math.floor(position.Y() / height * SAMPLE_CELLS);
+            column = Math.max(0, Math.min(SAMPLE_CELLS - 1, column));
+            row = Math.max(0, Math.min(SAMPLE_CELLS - 1, row));
+            loads[(row * SAMPLE_CELLS) + column]++;
+        }
+
+        int occupied = 0;
+        int maxLoad = 0;
+
+        for(int i = 0; i < loads.length; i++) {
+            occupied += (loads[i] > 0) ? 1 : 0;
+            maxLoad = Math.max(maxLoad, loads[i]);
+        }
+
+        double averageLoad = (double)count / loads.length;
+        return (occupied >= (MIN_OCCUPIED_CELLS * loads.length)) &&
+               (maxLoad <= (MAX_CELL_LOAD * averageLoad));
+    }
+
+    public synchronized void Add(T value) {
+        assert(value != null);
+        // ------------------------------------------------
+        Object[] values = grid_.values_;
+        Object[] newValues = Arrays.copyOf(values, values.length + 1);
+        newValues[values.length] = value;
+        grid_ = Build(newValues);
+    }
+
+    public synchronized void AddAll(Collection<T> values) {
+        assert(values != null);
+        // ------------------------------------------------
+        Object[] oldValues = grid_.values_;
+        Object[] newValues = Arrays.copyOf(oldValues, oldValues.length + values.size());
+        int index = oldValues.length;
+
+        for(T value : values) {
+            newValues[index++] = value;
+        }
+
+        grid_ = Build(newValues);
+    }
+
+    public synchronized void Remove(T value) {
+        assert(value != null);
+        // ------------------------------------------------
+        Object[] values = grid_.values_;
+
+        for(int i = 0; i < values.length; i++) {
+            if(values[i].equals(value)) {
+                Object[] newValues = new Object[values.length - 1];
+                System.arraycopy(values, 0, newValues, 0, i);
+                System.arraycopy(values, i + 1, newValues, i, values.length - i - 1);
+                grid_ = Build(newValues);
+                return;
+            }
+        }
+    }
+
+    public synchronized void Clear() {
+        grid_ = Build(new Object[0]);
+    }
+
+    public int Count() {
+        return grid_.values_.length;
+    }
+
+    public void GetPoints(Collection<T> list) {
+        assert(list != null);
+        // ------------------------------------------------
+        Grid grid = grid_;
+
+        for(int i = 0; i < grid.values_.length; i++) {
+            list.add(Value(grid, i));
+        }
+    }
+
+    public double Width() {
+        return width_;
+    }
+
+    public double Height() {
+        return height_;
+    }
+
+    public void Intersect(Region2D region, ObjectCollection<T> list) {
+        assert(region != null);
+        assert(list != null);
+        // ------------------------------------------------
+        // Add to the list all points that intersect the specified region.
+        Grid grid = grid_; // Not modified while the query runs.
+
+        if(region.IsEmpty()) {
+            return;
+        }
+
+        int firstColumn = grid.Column(region.Left());
+        int lastColumn = grid.Column(region.Right());
+        int firstRow = grid.Row(region.Top());
+        int lastRow = grid.Row(region.Bottom());
+        int[] cellStarts = grid.cellStarts_;
+        double[] xs = grid.xs_;
+        double[] ys = grid.ys_;
+
+        for(int row = firstRow; row <= lastRow; row++) {
+            int cell = (row * grid.columns_) + firstColumn;
+            int first = cellStarts[cell];
+            int last = cellStarts[cell + (lastColumn - firstColumn) + 1];
+
+            // The cells of a row are contiguous in the arrays.
+            for(int i = first; i < last; i++) {
+                if(region.Contains(xs[i], ys[i])) {
+                    T value = Value(grid, i);
+
+                    if(list.Valid(value)) {
+                        list.Add(value);
+                    }
+                }
+            }
+        }
+    }
+
+    public void IntersectDelta(Region2D previous, Region2D current, 
+                               ObjectCollection<T> entered, ObjectCollection<T> exited) {
+        assert(previous != null && current != null);
+        assert(entered != null && exited != null);
+        // ------------------------------------------------
+        // Add to 'entered' the points found in the current region, but not
+        // in the previous one, and to 'exited' the points found only in the
+        // previous region. The cells inside both regions are skipped.
+        Grid grid = grid_; // Not modified while the query runs.
+        boolean hasPrevious = !previous.IsEmpty();
+        boolean hasCurrent = !current.IsEmpty();
+
+        if(!hasPrevious && !hasCurrent) {
+            return;
+        }
+
+        int firstColumn = Integer.MAX_VALUE;
+        int lastColumn = Integer.MIN_VALUE;
+        int firstRow = Integer.MAX_VALUE;
+        int lastRow = Integer.MIN_VALUE;
+
+        if(hasPrevious) {
+            firstColumn = grid.Column(previous.Left());
+            lastColumn = grid.Column(previous.Right());
+            firstRow = grid.Row(previous.Top());
+            lastRow = grid.Row(previous.Bottom());
+        }
+
+        if(hasCurrent) {
+            firstColumn = Math.min(firstColumn, grid.Column(current.Left()));
+            lastColumn = Math.max(lastColumn, grid.Column(current.Right()));
+            firstRow = Math.min(firstRow, grid.Row(current.Top()));
+            lastRow = Math.max(lastRow, grid.Row(current.Bottom()));
+        }
+
+        for(int row = firstRow; row <= lastRow; row++) {
+            for(int column = firstColumn; column <= lastColumn; column++) {
+                if(CellInside(grid, column, row, previous) &&
+                   CellInside(grid, column, row, current)) {
+                    continue; // The points didn't change.
+                }
+
+                int cell = (row * grid.columns_) + column;
+
+                for(int i = grid.cellStarts_[cell]; i < grid.cellStarts_[cell + 1]; i++) {
+                    double x = grid.xs_[i];
+                    double y = grid.ys_[i];
+                    boolean inPrevious = hasPrevious && previous.Contains(x, y);
+                    boolean inCurrent = hasCurrent && current.Contains(x, y);
+
+                    if(inCurrent && !inPrevious) {
+                        T value = Value(grid, i);
+
+                        if(entered.Valid(value)) {
+                            entered.Add(value);
+                        }
+                    }
+                    else if(inPrevious && !inCurrent) {
+                        T value = Value(grid, i);
+
+                        if(exited.Valid(value)) {
+                            exited.Add(value);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public void Near(Point point, double maxDistance, ObjectCollection<T> list) {
+        assert(point != null);
+        assert(list != null);
+        assert(maxDistance >= 0);
+        // ------------------------------------------------
+        // Search all points that are at a distance smaller than 
+        // 'maxDistance' to the specified point.
+        Grid grid = grid_; // Not modified while the query runs.
+        double px = point.X();
+        double py = point.Y();
+        double maxDistanceSq = maxDistance * maxDistance;
+        int firstColumn = grid.Column(px - maxDistance);
+        int lastColumn = grid.Column(px + maxDistance);
+        int firstRow = grid.Row(py - maxDistance);
+        int lastRow = grid.Row(py + maxDistance);
+
+        for(int row = firstRow; row <= lastRow; row++) {
+            int cell = (row * grid.columns_) + firstColumn;
+            int first = grid.cellStarts_[cell];
+            int last = grid.cellStarts_[cell + (lastColumn - firstColumn) + 1];
+
+            for(int i = first; i < last; i++) {
+                double dx = grid.xs_[i] - px;
+                double dy = grid.ys_[i] - py;
+
+                if(((dx * dx) + (dy * dy)) < maxDistanceSq) {
+                    list.Add(Value(grid, i));
+                }
+            }
+        }
+    }
+
+    public T NearestPoint(double x, double y, double maxDistance) {
+        assert(maxDistance >= 0);
+        // ------------------------------------------------
+        // Returns the nearest point that is at a distance smaller
+        // than 'maxDistance', or null if there is no such point.
+        // The cells are searched in rings around the cell of the point,
+        // until the next ring is farther than the nearest point found.
+        Grid grid = grid_; // Not modified while the query runs.
+        double nearestDist = maxDistance * maxDistance; // Squared.
+        int nearest = -1;
+        int centerColumn = grid.Column(x);
+        int centerRow = grid.Row(y);
+        int maxRing = Math.max(grid.columns_, grid.rows_);
+        double minCellSize = Math.min(grid.cellWidth_, grid.cellHeight_);
+
+        for(int ring = 0; ring <= maxRing; ring++) {
+            // A cell of the ring is at least 'ring - 1' cells away.
+            double ringDist = Math.max(0, ring - 1) * minCellSize;
+
+            if((ringDist * ringDist) >= nearestDist) {
+                break;
+            }
+
+            for(int row = centerRow - ring; row <= centerRow + ring; row++) {
+                if((row < 0) || (row >= grid.rows_)) {
+                    continue;
+                }
+
+                // Only the first and last row contain all cells of the ring.
+                boolean fullRow = (ring == 0) || (row == centerRow - ring) ||
+                                  (row == centerRow + ring);
+                int step = fullRow ? 1 : (2 * ring);
+
+                for(int column = centerColumn - ring; column <= centerColumn + ring; column += step) {
+                    if((column < 0) || (column >= grid.columns_)) {
+                        continue;
+                    }
+
+                    int cell = (row * grid.columns_) + column;
+
+                    for(int i = grid.cellStarts_[cell]; i < grid.cellStarts_[cell + 1]; i++) {
+                        double dx = grid.xs_[i] - x;
+                        double dy = grid.ys_[i] - y;
+                        double distance = (dx * dx) + (dy * dy);
+
+                        if(distance < nearestDist) {
+                            nearestDist = distance;
+                            nearest = i;
+                        }
+                    }
+                }
+            }
+        }
+
+        return (nearest != -1) ? Value(grid, nearest) : null;
+    }
+
+    /*
+     ** Private methods.
+     */
+    @SuppressWarnings("unchecked")
+    private T Value(Grid grid, int index) {
+        // The grid holds only the values added to this index.
+        return (T)grid.values_[index];
+    }
+
+    private Grid Build(Object[] values) {
+        // The number of cells is selected based on the number of points,
+        // the cells being about as wide as they are tall. The points are
+        // sorted by cell using a counting sort.
+        int count = values.length;
+        int cells = Math.max(1, count / POINTS_PER_CELL);
+        int columns = Math.max(1, (int)Math.round(Math.sqrt(cells * width_ / height_)));
+        int rows = Math.max(1, (cells + columns - 1) / columns);
+        double cellWidth = width_ / columns;
+        double cellHeight = height_ / rows;
+        int[] cellStarts = new int[(columns * rows) + 1];
+        int[] pointCells = new int[count];
+        Grid grid = new Grid(columns, rows, cellWidth, cellHeight, cellStarts,
+                             new double[count], new double[count], new Object[count]);
+
+        for(int i = 0; i < count; i++) {
+            Point position = ((IVisual)values[i]).Position();
+            pointCells[i] = (grid.Row(position.Y()) * columns) + grid.Column(position.X());
+            cellStarts[pointCells[i] + 1]++;
+        }
+
+        for(int i = 1; i < cellStarts.length; i++) {
+            cellStarts[i] += cellStarts[i - 1];
+        }
+
+        // The points keep their order inside a cell.
+        int[] positions = Arrays.copyOf(cellStarts, cellStarts.length - 1);
+
+        for(int i = 0; i < count; i++) {
+            int index = positions[pointCells[i]]++;
+            Point position = ((IVisual)values[i]).Position();
+            grid.xs_[index] = position.X();
+            grid.ys_[index] = position.Y();
+            grid.values_[index] = values[i];
+        }
+
+        return grid;
+    }
+
+    private boolean CellInside(Grid grid, int column, int row, Region2D region) {
+        // The cells on the border of the grid also contain the points
+        // outside the map, they are never considered inside a region.
+        if(region.IsEmpty() || (column == 0) || (row == 0) ||
+           (column == grid.columns_ - 1) || (row == grid.rows_ - 1)) {
+            return false;
+        }
+
+        double left = column * grid.cellWidth_;
+        double top = row * grid.cellHeight_;
+        return (left >= region.Left()) && (top >= region.Top()) &&
+               ((left + grid.cellWidth_) <= region.Right()) &&
+               ((top + grid.cellHeight_) <= region.Bottom());
+    }
+}
@@ -0,0 +1,308 @@
+// Copyright (c) 2010 Gratian Lup. All rights reserved.
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//
+// * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following
+// disclaimer in the documentation and/or other materials provided
+// with the distribution.
+//
+// * The name "JavaMaps" must not be used to endorse or promote
+// products derived from this software without prior written permission.
+//
+// * Products derived from this software may not be called "JavaMaps" nor
+// may "JavaMaps" appear in their names without prior written
+// permission of the author.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package Rendering.Utils;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+// Saves the indexes built from a layer, so that they don't need to be
+// built again the next time the map is loaded. The files are named after
+// the content hash of the layer, a changed layer doesn't find the old files.
+// A file contains a sequence of int and double arrays, read by mapping
+// the file in memory. A missing or damaged file is reported as not found,
+// the caller is expected to build the index again and overwrite it.
+public final class IndexStore {
+    private static final int MAGIC = 0x4A4D4958; // "JMIX"
+    private static final int VERSION = 1;
+    private static final byte INT_ARRAY = 0;
+    private static final byte DOUBLE_ARRAY = 1;
+
+    // The arrays saved in a file, in the order they were added.
+    public static final class Data {
+        private ArrayList<Object> arrays_;
+
+        // ------------------------------------------------
+        public Data() {
+            arrays_ = new ArrayList<Object>();
+        }
+
+        // ------------------------------------------------
+        public void Add(int[] values) {
+            assert(values != null);
+            // ------------------------------------------------
+            arrays_.add(values);
+        }
+
+        public void Add(double[] values) {
+            assert(values != null);
+            // ------------------------------------------------
+            arrays_.add(values);
+        }
+
+        public int Count() {
+            return arrays_.size();
+        }
+
+        // Returns null if there is no int array at the index.
+        public int[] Ints(int index) {
+            if((index < 0) || (index >= arrays_.size())) {
+                return null;
+            }
+
+            Object array = arrays_.get(index);
+            return (array instanceof int[]) ? (int[])array : null;
+        }
+
+        // Returns null if there is no double array at the index.
+        public double[] Doubles(int index) {
+            if((index < 0) || (index >= arrays_.size())) {
+                return null;
+            }
+
+            Object array = arrays_.get(index);
+            return (array instanceof double[]) ? (double[])array : null;
+        }
+
+        Object Get(int index) {
+            return arrays_.get(index);
+        }
+    }
+
+    /*
+     ** Members.
+     */
+    private File directory_;
+
+    /*
+     ** Constructors.
+     */
+    public IndexStore(File directory) {
+        assert(directory != null);
+        // ------------------------------------------------
+        directory_ = directory;
+    }
+
+    /*
+     ** Public methods.
+     */
+    public File Directory() {
+        return directory_;
+    }
+
+    public File IndexFile(String hash, String name) {
+        assert(hash != null);
+        assert(name != null);
+        // ------------------------------------------------
+        return new File(directory_, hash + "-" + name + ".idx");
+    }
+
+    public boolean Contains(String hash, String name) {
+        return IndexFile(hash, name).isFile();
+    }
+
+    public Data Read(String hash, String name) {
+        // Returns null if the file is not found or can't be read.
+        File file = IndexFile(hash, name);
+
+        if(!file.isFile()) {
+            return null;
+        }
+
+        RandomAccessFile input = null;
+
+        try {
+            input = new RandomAccessFile(file, "r");
+            FileChannel channel = input.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                                            0, channel.size());
+            return ReadData(buffer);
+        }
+        catch(IOException e) {
+            return null;
+        }
+        catch(BufferUnderflowException e) {
+            return null; // The file was truncated.
+        }
+        finally {
+            Close(input);
+        }
+    }
+
+    public boolean Write(String hash, String name, Data data) {
+        assert(data != null);
+        // ------------------------------------------------
+        // The data is written to a temporary file first, a file with
+        // the final name is always complete, even if writing fails.
+        if(!directory_.isDirectory() && !directory_.mkdirs()) {
+            return false;
+        }
+
+        File file = IndexFile(hash, name);
+        File temp = new File(directory_, file.getName() + ".tmp");
+        RandomAccessFile output = null;
+        boolean written = false;
+
+        try {
+            output = new RandomAccessFile(temp, "rw");
+            output.setLength(0);
+            ByteBuffer buffer = ByteBuffer.allocate(DataSize(data));
+            WriteData(buffer, data);
+            buffer.flip();
+
+            // Written from the heap, a mapped file
+            // can't be renamed on some systems.
+            FileChannel channel = output.getChannel();
+
+            while(buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+
+            written = true;
+        }
+        catch(IOException e) {
+            written = false;
+        }
+        finally {
+            Close(output);
+        }
+
+        if(written) {
+            if(file.exists() && !file.delete()) {
+                written = false;
+            }
+            else written = temp.renameTo(file);
+        }
+
+        if(!written) {
+            temp.delete();
+        }
+
+        return written;
+    }
+
+    public void Delete(String hash, String name) {
+        IndexFile(hash, name).delete();
+    }
+
+    /*
+     ** Private methods.
+     */
+    private static int DataSize(Data data) {
+        int size = 12; // Magic, version and array count.
+
+        for(int i = 0; i < data.Count(); i++) {
+            Object array = data.Get(i);
+            size += 5; // Type and length.
+
+            if(array instanceof int[]) {
+                size += 4 * ((int[])array).length;
+            }
+            else size += 8 * ((double[])array).length;
+        }
+
+        return size;
+    }
+
+    private static void WriteData(ByteBuffer buffer, Data data) {
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(data.Count());
+
+        for(int i = 0; i < data.Count(); i++) {
+            Object array = data.Get(i);
+
+            if(array instanceof int[]) {
+                int[] values = (int[])array;
+                buffer.put(INT_ARRAY);
+                buffer.putInt(values.length);
+                buffer.asIntBuffer().put(values);
+                buffer.position(buffer.position() + 4 * values.length);
+            }
+            else {
+                double[] values = (double[])array;
+                buffer.put(DOUBLE_ARRAY);
+                buffer.putInt(values.length);
+                buffer.asDoubleBuffer().put(values);
+                buffer.position(buffer.position() + 8 * values.length);
+            }
+        }
+    }
+
+    private static Data ReadData(ByteBuffer buffer) {
+        if((buffer.remaining() < 12) ||
+           (buffer.getInt() != MAGIC) || (buffer.getInt() != VERSION)) {
+            return null;
+        }
+
+        int count = buffer.getInt();
+        Data data = new Data();
+
+        for(int i = 0; i < count; i++) {
+            byte type = buffer.get();
+            int length = buffer.getInt();
+            int elementSize = (type == INT_ARRAY) ? 4 : 8;
+
+            if((length < 0) || (length > buffer.remaining() / elementSize)) {
+                return null;
+            }
+
+            if(type == INT_ARRAY) {
+                int[] values = new int[length];
+                buffer.asIntBuffer().get(values);
+                data.Add(values);
+            }
+            else if(type == DOUBLE_ARRAY) {
+                double[] values = new double[length];
+                buffer.asDoubleBuffer().get(values);
+                data.Add(values);
+            }
+            else return null;
+
+            buffer.position(buffer.position() + elementSize * length);
+        }
+
+        return buffer.hasRemaining() ? null : data;
+    }
+
+    private static void Close(Closeable file) {
+        if(file != null) {
+            try {
+                file.close();
+            }
+            catch(IOException e) {
+                // Nothing can be done.
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+// Copyright (c) 2010 Gratian Lup. All rights reserved.
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//
+// * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following
+// disclaimer in the documentation and/or other materials provided
+// with the distribution.
+//
+// * The name "JavaMaps" must not be used to endorse or promote
+// products derived from this software without prior written permission.
+//
+// * Products derived from this software may not be called "JavaMaps" nor
+// may "JavaMaps" appear in their names without prior written
+// permission of the author.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package Rendering.Utils;
+import java.util.*;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+// Cache of prerendered labels (text on a translucent background).
+// The labels are rotated when rendered, the angle being rounded
+// to one of ANGLE_BUCKETS directions, so that a label can be drawn
+// with a single drawImage call instead of rasterizing the text each time.
+// The least recently used label is removed when the cache is full.
+public final class LabelCache {
+    public static final int ANGLE_BUCKETS = 72; // 5 degrees each.
+
+    public static final class Sprite {
+        private BufferedImage image_;
+        private double anchorX_;
+        private double anchorY_;
+
+        // ------------------------------------------------
+        public Sprite(BufferedImage image, double anchorX, double anchorY) {
+            image_ = image;
+            anchorX_ = anchorX;
+            anchorY_ = anchorY;
+        }
+
+        // ------------------------------------------------
+        public BufferedImage Image() {
+            return image_;
+        }
+
+        // The position of the text origin in the image.
+        public double AnchorX() {
+            return anchorX_;
+        }
+
+        public double AnchorY() {
+            return anchorY_;
+        }
+    }
+
+    private static final class Key {
+        private String text_;
+        private Font font_;
+        private int bucket_;
+
+        // ------------------------------------------------
+        public Key(String text, Font font, int bucket) {
+            text_ = text;
+            font_ = font;
+            bucket_ = bucket;
+        }
+
+        // ------------------------------------------------
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key)obj;
+            return (bucket_ == other.bucket_) && text_.equals(other.text_) &&
+                   font_.equals(other.font_);
+        }
+
+        @Override
+        public int hashCode() {
+            return (text_.hashCode() * 31 + font_.hashCode()) * 31 + bucket_;
+        }
+    }
+
+    class SpriteMap extends LinkedHashMap<Key, Sprite> {
+        private static final long serialVersionUID = 1L;
+
+        public SpriteMap(int capacity) {
+            super(capacity, 0.75f, true /* access order */);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Sprite> eldest) {
+            // If the cache is full the least recently used label is removed.
+            return size() > capacity_;
+        }
+    }
+
+    /*
+     ** Members.
+     */
+    private SpriteMap sprites_;
+    private int capacity_;
+    private Color textColor_;
+    private Color background_;
+    private long hits_;
+    private long misses_;
+
+    /*
+     ** Constructors.
+     */
+    public LabelCache(int capacity, Color textColor, Color background) {
+        assert(capacity > 0);
+        assert(textColor != null && background != null);
+        // ------------------------------------------------
+        capacity_ = capacity;
+        textColor_ = textColor;
+        background_ = background;
+        sprites_ = new SpriteMap(capacity);
+    }
+
+    /*
+     ** Public methods.
+     */
+    public static int AngleBucket(double angle) {
+        // Round the angle to the nearest direction.
+        double step = (2 * Math.PI) / ANGLE_BUCKETS;
+        int bucket = (int)Math.round(angle / step) % ANGLE_BUCKETS;
+        return bucket < 0 ? bucket + ANGLE_BUCKETS : bucket;
+    }
+
+    public static double BucketAngle(int bucket) {
+        return bucket * ((2 * Math.PI) / ANGLE_BUCKETS);
+    }
+
+    // Returns the label for the text, rendering it if not found.
+    // 'width' and 'height' are the size of the text for the font.
+    public Sprite Get(String text, Font font, double angle, int width, int height) {
+        assert(text != null && font != null);
+        // ------------------------------------------------
+        Key key = new Key(text, font, AngleBucket(angle));
+        Sprite sprite = sprites_.get(key);
+
+        if(sprite != null) {
+            hits_++;
+            return sprite;
+        }
+
+        misses_++;
+        sprite = Render(text, font, BucketAngle(key.bucket_), width, height);
+        sprites_.put(key, sprite);
+        return sprite;
+    }
+
+    public void Clear() {
+        sprites_.clear();
+    }
+
+    public int Capacity() {
+        return capacity_;
+    }
+
+    public int Count() {
+        return sprites_.size();
+    }
+
+    public long Hits() {
+        return hits_;
+    }
+
+    public long Misses() {
+        return misses_;
+    }
+
+    public void ResetCounters() {
+        hits_ = 0;
+        misses_ = 0;
+    }
+
+    /*
+     ** Private methods.
+     */
+    private Sprite Render(String text, Font font, double angle, int width, int height) {
+        // Compute the bounding box of the rotated background.
+        double cos = Math.cos(angle);
+        double sin = Math.sin(angle);
+        double[] xs = new double[] { -2, width + 3, width + 3, -2 };
+        double[] ys = new double[] { -height + 2, -height + 2, 5, 5 };
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+
+        for(int i = 0; i < 4; i++) {
+            double x = xs[i] * cos - ys[i] * sin;
+            double y = xs[i] * sin + ys[i] * cos;
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+
+        double anchorX = Math.ceil(-minX) + 1; // A pixel border for antialiasing.
+        double anchorY = Math.ceil(-minY) + 1;
+        int imageWidth = (int)Math.ceil(anchorX + maxX) + 1;
+        int imageHeight = (int)Math.ceil(anchorY + maxY) + 1;
+        BufferedImage image = new BufferedImage(Math.max(1, imageWidth), 
+                                                Math.max(1, imageHeight),
+                                                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                           RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                           RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.translate(anchorX, anchorY);
+        g.rotate(angle);
+
+        g.setColor(background_);
+        g.fillRect(-2, -height + 2, width + 5, height + 3);
+        g.setFont(font);
+        g.setColor(textColor_);
+        g.drawString(text, 0, 0);
+        g.dispose();
+        return new Sprite(image, anchorX, anchorY);
+    }
+}
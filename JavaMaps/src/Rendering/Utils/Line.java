@@ -33,7 +33,10 @@
 package Rendering.Utils;
 import Core.*;
 
-public final class Line {
+// A line segment, stored in a LineTree. Derived classes can represent
+// more complex geometry (see PolylineChunk), in which case the
+// coordinates are the bounding box and the tests are overridden.
+public class Line {
     private double xa_;
     private double ya_;
     private double xb_;
@@ -87,7 +90,7 @@ public final class Line {
     }
     
     public void SetYB(double value) { 
-        xb_ = value; 
+        yb_ = value; 
     }
 
     public Object Value() { 
@@ -130,6 +133,16 @@ public final class Line {
         length_ = value;
     }
 
+    public boolean IntersectsRect(double left, double top,
+                                  double right, double bottom) {
+        return LineUtils.LineIntersectsRect(xa_, ya_, xb_, yb_,
+                                            left, top, right, bottom);
+    }
+
+    public double DistanceSq(double x, double y) {
+        return LineUtils.PointLineDistanceSq(x, y, xa_, ya_, xb_, yb_);
+    }
+
     // Pentru debugging.
     @Override
     public String toString() {
@@ -33,27 +33,50 @@
 package Rendering.Utils;
 import java.util.*;
 
+// The lines found by a LineTree query. The tree reports each line
+// a single time, so the lines are kept in a list that is reused
+// between queries, instead of being deduplicated using a hash map.
 public final class LineCollection implements ObjectCollection<Line> {
-    private LinkedHashMap<Line, Line> lines_;
+    private ArrayList<Line> lines_;
 
     /*
      ** Constructors.
      */
     public LineCollection() {
-        lines_ = new LinkedHashMap<Line, Line>();
+        lines_ = new ArrayList<Line>();
     }
 
     public LineCollection(int capacity) {
-        lines_ = new LinkedHashMap<Line, Line>(capacity);
+        lines_ = new ArrayList<Line>(capacity);
     }
 
     /*
      ** Public methods.
      */
-    public void Add(Line line) { lines_.put(line, line); }
+    public void Add(Line line) { lines_.add(line); }
     public boolean Valid(Line line) { return true; }
     public void Remove(Line value) { lines_.remove(value); }
     public void Clear() { lines_.clear(); }
     public int Count() { return lines_.size(); }
-    public Collection<Line> Objects() { return lines_.values(); }
+    public Collection<Line> Objects() { return lines_; }
+    public Line Get(int index) { return lines_.get(index); }
+
+    // Removes the lines that don't intersect the specified rectangle.
+    public void RetainIntersecting(double left, double top,
+                                   double right, double bottom) {
+        int count = lines_.size();
+        int kept = 0;
+
+        for(int i = 0; i < count; i++) {
+            Line line = lines_.get(i);
+
+            if(line.IntersectsRect(left, top, right, bottom)) {
+                lines_.set(kept++, line);
+            }
+        }
+
+        for(int i = count - 1; i >= kept; i--) {
+            lines_.remove(i);
+        }
+    }
 }
@@ -34,8 +34,14 @@ package Rendering.Utils;
 import Core.*;
 import java.util.*;
 import java.util.ArrayList;
-
-public final class LineTree {
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// The queries don't lock and can run on any thread while the tree is
+// modified, like in PointTree: a write copies the nodes it changes and
+// publishes the new root of the zoom level at the end. The writes are
+// synchronized. The queries don't write to the lines, the lines already
+// found are kept in a set of the querying thread.
+public final class LineTree implements ILineIndex {
     // The index in the child array based on the direction.
     private static final int DIRECTION_NW = 0;
     private static final int DIRECTION_NE = 1;
@@ -54,8 +60,13 @@ public final class LineTree {
     // are distributed among them.
     private static int SPLIT_THRESHOLD = 4;
 
+    // Nodes smaller than this are not split anymore. Without a limit
+    // more than SPLIT_THRESHOLD lines that meet in the same point
+    // would cause the node to be split indefinitely.
+    private static double MIN_NODE_SIZE = 4;
+
     
-    public class NearestInfo {
+    public static class NearestInfo {
         private Line line_;
         private double distance_;
 
@@ -96,6 +107,7 @@ public final class LineTree {
         private ArrayList<Line> lines_;
         private Object[] children_;
         boolean leaf_;
+        private int version_;   // The write that created the node.
 
         // ------------------------------------------------
         public Node(double x, double y, double width, double height, 
@@ -105,6 +117,7 @@ public final class LineTree {
             width_ = width;
             height_ = height;
             leaf_ = leaf;
+            version_ = writeVersion_;
 
             if(leaf) {
                 lines_ = new ArrayList<Line>(2);
@@ -114,6 +127,23 @@ public final class LineTree {
             }
         }
 
+        public Node(Node other) {
+            // Creates a copy that can be modified by the current write.
+            x_ = other.x_;
+            y_ = other.y_;
+            width_ = other.width_;
+            height_ = other.height_;
+            leaf_ = other.leaf_;
+            version_ = writeVersion_;
+
+            if(leaf_) {
+                lines_ = new ArrayList<Line>(other.lines_);
+            }
+            else {
+                children_ = other.children_.clone();
+            }
+        }
+
         public Node(Point center, double width, double height, 
                     boolean leaf) {
             this(center.X(), center.Y(), width, height, leaf);
@@ -137,6 +167,10 @@ public final class LineTree {
         public boolean IsLeaf()   { 
             return leaf_; 
         }
+
+        public int Version() {
+            return version_;
+        }
         
         public void MakeInternal() {
             assert(leaf_ == true);
@@ -177,10 +211,30 @@ public final class LineTree {
         }
     }
 
+    // An entry in the queue of the k-nearest query, either a node or a line.
+    class SearchEntry implements Comparable<SearchEntry> {
+        public Node node_;
+        public Line line_;
+        public double distance_; // Squared, to the line or to the node bounds.
+
+        // ------------------------------------------------
+        public SearchEntry(Node node, Line line, double distance) {
+            node_ = node;
+            line_ = line;
+            distance_ = distance;
+        }
+
+        // ------------------------------------------------
+        public int compareTo(SearchEntry other) {
+            return Double.compare(distance_, other.distance_);
+        }
+    }
+
     /*
      ** Members.
      */
-     private Object[] root_;
+     private AtomicReferenceArray<Node> root_;
+     private int writeVersion_; // The nodes with this version can be modified.
      private double width_;
      private double height_;
      private int zoomLevels_;
@@ -192,40 +246,46 @@ public final class LineTree {
          zoomLevels_ = zoomLevels;
          width_ = width;
          height_ = height;
-         root_ = new Object[zoomLevels];
+         root_ = new AtomicReferenceArray<Node>(zoomLevels);
          
          for(int i = 0; i < zoomLevels; i++) {
-            root_[i] = new Node(width / 2, height / 2, width, height, true);
+            root_.set(i, new Node(width / 2, height / 2, width, height, true));
          }
      }
 
     /*
      ** Public methods.
      */
-     public void Add(Line line, int zoomLevel) {
+     public synchronized void Add(Line line, int zoomLevel) {
          assert(line != null);
          assert(zoomLevel >= 0 && zoomLevel <= zoomLevels_);
          // ------------------------------------------------
-         Node root = GetRoot(zoomLevel);
-         AddImpl(line, root);
+         writeVersion_++;
+         root_.set(zoomLevel, AddImpl(line, GetRoot(zoomLevel)));
      }
 
-     public void AddAll(Collection<Line> lines, int zoomLevel) {
+     public synchronized void AddAll(Collection<Line> lines, int zoomLevel) {
         assert(lines != null);
         // ------------------------------------------------
+        // All lines are added by a single write, a node
+        // is copied only the first time it's modified.
         Iterator<Line> lineIt = lines.iterator();
+        Node root = GetRoot(zoomLevel);
+        writeVersion_++;
 
         while(lineIt.hasNext()) {
-            Add(lineIt.next(), zoomLevel);
+            root = AddImpl(lineIt.next(), root);
         }
+
+        root_.set(zoomLevel, root);
     }
 
-     public void Remove(Line line, int zoomLevel) {
+     public synchronized void Remove(Line line, int zoomLevel) {
          assert(line != null);
          assert(zoomLevel >= 0 && zoomLevel <= zoomLevels_);
          // ------------------------------------------------
-         Node root = GetRoot(zoomLevel);
-         RemoveImpl(line, root);
+         writeVersion_++;
+         root_.set(zoomLevel, RemoveImpl(line, GetRoot(zoomLevel)));
      }
 
      public Line FindLine(Line line, int zoomLevel) {
@@ -239,29 +299,172 @@ public final class LineTree {
 
     public void Intersect(Region2D region, int zoomLevel, 
                           ObjectCollection<Line> list) {
+        Intersect(region, zoomLevel, list, null);
+    }
+
+    public void Intersect(Region2D region, int zoomLevel, 
+                          ObjectCollection<Line> list, QueryStatistics statistics) {
         assert(region != null);
         assert(list != null);
         assert(GetRoot(zoomLevel) != null);
         // ------------------------------------------------
         // Add to the list all lines found in the specified region.
         // A line is considered in the region if a segment is in the region.
+        // If statistics are specified the work done by the query is counted.
+        if(statistics != null) {
+            statistics.AddQuery();
+        }
+
         if(region.IsEmpty()) {
             return;
         }
 
-        IntersectImpl(region, GetRoot(zoomLevel), list);
+        // The nodes are visited using the stack of the thread.
+        // A line is found in all leafs it crosses, the visited set
+        // is used so that it's tested and reported a single time.
+        double left = region.Left();
+        double top = region.Top();
+        double right = region.Right();
+        double bottom = region.Bottom();
+        QueryStack stack = QueryStack.Current();
+        QueryStack.VisitedSet visited = stack.BeginVisited();
+        int base = stack.Count();
+        stack.Push(GetRoot(zoomLevel));
+
+        try {
+            IntersectImpl(left, top, right, bottom, list, statistics,
+                          stack, base, visited);
+        }
+        finally {
+            stack.EndVisited();
+        }
+    }
+
+    public void IntersectDelta(Region2D previous, Region2D current, int zoomLevel,
+                               ObjectCollection<Line> entered, 
+                               ObjectCollection<Line> exited) {
+        assert(previous != null && current != null);
+        assert(entered != null && exited != null);
+        assert(GetRoot(zoomLevel) != null);
+        // ------------------------------------------------
+        // Add to 'entered' the lines found in the current region, but not
+        // in the previous one, and to 'exited' the lines found only in the
+        // previous region. The nodes inside both regions are skipped,
+        // so the cost depends on the size of the strips that changed.
+        QueryStack stack = QueryStack.Current();
+        QueryStack.VisitedSet visited = stack.BeginVisited();
+        int base = stack.Count();
+        stack.Push(GetRoot(zoomLevel));
+
+        try {
+            IntersectDeltaImpl(previous, current, entered, exited,
+                               stack, base, visited);
+        }
+        finally {
+            stack.EndVisited();
+        }
     }
 
     public NearestInfo NearestLine(Point point, int zoomLevel) {
         assert(point != null);
-        assert(zoomLevel >= 0 && zoomLevel < zoomLevels_);
-        assert(GetRoot(zoomLevel) != null);
-        // ------------------------------------------------        
+        // ------------------------------------------------
         // Find the nearest line to the specified point.
+        // Returns null if there are no lines at the zoom level.
         NearestInfo nearest = new NearestInfo();
-        NearestLineImpl(point, GetRoot(zoomLevel), nearest);
-        nearest.SetDistance(Math.sqrt(nearest.Distance()));
-        return nearest;
+        return NearestLine(point.X(), point.Y(), zoomLevel, nearest) ? nearest : null;
+    }
+
+    public boolean NearestLine(double x, double y, int zoomLevel, NearestInfo nearest) {
+        assert(nearest != null);
+        assert(zoomLevel >= 0 && zoomLevel < zoomLevels_);
+        assert(GetRoot(zoomLevel) != null);
+        // ------------------------------------------------
+        // Find the nearest line to the specified point. The result is stored
+        // in 'nearest', which can be reused, so no memory is allocated.
+        // Returns false if there are no lines at the zoom level.
+        Line nearestLine = null;
+        double nearestDist = Double.MAX_VALUE; // Squared.
+        QueryStack stack = QueryStack.Current();
+        int base = stack.Count();
+        stack.Push(GetRoot(zoomLevel));
+
+        while(stack.Count() > base) {
+            Node node = (Node)stack.Pop();
+
+            // Skip the nodes that can't contain a nearer line.
+            double dx = Math.max(0, Math.abs(x - node.X()) - (node.Width() / 2));
+            double dy = Math.max(0, Math.abs(y - node.Y()) - (node.Height() / 2));
+
+            if(((dx * dx) + (dy * dy)) >= nearestDist) {
+                continue;
+            }
+
+            if(node.IsLeaf()) {
+                // Search for the nearest line to specified point.
+                List<Line> lines = node.Lines();
+                int lineCount = lines.size();
+
+                for(int i = 0; i < lineCount; i++) {
+                    Line candidate = lines.get(i);
+                    double dist = candidate.DistanceSq(x, y);
+
+                    if(dist < nearestDist) {
+                        // Found a closer line.
+                        nearestLine = candidate;
+                        nearestDist = dist;
+                    }
+                }
+            }
+            else {
+                for(int dir = DIRECTION_SW; dir >= DIRECTION_NW; dir--) {
+                    stack.Push(node.Child(dir));
+                }
+            }
+        }
+
+        nearest.SetLine(nearestLine);
+        nearest.SetDistance(nearestLine != null ? Math.sqrt(nearestDist) : Double.MAX_VALUE);
+        return nearestLine != null;
+    }
+
+    public void Nearest(Point point, int zoomLevel, int count, double maxDistance,
+                        ObjectFilter<Line> filter, List<NearestInfo> list) {
+        assert(point != null);
+        assert(list != null);
+        assert(count >= 0);
+        assert(maxDistance >= 0);
+        assert(GetRoot(zoomLevel) != null);
+        // ------------------------------------------------
+        // Add to the list the 'count' nearest lines that are at a distance
+        // smaller than 'maxDistance' and accepted by the filter (if any),
+        // in the order of the distance. The nodes and lines are visited
+        // in the order of their distance to the specified point.
+        if(count == 0) {
+            return;
+        }
+
+        double px = point.X();
+        double py = point.Y();
+        double maxDistanceSq = maxDistance < Math.sqrt(Double.MAX_VALUE) ?
+                               maxDistance * maxDistance : Double.MAX_VALUE;
+        PriorityQueue<SearchEntry> queue = new PriorityQueue<SearchEntry>();
+        queue.add(new SearchEntry(GetRoot(zoomLevel), null, 0));
+        QueryStack stack = QueryStack.Current();
+        QueryStack.VisitedSet visited = stack.BeginVisited();
+
+        try {
+            NearestImpl(px, py, count, maxDistanceSq, filter, list, queue, visited);
+        }
+        finally {
+            stack.EndVisited();
+        }
+    }
+
+    public synchronized void ClearLevel(int zoomLevel) {
+        assert(zoomLevel >= 0 && zoomLevel < zoomLevels_);
+        // ------------------------------------------------
+        // Remove all lines found at the specified zoom level.
+        root_.set(zoomLevel, new Node(width_ / 2, height_ / 2, width_, height_, true));
     }
 
     public double Width() { 
@@ -272,15 +475,46 @@ public final class LineTree {
         return height_; 
     }
 
-    public void Clear() {
-        root_ = null;
+    public synchronized void Clear() {
+        for(int i = 0; i < zoomLevels_; i++) {
+            root_.set(i, new Node(width_ / 2, height_ / 2, width_, height_, true));
+        }
     }
 
     /*
      ** Private methods.
      */
+     private static boolean LineIntersects(Line line, Region2D region) {
+         return !region.IsEmpty() &&
+                line.IntersectsRect(region.Left(), region.Top(),
+                                    region.Right(), region.Bottom());
+     }
+
+     private static boolean NodeIntersects(Node node, Region2D region) {
+         return !region.IsEmpty() &&
+                (node.Left() <= region.Right()) && (node.Right() >= region.Left()) &&
+                (node.Top() <= region.Bottom()) && (node.Bottom() >= region.Top());
+     }
+
+     private static boolean NodeInside(Node node, Region2D region) {
+         return (node.Left() >= region.Left()) && (node.Right() <= region.Right()) &&
+                (node.Top() >= region.Top()) && (node.Bottom() <= region.Bottom());
+     }
+
+     private static boolean NodeChanges(Node node, Region2D previous, Region2D current) {
+         // The lines of a node inside both regions intersect both.
+         // A line that intersects only one region is found in a leaf
+         // that crosses one of the changed strips, even if it's also
+         // found in skipped leafs.
+         if(!NodeIntersects(node, previous) && !NodeIntersects(node, current)) {
+             return false;
+         }
+
+         return !(NodeInside(node, previous) && NodeInside(node, current));
+     }
+
      private Node GetRoot(int zoomLevel) {
-         return (Node)root_[zoomLevel];
+         return root_.get(zoomLevel);
      }
 
      private void SplitNode(Node node, List<Line> lines) {
@@ -296,25 +530,28 @@ public final class LineTree {
             node.SetChild(child, dir);
 
             for(int i = 0; i < lineCount; i++) {
-                AddImpl(lines.get(i), child);
+                AddImpl(lines.get(i), child); // The child is new, it's not copied.
             }
         }
     }
 
-     private void AddImpl(Line line, Node node) {
+     private Node AddImpl(Line line, Node node) {
          // Check if the line intersect with the nodes region.
          // If not it is guaranteed that it doesn't intersect
          // with the children too and nothing must be done.
+         // Returns the node, or its copy if it was modified.
          if(!LineIntersectsNode(line, node)) {
-             return;
+             return node;
          }
 
+         node = Writable(node);
+
          if(!node.IsLeaf()) {
              // The node is not a leaf, try to add the line
              // to all 4 children. Note that a line, compared to a point,
              // can appear in more than one child at the same time.
              for(int dir = DIRECTION_NW; dir <= DIRECTION_SW; dir++) {
-                AddImpl(line, node.Child(dir));
+                node.SetChild(AddImpl(line, node.Child(dir)), dir);
              }
          }
          else {
@@ -323,18 +560,23 @@ public final class LineTree {
              List<Line> lines = node.Lines();
              lines.add(line);
 
-             if(lines.size() > SPLIT_THRESHOLD) {
+             if((lines.size() > SPLIT_THRESHOLD) &&
+                (node.Width() > MIN_NODE_SIZE) && (node.Height() > MIN_NODE_SIZE)) {
                 SplitNode(node, lines);
              }
          }
+
+         return node;
      }
 
-     private void RemoveImpl(Line line, Node node) {
+     private Node RemoveImpl(Line line, Node node) {
          // Verifica daca linia se intersecteaza cu nodul.
          if(!LineIntersectsNode(line, node)) {
-             return;
+             return node;
          }
 
+         node = Writable(node);
+
          if(node.IsLeaf()) {
              // The node is a leaft, check if the line is found here.
              List<Line> lines = node.Lines();
@@ -343,14 +585,14 @@ public final class LineTree {
              for(int i = 0; i < count; i++) {
                  if(lines.get(i).equals(line)) {
                      lines.remove(i);
-                     return;
+                     return node;
                  }
              }
          }
          else {
              // Remove the line from each of the 4 children.
              for(int dir = DIRECTION_NW; dir <= DIRECTION_SW; dir++) {
-                 RemoveImpl(line, node.Child(dir));
+                 node.SetChild(RemoveImpl(line, node.Child(dir)), dir);
              }
 
              // Combine the child nodes into a single one
@@ -363,6 +605,8 @@ public final class LineTree {
                  }
              }
          }
+
+         return node;
      }
 
      private boolean MergePossible(Node node) {
@@ -400,6 +644,163 @@ public final class LineTree {
         }
     }
 
+    private void IntersectImpl(double left, double top, double right, double bottom,
+                               ObjectCollection<Line> list, QueryStatistics statistics,
+                               QueryStack stack, int base, QueryStack.VisitedSet visited) {
+        while(stack.Count() > base) {
+            Node node = (Node)stack.Pop();
+
+            if(statistics != null) {
+                statistics.AddNode();
+            }
+
+            if(node.IsLeaf()) {
+                // Check which of the nodes lines
+                // intersect with the specified region.
+                List<Line> lines = node.Lines();
+                int lineCount = lines.size();
+
+                if(statistics != null) {
+                    statistics.AddLeaf();
+                }
+
+                for(int i = 0; i < lineCount; i++) {
+                    Line candidate = lines.get(i);
+
+                    if(!visited.Add(candidate)) {
+                        if(statistics != null) {
+                            statistics.AddDuplicate();
+                        }
+
+                        continue;
+                    }
+
+                    if(statistics != null) {
+                        statistics.AddTested();
+                    }
+
+                    if(candidate.IntersectsRect(left, top, right, bottom) &&
+                       list.Valid(candidate)) {
+                        list.Add(candidate);
+
+                        if(statistics != null) {
+                            statistics.AddFound();
+                        }
+                    }
+                }
+            }
+            else {
+                // Run the query only on the children
+                // that intersect with the specified region.
+                for(int dir = DIRECTION_SW; dir >= DIRECTION_NW; dir--) {
+                    Node child = node.Child(dir);
+
+                    if((child.Left() <= right) && (child.Right() >= left) &&
+                       (child.Top() <= bottom) && (child.Bottom() >= top)) {
+                        stack.Push(child);
+                    }
+                }
+            }
+        }
+    }
+
+    private void IntersectDeltaImpl(Region2D previous, Region2D current,
+                                    ObjectCollection<Line> entered,
+                                    ObjectCollection<Line> exited,
+                                    QueryStack stack, int base,
+                                    QueryStack.VisitedSet visited) {
+        while(stack.Count() > base) {
+            Node node = (Node)stack.Pop();
+
+            if(node.IsLeaf()) {
+                List<Line> lines = node.Lines();
+                int lineCount = lines.size();
+
+                for(int i = 0; i < lineCount; i++) {
+                    Line candidate = lines.get(i);
+
+                    if(!visited.Add(candidate)) {
+                        continue;
+                    }
+
+                    boolean inPrevious = LineIntersects(candidate, previous);
+                    boolean inCurrent = LineIntersects(candidate, current);
+
+                    if(inCurrent && !inPrevious) {
+                        if(entered.Valid(candidate)) {
+                            entered.Add(candidate);
+                        }
+                    }
+                    else if(inPrevious && !inCurrent) {
+                        if(exited.Valid(candidate)) {
+                            exited.Add(candidate);
+                        }
+                    }
+                }
+            }
+            else {
+                for(int dir = DIRECTION_SW; dir >= DIRECTION_NW; dir--) {
+                    Node child = node.Child(dir);
+
+                    if(NodeChanges(child, previous, current)) {
+                        stack.Push(child);
+                    }
+                }
+            }
+        }
+    }
+
+    private void NearestImpl(double px, double py, int count, double maxDistanceSq,
+                             ObjectFilter<Line> filter, List<NearestInfo> list,
+                             PriorityQueue<SearchEntry> queue,
+                             QueryStack.VisitedSet visited) {
+        int found = 0;
+
+        while((found < count) && !queue.isEmpty()) {
+            SearchEntry entry = queue.poll();
+            Node node = entry.node_;
+
+            if(node == null) {
+                // No other line can be nearer.
+                list.add(new NearestInfo(entry.line_, Math.sqrt(entry.distance_)));
+                found++;
+            }
+            else if(node.IsLeaf()) {
+                // A line is found in all leafs it crosses,
+                // the visited set is used so that it's queued a single time.
+                List<Line> lines = node.Lines();
+                int lineCount = lines.size();
+
+                for(int i = 0; i < lineCount; i++) {
+                    Line candidate = lines.get(i);
+
+                    if(!visited.Add(candidate)) {
+                        continue;
+                    }
+
+                    double distance = candidate.DistanceSq(px, py);
+
+                    if((distance < maxDistanceSq) &&
+                       ((filter == null) || filter.Accept(candidate))) {
+                        queue.add(new SearchEntry(null, candidate, distance));
+                    }
+                }
+            }
+            else {
+                for(int dir = DIRECTION_NW; dir <= DIRECTION_SW; dir++) {
+                    Node child = node.Child(dir);
+                    double dx = Math.max(0, Math.abs(px - child.X()) - (child.Width() / 2));
+                    double dy = Math.max(0, Math.abs(py - child.Y()) - (child.Height() / 2));
+                    double distance = (dx * dx) + (dy * dy);
+
+                    if(distance < maxDistanceSq) {
+                        queue.add(new SearchEntry(child, null, distance));
+                    }
+                }
+            }
+        }
+    }
+
     private Line FindLineImpl(Line line, Node node) {
         // If the line is outside the nodes range
         // no search needs to be done at all.
@@ -431,97 +832,14 @@ public final class LineTree {
          return null;
      }
 
-    private void IntersectImpl(Region2D region, Node node,
-                               ObjectCollection<Line> list) {
-        if(node.IsLeaf()) {
-            // Check which of the nodes lines
-            // intersect with the specified region.
-            // cu regiunea specificata.
-            List<Line> lines = node.Lines();
-            int lineCount = lines.size();
-
-            for(int i = 0; i < lineCount; i++) {
-                Line candidate = lines.get(i);
-                if(LineUtils.LineIntersectsRect(candidate, region.Left(), region.Top(),
-                                                region.Right(), region.Bottom())) {
-                    // Found an intersecting line.
-                    if(list.Valid(candidate)) {
-                        list.Add(candidate);
-                    }
-                }
-            }
-        }
-        else {
-            // Run the query only on the children
-            // that intersect with the specified region.
-            for(int dir = DIRECTION_NW; dir <= DIRECTION_SW; dir++) {
-                if(region.IntersectsWith(node.Left(), node.Top(),
-                                         node.Right(), node.Bottom())) {
-                    IntersectImpl(region, node.Child(dir), list);
-                }
-            }
-        }
-    }
-
-    private void NearestLineImpl(Point point, Node node, NearestInfo nearest) {
-        if(node.IsLeaf()) {
-            // Search for the nearest line to specified point.
-            List<Line> lines = node.Lines();
-            int lineCount = lines.size();
-
-            for(int i = 0; i < lineCount; i++) {
-                Line candidate = lines.get(i);
-                double dist = LineUtils.PointLineDistanceSq(point, candidate);
-                
-                if(dist < nearest.Distance()) {
-                    // Found a closer line.
-                    nearest.SetLine(candidate);
-                    nearest.SetDistance(dist);
-                }
-            }
-        }
-        else {
-            // Run the query only on the children
-            // that intersect with the specified region.
-            double distance = Math.sqrt(nearest.Distance());
-
-            for(int dir = DIRECTION_NW; dir <= DIRECTION_SW; dir++) {
-                if(Overlap(point.X(), point.Y(), distance,
-                           node.X(), node.Y(), node.Width(), node.Height())) {
-                    NearestLineImpl(point, node.Child(dir), nearest);
-                }
-            }
-        }
+    private Node Writable(Node node) {
+        // The nodes created by the previous writes can be seen
+        // by queries and must be copied before modified.
+        return (node.Version() == writeVersion_) ? node : new Node(node);
     }
 
     private boolean LineIntersectsNode(Line line, Node node) {
         return LineUtils.LineIntersectsRect(line, node.Left(), node.Top(),
                                   node.Right(), node.Bottom());
     }
-
-    private boolean Overlap(double circleX, double circleY, double radius,
-                            double rectX, double rectY,
-                            double rectWidth, double rectHeight) {
-        double dx = circleX - rectX;
-        double dy = circleY - rectY;
-
-        // Circle outside the rectangle case.
-        if((dx > ((rectWidth / 2) + radius)) ||
-           (dy > ((rectHeight / 2) + radius))) {
-            return false;
-        }
-
-        // Circle inside the rectangle case.
-        if((dx <= (rectWidth / 2)) ||
-           (dy <= (rectHeight / 2))) {
-            return true;
-        }
-
-        // Circle intersection with the corners of the rectangle.
-        double  distanceSq = (dx - (rectWidth / 2)) *
-                             (dx - (rectWidth / 2)) +
-                             (dy - (rectHeight / 2)) *
-                             (dy - (rectHeight / 2));
-        return distanceSq <= (radius * radius);
-    }
 }
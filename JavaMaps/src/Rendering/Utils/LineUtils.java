@@ -76,22 +76,31 @@ public class LineUtils {
                               line2.XA(), line2.YA(), line2.XB(), line2.YB());
     }
 
-    public static boolean LineIntersectsRect(Line line, double left, double top,
+    public static boolean LineIntersectsRect(double xa, double ya,
+                                             double xb, double yb,
+                                             double left, double top,
                                              double right, double bottom) {
         // First check if the rectangle around the line
         // intersect with the region.
-        if((left <= Math.min(line.XA(), line.XB()) &&
-           (top <= Math.min(line.YA(), line.YB())) &&
-           (right >= Math.max(line.XA(), line.XA())) &&
-           (bottom >= Math.max(line.YA(), line.YB())))) {
+        if((left <= Math.min(xa, xb) &&
+           (top <= Math.min(ya, yb)) &&
+           (right >= Math.max(xa, xb)) &&
+           (bottom >= Math.max(ya, yb)))) {
             return true;
         }
 
         // Check if the line intersects with the regions edges.
-        return LineUtils.LinesIntersect(line, left, top, right, top)     ||
-               LineUtils.LinesIntersect(line, left, top, left, bottom)   ||
-               LineUtils.LinesIntersect(line, right, top, right, bottom) ||
-               LineUtils.LinesIntersect(line, left, bottom, right, bottom);
+        return LineUtils.LinesIntersect(xa, ya, xb, yb, left, top, right, top)     ||
+               LineUtils.LinesIntersect(xa, ya, xb, yb, left, top, left, bottom)   ||
+               LineUtils.LinesIntersect(xa, ya, xb, yb, right, top, right, bottom) ||
+               LineUtils.LinesIntersect(xa, ya, xb, yb, left, bottom, right, bottom);
+    }
+
+    public static boolean LineIntersectsRect(Line line, double left, double top,
+                                             double right, double bottom) {
+        // The test is done by the line itself,
+        // a polyline chunk tests each of its segments.
+        return line.IntersectsRect(left, top, right, bottom);
     }
 
     public static boolean LineIntersectsRect(Line line, Region2D rect) {
@@ -99,6 +108,80 @@ public class LineUtils {
                                   rect.Right(), rect.Bottom());
     }
 
+    public static boolean ClipLine(double xa, double ya, double xb, double yb,
+                                   double left, double top, double right, double bottom,
+                                   double[] result) {
+        assert(result != null && result.length >= 4);
+        // ------------------------------------------------
+        // Clip the line to the rectangle using the Liang-Barsky algorithm.
+        // The line is represented as A + t * (B - A), with t in [0, 1],
+        // and the interval is reduced by each edge of the rectangle.
+        // The clipped line is stored in 'result' as (xa, ya, xb, yb).
+        double dx = xb - xa;
+        double dy = yb - ya;
+        result[0] = 0; // The interval is kept in the result while clipping.
+        result[1] = 1;
+
+        if(!ClipEdge(-dx, xa - left, result) || !ClipEdge(dx, right - xa, result) ||
+           !ClipEdge(-dy, ya - top, result)  || !ClipEdge(dy, bottom - ya, result)) {
+            return false;
+        }
+
+        // The points that are not clipped are copied, so that they
+        // compare equal with the ones of the adjacent lines.
+        double t0 = result[0];
+        double t1 = result[1];
+
+        if(t1 < 1) {
+            result[2] = xa + t1 * dx;
+            result[3] = ya + t1 * dy;
+        }
+        else {
+            result[2] = xb;
+            result[3] = yb;
+        }
+
+        if(t0 > 0) {
+            result[0] = xa + t0 * dx;
+            result[1] = ya + t0 * dy;
+        }
+        else {
+            result[0] = xa;
+            result[1] = ya;
+        }
+
+        return true;
+    }
+
+    private static boolean ClipEdge(double p, double q, double[] interval) {
+        // The line is outside the edge if p is 0 and q negative,
+        // it enters the edge if p is negative and leaves it if positive.
+        if(p == 0) {
+            return q >= 0;
+        }
+
+        double t = q / p;
+
+        if(p < 0) {
+            if(t > interval[1]) {
+                return false;
+            }
+            else if(t > interval[0]) {
+                interval[0] = t;
+            }
+        }
+        else {
+            if(t < interval[0]) {
+                return false;
+            }
+            else if(t < interval[1]) {
+                interval[1] = t;
+            }
+        }
+
+        return true;
+    }
+
     public static double PointLineDistanceSq(double pointX, double pointY,
                                              double lineX1, double lineY1,
                                              double lineX2, double lineY2) {
@@ -134,8 +217,7 @@ public class LineUtils {
     }
 
     public static double PointLineDistanceSq(Point point, Line line) {
-        return PointLineDistanceSq(point.X(), point.Y(), line.XA(), line.YA(),
-                                   line.XB(), line.YB());
+        return line.DistanceSq(point.X(), point.Y());
     }
 
     public static double PointLineDistance(double pointX, double pointY,
@@ -146,7 +228,6 @@ public class LineUtils {
     }
     
     public static double PointLineDistance(Point point, Line line) {
-        return Math.sqrt(PointLineDistanceSq(point.X(), point.Y(), line.XA(),
-                                             line.YA(), line.XB(), line.YB()));
+        return Math.sqrt(line.DistanceSq(point.X(), point.Y()));
     }
 }
@@ -0,0 +1,652 @@
+// Copyright (c) 2010 Gratian Lup. All rights reserved.
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//
+// * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following
+// disclaimer in the documentation and/or other materials provided
+// with the distribution.
+//
+// * The name "JavaMaps" must not be used to endorse or promote
+// products derived from this software without prior written permission.
+//
+// * Products derived from this software may not be called "JavaMaps" nor
+// may "JavaMaps" appear in their names without prior written
+// permission of the author.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package Rendering.Utils;
+import Core.*;
+import java.util.*;
+
+// A packed Hilbert R-tree of lines, built once for each zoom level.
+// The lines are sorted by the Hilbert value of the center of their
+// bounding box, then grouped by NODE_SIZE in leaf nodes, which are
+// grouped the same way in parent nodes up to the root. The bounding boxes
+// are stored in a single array of primitives and each line is found
+// a single time in the tree, unlike in a LineTree, where a line is added
+// to all the leafs it crosses. The tree can't be modified after it's built.
+public final class PackedLineTree implements ILineIndex {
+    // The number of children of a node.
+    private static final int NODE_SIZE = 16;
+
+    // The Hilbert curve is computed on a grid with 2^HILBERT_ORDER cells per side.
+    private static final int HILBERT_ORDER = 15;
+
+    private static final class Level {
+        // The fields are final, so a level can be used by queries
+        // running on other threads as soon as they can see it.
+        private final Line[] lines_;       // Sorted by the Hilbert value.
+        private final double[] boxes_;     // (left, top, right, bottom) for each entry.
+        private final int[] levelEnds_;    // The end of each tree level, leafs first.
+
+        // ------------------------------------------------
+        public Level(Line[] lines, double[] boxes, int[] levelEnds) {
+            lines_ = lines;
+            boxes_ = boxes;
+            levelEnds_ = levelEnds;
+        }
+
+        // ------------------------------------------------
+        public Line[] Lines() {
+            return lines_;
+        }
+
+        public double[] Boxes() {
+            return boxes_;
+        }
+
+        public int[] LevelEnds() {
+            return levelEnds_;
+        }
+
+        public int Root() {
+            return boxes_.length / 4 - 1;
+        }
+    }
+
+    // An entry in the queue of the k-nearest query. The lines are queued
+    // with their exact distance, the nodes with the distance to their box.
+    private static final class SearchEntry implements Comparable<SearchEntry> {
+        public int entry_;
+        public double distance_; // Squared.
+
+        // ------------------------------------------------
+        public SearchEntry(int entry, double distance) {
+            entry_ = entry;
+            distance_ = distance;
+        }
+
+        // ------------------------------------------------
+        public int compareTo(SearchEntry other) {
+            return Double.compare(distance_, other.distance_);
+        }
+    }
+
+    /*
+     ** Members.
+     */
+    private Level[] levels_;
+    private double width_;
+    private double height_;
+    private int zoomLevels_;
+
+    /*
+     ** Constructors.
+     */
+    public PackedLineTree(double width, double height, int zoomLevels) {
+        width_ = width;
+        height_ = height;
+        zoomLevels_ = zoomLevels;
+        levels_ = new Level[zoomLevels];
+    }
+
+    /*
+     ** Public methods.
+     */
+    public void Build(Collection<? extends Line> lines, int zoomLevel) {
+        assert(lines != null);
+        assert(zoomLevel >= 0 && zoomLevel < zoomLevels_);
+        // ------------------------------------------------
+        // Replaces the lines found at the zoom level.
+        int count = lines.size();
+
+        if(count == 0) {
+            levels_[zoomLevel] = null;
+            return;
+        }
+
+        // Sort the lines by the Hilbert value of the center.
+        // The index of the line is kept in the lower bits of the key.
+        Line[] source = lines.toArray(new Line[count]);
+        long[] keys = new long[count];
+        double scaleX = ((1 << HILBERT_ORDER) - 1) / width_;
+        double scaleY = ((1 << HILBERT_ORDER) - 1) / height_;
+
+        for(int i = 0; i < count; i++) {
+            Line line = source[i];
+            double x = (Math.min(line.XA(), line.XB()) + Math.max(line.XA(), line.XB())) / 2;
+            double y = (Math.min(line.YA(), line.YB()) + Math.max(line.YA(), line.YB())) / 2;
+            int hx = (int)Math.max(0, Math.min((1 << HILBERT_ORDER) - 1, x * scaleX));
+            int hy = (int)Math.max(0, Math.min((1 << HILBERT_ORDER) - 1, y * scaleY));
+            keys[i] = ((long)HilbertValue(hx, hy) << 32) | i;
+        }
+
+        Arrays.sort(keys);
+
+        // Count the entries on each level of the tree.
+        ArrayList<Integer> ends = new ArrayList<Integer>();
+        int levelCount = count;
+        int total = count;
+        ends.add(total);
+
+        while(levelCount > 1) {
+            levelCount = (levelCount + NODE_SIZE - 1) / NODE_SIZE;
+            total += levelCount;
+            ends.add(total);
+        }
+
+        Line[] sorted = new Line[count];
+        double[] boxes = new double[total * 4];
+
+        for(int i = 0; i < count; i++) {
+            Line line = source[(int)(keys[i] & 0xFFFFFFFFL)];
+            sorted[i] = line;
+            boxes[i * 4] = Math.min(line.XA(), line.XB());
+            boxes[i * 4 + 1] = Math.min(line.YA(), line.YB());
+            boxes[i * 4 + 2] = Math.max(line.XA(), line.XB());
+            boxes[i * 4 + 3] = Math.max(line.YA(), line.YB());
+        }
+
+        // The box of a node contains the boxes of its children.
+        int[] levelEnds = new int[ends.size()];
+        int levelStart = 0;
+        int node = count;
+
+        for(int level = 0; level < levelEnds.length; level++) {
+            levelEnds[level] = ends.get(level);
+
+            if(level > 0) {
+                int childEnd = levelEnds[level - 1];
+
+                for(int child = levelStart; child < childEnd; child += NODE_SIZE) {
+                    int last = Math.min(child + NODE_SIZE, childEnd);
+                    boxes[node * 4] = Double.MAX_VALUE;
+                    boxes[node * 4 + 1] = Double.MAX_VALUE;
+                    boxes[node * 4 + 2] = -Double.MAX_VALUE;
+                    boxes[node * 4 + 3] = -Double.MAX_VALUE;
+
+                    for(int i = child; i < last; i++) {
+                        boxes[node * 4] = Math.min(boxes[node * 4], boxes[i * 4]);
+                        boxes[node * 4 + 1] = Math.min(boxes[node * 4 + 1], boxes[i * 4 + 1]);
+                        boxes[node * 4 + 2] = Math.max(boxes[node * 4 + 2], boxes[i * 4 + 2]);
+                        boxes[node * 4 + 3] = Math.max(boxes[node * 4 + 3], boxes[i * 4 + 3]);
+                    }
+
+                    node++;
+                }
+
+                levelStart = childEnd;
+            }
+        }
+
+        levels_[zoomLevel] = new Level(sorted, boxes, levelEnds);
+    }
+
+    public boolean Save(List<? extends Line> lines, int zoomLevel, 
+                        IndexStore.Data data) {
+        assert(lines != null);
+        assert(data != null);
+        assert(zoomLevel >= 0 && zoomLevel < zoomLevels_);
+        // ------------------------------------------------
+        // Adds the level built from the lines to the data. Only the order
+        // of the lines is saved, they are expected in the same order
+        // when the level is loaded. Returns false if the level
+        // wasn't built from these lines.
+        Level level = levels_[zoomLevel];
+
+        if((level == null) || (level.Lines().length != lines.size())) {
+            return false;
+        }
+
+        IdentityHashMap<Line, Integer> positions = new IdentityHashMap<Line, Integer>();
+
+        for(int i = 0; i < lines.size(); i++) {
+            positions.put(lines.get(i), i);
+        }
+
+        Line[] sorted = level.Lines();
+        int[] order = new int[sorted.length];
+
+        for(int i = 0; i < sorted.length; i++) {
+            Integer position = positions.get(sorted[i]);
+
+            if(position == null) {
+                return false;
+            }
+
+            order[i] = position;
+        }
+
+        data.Add(order);
+        data.Add(level.Boxes());
+        data.Add(level.LevelEnds());
+        return true;
+    }
+
+    public boolean Load(List<? extends Line> lines, int zoomLevel,
+                        IndexStore.Data data, int first) {
+        assert(lines != null);
+        assert(data != null);
+        assert(zoomLevel >= 0 && zoomLevel < zoomLevels_);
+        // ------------------------------------------------
+        // Loads a level saved from the same lines, starting with
+        // the array found at 'first'. The data is checked before it's used,
+        // false is returned if it doesn't describe a valid tree.
+        int[] order = data.Ints(first);
+        double[] boxes = data.Doubles(first + 1);
+        int[] levelEnds = data.Ints(first + 2);
+        int count = lines.size();
+
+        if((order == null) || (boxes == null) || (levelEnds == null) ||
+           (order.length != count) || (count == 0) || (levelEnds.length == 0)) {
+            return false;
+        }
+
+        // The sizes of the tree levels are the ones Build computes.
+        int levelCount = count;
+        int total = count;
+
+        for(int level = 0; level < levelEnds.length; level++) {
+            if(level > 0) {
+                if(levelCount == 1) {
+                    return false; // Above the root.
+                }
+
+                levelCount = (levelCount + NODE_SIZE - 1) / NODE_SIZE;
+                total += levelCount;
+            }
+
+            if(levelEnds[level] != total) {
+                return false;
+            }
+        }
+
+        if((levelCount != 1) || (boxes.length != total * 4)) {
+            return false;
+        }
+
+        Line[] sorted = new Line[count];
+        boolean[] used = new boolean[count];
+
+        for(int i = 0; i < count; i++) {
+            if((order[i] < 0) || (order[i] >= count) || used[order[i]]) {
+                return false;
+            }
+
+            sorted[i] = lines.get(order[i]);
+            used[order[i]] = true;
+        }
+
+        levels_[zoomLevel] = new Level(sorted, boxes, levelEnds);
+        return true;
+    }
+
+    public void Intersect(Region2D region, int zoomLevel, 
+                          ObjectCollection<Line> list) {
+        assert(region != null);
+        assert(list != null);
+        assert(zoomLevel >= 0 && zoomLevel < zoomLevels_);
+        // ------------------------------------------------
+        // Add to the list all lines found in the specified region.
+        // A line is considered in the region if a segment is in the region.
+        Level level = levels_[zoomLevel];
+
+        if((level == null) || region.IsEmpty()) {
+            return;
+        }
+
+        double left = region.Left();
+        double top = region.Top();
+        double right = region.Right();
+        double bottom = region.Bottom();
+        double[] boxes = level.Boxes();
+        Line[] lines = level.Lines();
+        QueryStack stack = QueryStack.Current();
+        int base = stack.IndexCount();
+        stack.PushIndex(level.Root());
+
+        while(stack.IndexCount() > base) {
+            int entry = stack.PopIndex();
+
+            if((boxes[entry * 4] > right) || (boxes[entry * 4 + 2] < left) ||
+               (boxes[entry * 4 + 1] > bottom) || (boxes[entry * 4 + 3] < top)) {
+                continue; // The box doesn't intersect the region.
+            }
+
+            if(entry < lines.length) {
+                Line candidate = lines[entry];
+
+                if(candidate.IntersectsRect(left, top, right, bottom) &&
+                   list.Valid(candidate)) {
+                    list.Add(candidate);
+                }
+            }
+            else {
+                PushChildren(level, entry, stack);
+            }
+        }
+    }
+
+    public void IntersectDelta(Region2D previous, Region2D current, int zoomLevel,
+                               ObjectCollection<Line> entered, 
+                               ObjectCollection<Line> exited) {
+        assert(previous != null && current != null);
+        assert(entered != null && exited != null);
+        assert(zoomLevel >= 0 && zoomLevel < zoomLevels_);
+        // ------------------------------------------------
+        // Add to 'entered' the lines found in the current region, but not
+        // in the previous one, and to 'exited' the lines found only in the
+        // previous region. The nodes whose box is inside both regions
+        // are skipped, their lines intersect both.
+        Level level = levels_[zoomLevel];
+
+        if(level == null) {
+            return;
+        }
+
+        double[] boxes = level.Boxes();
+        Line[] lines = level.Lines();
+        QueryStack stack = QueryStack.Current();
+        int base = stack.IndexCount();
+        stack.PushIndex(level.Root());
+
+        while(stack.IndexCount() > base) {
+            int entry = stack.PopIndex();
+            boolean nearPrevious = BoxIntersects(boxes, entry, previous);
+            boolean nearCurrent = BoxIntersects(boxes, entry, current);
+
+            if(!nearPrevious && !nearCurrent) {
+                continue;
+            }
+
+            if(entry < lines.length) {
+                Line candidate = lines[entry];
+                boolean inPrevious = nearPrevious && 
+                                     candidate.IntersectsRect(previous.Left(), previous.Top(),
+                                                              previous.Right(), previous.Bottom());
+                boolean inCurrent = nearCurrent && 
+                                    candidate.IntersectsRect(current.Left(), current.Top(),
+                                                             current.Right(), current.Bottom());
+                if(inCurrent && !inPrevious) {
+                    if(entered.Valid(candidate)) {
+                        entered.Add(candidate);
+                    }
+                }
+                else if(inPrevious && !inCurrent) {
+                    if(exited.Valid(candidate)) {
+                        exited.Add(candidate);
+                    }
+                }
+            }
+            else if(!BoxInside(boxes, entry, previous) || 
+                    !BoxInside(boxes, entry, current)) {
+                PushChildren(level, entry, stack);
+            }
+        }
+    }
+
+    public LineTree.NearestInfo NearestLine(Point point, int zoomLevel) {
+        assert(point != null);
+        // ------------------------------------------------
+        LineTree.NearestInfo nearest = new LineTree.NearestInfo();
+        return NearestLine(point.X(), point.Y(), zoomLevel, nearest) ? nearest : null;
+    }
+
+    public boolean NearestLine(double x, double y, int zoomLevel,
+                               LineTree.NearestInfo nearest) {
+        assert(nearest != null);
+        assert(zoomLevel >= 0 && zoomLevel < zoomLevels_);
+        // ------------------------------------------------
+        // Find the nearest line to the specified point, without allocating.
+        // The nodes farther than the nearest line found until now are skipped.
+        Level level = levels_[zoomLevel];
+        nearest.SetLine(null);
+        nearest.SetDistance(Double.MAX_VALUE);
+
+        if(level == null) {
+            return false;
+        }
+
+        double[] boxes = level.Boxes();
+        Line[] lines = level.Lines();
+        Line nearestLine = null;
+        double nearestDist = Double.MAX_VALUE; // Squared.
+        QueryStack stack = QueryStack.Current();
+        int base = stack.IndexCount();
+        stack.PushIndex(level.Root());
+
+        while(stack.IndexCount() > base) {
+            int entry = stack.PopIndex();
+
+            if(BoxDistanceSq(boxes, entry, x, y) >= nearestDist) {
+                continue;
+            }
+
+            if(entry < lines.length) {
+                double dist = lines[entry].DistanceSq(x, y);
+
+                if(dist < nearestDist) {
+                    nearestLine = lines[entry];
+                    nearestDist = dist;
+                }
+            }
+            else {
+                PushChildren(level, entry, stack);
+            }
+        }
+
+        nearest.SetLine(nearestLine);
+        nearest.SetDistance(Math.sqrt(nearestDist));
+        return true;
+    }
+
+    public void Nearest(Point point, int zoomLevel, int count, double maxDistance,
+                        ObjectFilter<Line> filter, List<LineTree.NearestInfo> list) {
+        assert(point != null);
+        assert(list != null);
+        assert(count >= 0);
+        assert(maxDistance >= 0);
+        assert(zoomLevel >= 0 && zoomLevel < zoomLevels_);
+        // ------------------------------------------------
+        // Add to the list the 'count' nearest lines that are at a distance
+        // smaller than 'maxDistance' and accepted by the filter (if any),
+        // in the order of the distance.
+        Level level = levels_[zoomLevel];
+
+        if((level == null) || (count == 0)) {
+            return;
+        }
+
+        double x = point.X();
+        double y = point.Y();
+        double maxDistanceSq = maxDistance < Math.sqrt(Double.MAX_VALUE) ?
+                               maxDistance * maxDistance : Double.MAX_VALUE;
+        double[] boxes = level.Boxes();
+        Line[] lines = level.Lines();
+        PriorityQueue<SearchEntry> queue = new PriorityQueue<SearchEntry>();
+        QueueEntry(queue, level.Root(), x, y, maxDistanceSq, filter, boxes, lines);
+        int found = 0;
+
+        while((found < count) && !queue.isEmpty()) {
+            SearchEntry entry = queue.poll();
+
+            if(entry.entry_ < lines.length) {
+                // No other line can be nearer.
+                list.add(new LineTree.NearestInfo(lines[entry.entry_],
+                                                  Math.sqrt(entry.distance_)));
+                found++;
+                continue;
+            }
+
+            int treeLevel = TreeLevel(level, entry.entry_);
+            int first = FirstChild(level, entry.entry_, treeLevel);
+            int last = LastChild(level, first, treeLevel);
+
+            for(int i = first; i < last; i++) {
+                QueueEntry(queue, i, x, y, maxDistanceSq, filter, boxes, lines);
+            }
+        }
+    }
+
+    public void GetLines(int zoomLevel, Collection<Line> list) {
+        assert(zoomLevel >= 0 && zoomLevel < zoomLevels_);
+        // ------------------------------------------------
+        Level level = levels_[zoomLevel];
+
+        if(level != null) {
+            list.addAll(Arrays.asList(level.Lines()));
+        }
+    }
+
+    public int Count(int zoomLevel) {
+        Level level = levels_[zoomLevel];
+        return level != null ? level.Lines().length : 0;
+    }
+
+    public void ClearLevel(int zoomLevel) {
+        assert(zoomLevel >= 0 && zoomLevel < zoomLevels_);
+        // ------------------------------------------------
+        levels_[zoomLevel] = null;
+    }
+
+    public double Width() { 
+        return width_; 
+    }
+    
+    public double Height() { 
+        return height_; 
+    }
+
+    public void Clear() {
+        levels_ = new Level[zoomLevels_];
+    }
+
+    /*
+     ** Private methods.
+     */
+    private void QueueEntry(PriorityQueue<SearchEntry> queue, int entry,
+                            double x, double y, double maxDistanceSq,
+                            ObjectFilter<Line> filter, double[] boxes, Line[] lines) {
+        // A level with a single line has the line as its root,
+        // so the root is checked like any other entry.
+        double distance;
+
+        if(entry < lines.length) {
+            if((filter != null) && !filter.Accept(lines[entry])) {
+                return;
+            }
+
+            distance = lines[entry].DistanceSq(x, y);
+        }
+        else {
+            distance = BoxDistanceSq(boxes, entry, x, y);
+        }
+
+        if(distance < maxDistanceSq) {
+            queue.add(new SearchEntry(entry, distance));
+        }
+    }
+
+    private int TreeLevel(Level level, int node) {
+        // The level of the node in the tree, the lines are on level 0.
+        int[] levelEnds = level.LevelEnds();
+        int treeLevel = 0;
+
+        while(node >= levelEnds[treeLevel]) {
+            treeLevel++;
+        }
+
+        return treeLevel;
+    }
+
+    private int FirstChild(Level level, int node, int treeLevel) {
+        // The children are found at the same position in the previous level.
+        int[] levelEnds = level.LevelEnds();
+        int childStart = (treeLevel > 1) ? levelEnds[treeLevel - 2] : 0;
+        return childStart + (node - levelEnds[treeLevel - 1]) * NODE_SIZE;
+    }
+
+    private int LastChild(Level level, int first, int treeLevel) {
+        // The last node of a level may have fewer children.
+        return Math.min(first + NODE_SIZE, level.LevelEnds()[treeLevel - 1]);
+    }
+
+    private void PushChildren(Level level, int node, QueryStack stack) {
+        int treeLevel = TreeLevel(level, node);
+        int first = FirstChild(level, node, treeLevel);
+        int last = LastChild(level, first, treeLevel);
+
+        for(int i = first; i < last; i++) {
+            stack.PushIndex(i);
+        }
+    }
+
+    private static boolean BoxIntersects(double[] boxes, int entry, Region2D region) {
+        return !region.IsEmpty() &&
+               (boxes[entry * 4] <= region.Right()) && (boxes[entry * 4 + 2] >= region.Left()) &&
+               (boxes[entry * 4 + 1] <= region.Bottom()) && (boxes[entry * 4 + 3] >= region.Top());
+    }
+
+    private static boolean BoxInside(double[] boxes, int entry, Region2D region) {
+        return (boxes[entry * 4] >= region.Left()) && (boxes[entry * 4 + 2] <= region.Right()) &&
+               (boxes[entry * 4 + 1] >= region.Top()) && (boxes[entry * 4 + 3] <= region.Bottom());
+    }
+
+    private static double BoxDistanceSq(double[] boxes, int entry, double x, double y) {
+        // The distance is 0 if the point is inside the box.
+        double dx = Math.max(0, Math.max(boxes[entry * 4] - x, x - boxes[entry * 4 + 2]));
+        double dy = Math.max(0, Math.max(boxes[entry * 4 + 1] - y, y - boxes[entry * 4 + 3]));
+        return (dx * dx) + (dy * dy);
+    }
+
+    private static int HilbertValue(int x, int y) {
+        // Computes the position of the cell on the Hilbert curve
+        // by rotating the quadrants at each level of the curve.
+        int value = 0;
+
+        for(int s = 1 << (HILBERT_ORDER - 1); s > 0; s >>= 1) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            value += s * s * ((3 * rx) ^ ry);
+
+            if(ry == 0) {
+                if(rx == 1) {
+                    x = s - 1 - x;
+                    y = s - 1 - y;
+                }
+
+                int temp = x;
+                x = y;
+                y = temp;
+            }
+        }
+
+        return value;
+    }
+}
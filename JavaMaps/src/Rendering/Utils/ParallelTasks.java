@@ -0,0 +1,203 @@
+// Copyright (c) 2010 Gratian Lup. All rights reserved.
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//
+// * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following
+// disclaimer in the documentation and/or other materials provided
+// with the distribution.
+//
+// * The name "JavaMaps" must not be used to endorse or promote
+// products derived from this software without prior written permission.
+//
+// * Products derived from this software may not be called "JavaMaps" nor
+// may "JavaMaps" appear in their names without prior written
+// permission of the author.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package Rendering.Utils;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Runs independent work (like preprocessing each street of a layer)
+// on a shared pool of threads. The work is split into contiguous ranges;
+// each range should write its results into its own slots, which are then
+// merged in order by the caller, so the result doesn't depend on
+// the number of threads used. A task can call ForRange again, the nested
+// call runs on the worker thread, because a fixed pool would deadlock
+// if its threads waited for batches queued behind them.
+public final class ParallelTasks {
+    // The work done for a range of items.
+    public interface RangeTask {
+        void Run(int first, int last); // 'last' is not included.
+    }
+
+    // The threads of the pool, used to detect the nested calls.
+    static final class WorkerThread extends Thread {
+        public WorkerThread(Runnable r) {
+            super(r, "ParallelTasks worker");
+        }
+    }
+
+    // Creates the threads of the pool; they don't keep the application alive.
+    static final class WorkerFactory implements ThreadFactory {
+        public Thread newThread(Runnable r) {
+            Thread thread = new WorkerThread(r);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /*
+     ** Members.
+     */
+    private static int parallelism_ = Runtime.getRuntime().availableProcessors();
+    private static ExecutorService pool_;
+
+    private ParallelTasks() {}
+
+    /*
+     ** Public methods.
+     */
+    public static synchronized int Parallelism() {
+        return parallelism_;
+    }
+
+    public static synchronized void SetParallelism(int value) {
+        assert(value > 0);
+        // ------------------------------------------------
+        if(value != parallelism_) {
+            parallelism_ = value;
+
+            if(pool_ != null) {
+                // A new pool is created at the next use.
+                pool_.shutdown();
+                pool_ = null;
+            }
+        }
+    }
+
+    public static void ForRange(int count, int minBatch, RangeTask task) {
+        assert(count >= 0);
+        assert(minBatch > 0);
+        assert(task != null);
+        // ------------------------------------------------
+        // Split the items into batches (more than threads, so that
+        // a slow batch doesn't leave the other threads idle).
+        // If there is too little work, or the call is made by a task,
+        // it's done on the calling thread.
+        int parallelism = Parallelism();
+        int batches = Math.min(parallelism * 4, (count + minBatch - 1) / minBatch);
+
+        if((parallelism == 1) || (batches <= 1) ||
+           (Thread.currentThread() instanceof WorkerThread)) {
+            task.Run(0, count);
+            return;
+        }
+
+        ExecutorService pool = Pool();
+        ArrayList<Future<Object>> results = new ArrayList<Future<Object>>(batches);
+        int batchSize = (count + batches - 1) / batches;
+
+        // After a batch fails the batches not yet started are skipped.
+        // The caller waits for the running ones before the exception
+        // is rethrown, so that none of them still changes the results.
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final CountDownLatch finished = 
+            new CountDownLatch((count + batchSize - 1) / batchSize);
+
+        for(int first = 0; first < count; first += batchSize) {
+            final int rangeFirst = first;
+            final int rangeLast = Math.min(count, first + batchSize);
+            final RangeTask rangeTask = task;
+
+            results.add(pool.submit(new Callable<Object>() {
+                public Object call() {
+                    try {
+                        if(!cancelled.get()) {
+                            rangeTask.Run(rangeFirst, rangeLast);
+                        }
+                    }
+                    finally {
+                        finished.countDown();
+                    }
+
+                    return null;
+                }
+            }));
+        }
+
+        // Wait for all batches to complete.
+        // An exception thrown by a batch is rethrown here.
+        try {
+            for(int i = 0; i < results.size(); i++) {
+                results.get(i).get();
+            }
+        }
+        catch(InterruptedException e) {
+            // The running batches are not waited for.
+            cancelled.set(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        catch(ExecutionException e) {
+            cancelled.set(true);
+            AwaitFinished(finished);
+
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            else if(e.getCause() instanceof Error) {
+                throw (Error)e.getCause();
+            }
+
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /*
+     ** Private methods.
+     */
+    private static void AwaitFinished(CountDownLatch finished) {
+        // The interruption of the caller is restored after the wait.
+        boolean interrupted = false;
+
+        while(true) {
+            try {
+                finished.await();
+                break;
+            }
+            catch(InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static synchronized ExecutorService Pool() {
+        if(pool_ == null) {
+            pool_ = Executors.newFixedThreadPool(parallelism_, new WorkerFactory());
+        }
+
+        return pool_;
+    }
+}
@@ -32,12 +32,17 @@
 //
 // Implements a Bucket PR-Quadtree which allows efficient
 // finding and insertion of point-like visual objects.
+// The queries don't lock and can run on any thread while the tree
+// is modified: a write copies the nodes it changes (the nodes created
+// by the same write are changed in place) and publishes the new root
+// at the end, so a query sees the tree either before or after it.
+// The writes are synchronized.
 package Rendering.Utils;
 import Core.*;
 import Rendering.IVisual;
 import java.util.*;
 
-public final class PointTree<T extends IVisual> {
+public final class PointTree<T extends IVisual> implements IPointIndex<T> {
     // The index in the child array based on the direction.
     private static final int DIRECTION_NW = 0;
     private static final int DIRECTION_NE = 1;
@@ -60,6 +65,15 @@ public final class PointTree<T extends IVisual> {
     // The maximum capacity of a leaf node.
     private static int SPLIT_THRESHOLD = 8;
 
+    // Nodes deeper than this are not split when bulk loading
+    // (prevents endless splitting when many points are in the same place).
+    private static int MAX_BULK_DEPTH = 40;
+
+    // The number of points from which the subtrees are built in parallel,
+    // and the depth of the subtrees (4^depth subtrees).
+    private static int MIN_PARALLEL_POINTS = 65536;
+    private static int PARALLEL_DEPTH = 2;
+
     public class NearestInfo {
         private T value_;
         private double distance_;
@@ -107,12 +121,16 @@ public final class PointTree<T extends IVisual> {
         private double x_;
         private double y_;
         private boolean leaf_;
+        private int version_;   // The write that created the node.
+        private int count_;     // Points in the subtree, for internal nodes.
+        private double weight_; // The sum of their weights.
 
         // ------------------------------------------------
         public Node(double x, double y, boolean leaf) {
             x_ = x;
             y_ = y;
             leaf_ = leaf;
+            version_ = writeVersion_;
 
             if(leaf) {
                 points_ = new ArrayList<T>(SPLIT_THRESHOLD);
@@ -126,6 +144,23 @@ public final class PointTree<T extends IVisual> {
             this(center.X(), center.Y(), leaf);
         }
 
+        public Node(Node other) {
+            // Creates a copy that can be modified by the current write.
+            x_ = other.x_;
+            y_ = other.y_;
+            leaf_ = other.leaf_;
+            version_ = writeVersion_;
+            count_ = other.count_;
+            weight_ = other.weight_;
+
+            if(leaf_) {
+                points_ = new ArrayList<T>(other.points_);
+            }
+            else {
+                children_ = other.children_.clone();
+            }
+        }
+
         // ------------------------------------------------
         public Node Child(int direction) {
             assert((direction >= DIRECTION_NW) &&
@@ -157,6 +192,28 @@ public final class PointTree<T extends IVisual> {
             return leaf_; 
         }
 
+        public int Version() {
+            return version_;
+        }
+
+        public int Count() {
+            return count_;
+        }
+
+        public double Weight() {
+            return weight_;
+        }
+
+        public void SetTotals(int count, double weight) {
+            count_ = count;
+            weight_ = weight;
+        }
+
+        public void AddTotals(int count, double weight) {
+            count_ += count;
+            weight_ += weight;
+        }
+
         public void MakeInternal() {
             assert(leaf_ == true);
             // ------------------------------------------------
@@ -182,11 +239,69 @@ public final class PointTree<T extends IVisual> {
         }
     }
 
+    // A subtree built in parallel when bulk loading.
+    class Subtree {
+        public Node node_;
+        public int first_;
+        public int last_;
+        public double x_;
+        public double y_;
+        public double width_;
+        public double height_;
+
+        // ------------------------------------------------
+        public Subtree(Node node, int first, int last, double x, double y,
+                       double width, double height) {
+            node_ = node;
+            first_ = first;
+            last_ = last;
+            x_ = x;
+            y_ = y;
+            width_ = width;
+            height_ = height;
+        }
+    }
+
+    // An entry in the queue of the k-nearest query, either
+    // a node (with its center and half size) or a point.
+    class SearchEntry implements Comparable<SearchEntry> {
+        public Node node_;
+        public T value_;
+        public double distance_; // Squared, to the point or to the node bounds.
+        public double x_;
+        public double y_;
+        public double width_;
+        public double height_;
+
+        // ------------------------------------------------
+        public SearchEntry(Node node, double distance, double x, double y,
+                           double width, double height) {
+            node_ = node;
+            distance_ = distance;
+            x_ = x;
+            y_ = y;
+            width_ = width;
+            height_ = height;
+        }
+
+        public SearchEntry(T value, double distance) {
+            value_ = value;
+            distance_ = distance;
+        }
+
+        // ------------------------------------------------
+        public int compareTo(SearchEntry other) {
+            return Double.compare(distance_, other.distance_);
+        }
+    }
+
     /*
      ** Members.
      */
-    private Node root_;
-    private int count_;
+    private volatile Node root_;
+    private volatile int count_;
+    private int writeVersion_; // The nodes with this version can be modified.
+    private ObjectWeight<T> weights_; // Null if each point has the weight 1.
     private double width_;  // Maximum width of the covered surface.
     private double height_; // Maximum height of the covered surface.
 
@@ -206,23 +321,41 @@ public final class PointTree<T extends IVisual> {
         AddAll(values);
     }
 
+    // The weights of the points are summed by 'Sum'.
+    public PointTree(double width, double height, ObjectWeight<T> weight) {
+        this(width, height);
+        weights_ = weight;
+    }
+
     /*
      ** Public methods.
      */
-    public void Add(T value) {
+    public synchronized void Add(T value) {
         assert(value != null);
         // ------------------------------------------------
         // Insert the specified point into the tree.
-        // If the point already exists it is not modified again.
+        // The nodes on the path to the leaf are copied and the new root
+        // is published at the end, so queries running at the same time
+        // see the tree either without or with the point.
+        Node root = BeginWrite();
+        AddImpl(value, root);
+        count_++;
+        root_ = root;
+    }
+
+    private void AddImpl(T value, Node root) {
         Point point = value.Position();
+        double weight = PointWeight(value);
         double x = width_ / 2;
         double y = height_ / 2;
         double width = width_ / 2;
         double height = height_ / 2;
-        Node node = root_;
+        Node node = root;
         
         // Find the leaf node where the point should be inserted.
+        // The totals of the nodes on the path include the point.
         while(!node.IsLeaf()) {
+            node.AddTotals(1, weight);
             int direction = Direction(point, node);
             x += width * DirectionX[direction];
             width /= 2;
@@ -230,7 +363,9 @@ public final class PointTree<T extends IVisual> {
             y += height * DirectionY[direction];
             height /= 2;
 
-            node = node.Child(direction);
+            Node child = Writable(node.Child(direction));
+            node.SetChild(child, direction);
+            node = child;
         }
         
         // Add the point to the leaf node. If the maximum capacity
@@ -238,7 +373,6 @@ public final class PointTree<T extends IVisual> {
         // some of the points (a point can't appear in two chidren).
         List<T> list = node.Points();
         list.add(value);
-        count_++;
 
         if(list.size() > SPLIT_THRESHOLD) {
             SplitNode(node, x, width, y, height, list);
@@ -249,40 +383,59 @@ public final class PointTree<T extends IVisual> {
                            double y, double height, List<T> list) {
         // Make the leaf node an internal node and create 4 children,
         // each having some of the points from the leaf node.
+        // The child is selected like in 'Add', a point found
+        // on the border of two children is added only to one of them.
         node.MakeInternal();
+        node.SetTotals(list.size(), PointsWeight(list));
         
         for(int dir = DIRECTION_NW; dir <= DIRECTION_SE; dir++) {
             double childX = x + (width * DirectionX[dir]);
             double childY = y + (height * DirectionY[dir]);
-            Node child = new Node(childX, childY, true /* leaf */);
-            node.SetChild(child, dir);
-            int count = list.size();
-            
-            for(int i = 0; i < count; i++) {
-                T temp = list.get(i);
-                
-                if(PointInRegion(temp.Position(), childX, childY, width, height)) {
-                    child.Points().add(temp);
-                }
-            }
+            node.SetChild(new Node(childX, childY, true /* leaf */), dir);
+        }
+
+        int count = list.size();
+
+        for(int i = 0; i < count; i++) {
+            T temp = list.get(i);
+            node.Child(Direction(temp.Position(), node)).Points().add(temp);
         }
     }
 
-    public void AddAll(Collection<T> values) {
+    public synchronized void AddAll(Collection<T> values) {
         assert(values != null);
         // ------------------------------------------------
+        // If the tree is empty it is built directly from all points,
+        // which is much faster than inserting them one by one.
+        if(count_ == 0) {
+            BulkLoad(values);
+            return;
+        }
+
+        // All points are added by a single write, a node
+        // is copied only the first time it's modified.
+        Node root = BeginWrite();
         Iterator<T> valuesIt = values.iterator();
         
         while(valuesIt.hasNext()) {
-            Add(valuesIt.next());
+            AddImpl(valuesIt.next(), root);
         }
+
+        count_ += values.size();
+        root_ = root;
     }
 
-    public void Remove(T value) {
+    public synchronized void Remove(T value) {
         assert(value != null);
         // ------------------------------------------------
-        RemoveImpl(value, root_, width_ / 2, height_ / 2,
-                                 width_ / 2, height_ / 2);
+        Node root = BeginWrite();
+
+        if(RemoveImpl(value, root, width_ / 2, height_ / 2,
+                                   width_ / 2, height_ / 2)) {
+            count_--;
+        }
+
+        root_ = root;
     }
 
     public void Intersect(Region2D region, ObjectCollection<T> list) {
@@ -290,24 +443,181 @@ public final class PointTree<T extends IVisual> {
         assert(list != null);
         // ------------------------------------------------
         // Add to the list all points that intersect the specified region.
-        if((root_ == null) || region.IsEmpty()) {
+        Node root = root_; // Not modified while the query runs.
+
+        if((root == null) || region.IsEmpty()) {
             return;
         }
         
-        IntersectImpl(region, root_, width_ / 2, height_ / 2,
-                                     width_ / 2, height_ / 2, list);
+        // The nodes are visited in the same order as by a recursive search,
+        // using the stack of the thread instead of recursion.
+        QueryStack stack = QueryStack.Current();
+        int base = stack.Count();
+        stack.Push(root, width_ / 2, height_ / 2, width_ / 2, height_ / 2);
+
+        while(stack.Count() > base) {
+            Node node = PopNode(stack);
+            double x = stack.X();
+            double y = stack.Y();
+            double width = stack.Width();
+            double height = stack.Height();
+
+            if(node.IsLeaf()) {
+                // Check all points in the leaf node.
+                List<T> points = node.Points();
+                int count = points.size();
+
+                for(int i = 0; i < count; i++) {
+                    T point = points.get(i);
+
+                    if(region.Contains(point.Position()) && list.Valid(point)) {
+                        list.Add(point);
+                    }
+                }
+            }
+            else {
+                // Check the points in each child whose region
+                // intersects with the specified region only.
+                // The children are pushed in reverse order.
+                for(int i = DIRECTION_SE; i >= DIRECTION_NW; i--) {
+                    if((node.Child(i) != null) &&
+                       region.IntersectsWith(x + (IntersectionX[i] * width),
+                                             y + (IntersectionY[i] * height),
+                                             width, height)) {
+                        stack.Push(node.Child(i), x + (DirectionX[i] * width),
+                                   y + (DirectionY[i] * height), width / 2, height / 2);
+                    }
+                }
+            }
+        }
+    }
+
+    public void IntersectDelta(Region2D previous, Region2D current, 
+                               ObjectCollection<T> entered, ObjectCollection<T> exited) {
+        assert(previous != null && current != null);
+        assert(entered != null && exited != null);
+        // ------------------------------------------------
+        // Add to 'entered' the points found in the current region, but not
+        // in the previous one, and to 'exited' the points found only in the
+        // previous region. The nodes inside both regions are skipped,
+        // so the cost depends on the size of the strips that changed.
+        Node root = root_; // Not modified while the query runs.
+
+        if(root == null) {
+            return;
+        }
+
+        QueryStack stack = QueryStack.Current();
+        int base = stack.Count();
+        stack.Push(root, width_ / 2, height_ / 2, width_ / 2, height_ / 2);
+
+        while(stack.Count() > base) {
+            Node node = PopNode(stack);
+            double x = stack.X();
+            double y = stack.Y();
+            double width = stack.Width();
+            double height = stack.Height();
+
+            if(node.IsLeaf()) {
+                List<T> points = node.Points();
+                int count = points.size();
+
+                for(int i = 0; i < count; i++) {
+                    T point = points.get(i);
+                    boolean inPrevious = !previous.IsEmpty() && previous.Contains(point.Position());
+                    boolean inCurrent = !current.IsEmpty() && current.Contains(point.Position());
+
+                    if(inCurrent && !inPrevious) {
+                        if(entered.Valid(point)) {
+                            entered.Add(point);
+                        }
+                    }
+                    else if(inPrevious && !inCurrent) {
+                        if(exited.Valid(point)) {
+                            exited.Add(point);
+                        }
+                    }
+                }
+            }
+            else {
+                // Skip the children that are outside both regions
+                // or inside both, their points didn't change.
+                for(int i = DIRECTION_SE; i >= DIRECTION_NW; i--) {
+                    if(node.Child(i) == null) {
+                        continue;
+                    }
+
+                    double left = x + (IntersectionX[i] * width);
+                    double top = y + (IntersectionY[i] * height);
+
+                    if(!previous.IntersectsWith(left, top, width, height) &&
+                       !current.IntersectsWith(left, top, width, height)) {
+                        continue;
+                    }
+                    else if(Inside(previous, left, top, width, height) &&
+                            Inside(current, left, top, width, height)) {
+                        continue;
+                    }
+
+                    stack.Push(node.Child(i), x + (DirectionX[i] * width),
+                               y + (DirectionY[i] * height), width / 2, height / 2);
+                }
+            }
+        }
     }
 
     public T Find(T value) {
         assert(value != null);
         // ------------------------------------------------
         // Search for the specified point and return its value.
-        if(root_ == null) {
+        Node root = root_; // Not modified while the query runs.
+
+        if(root == null) {
             return null;
         }
         
-        return FindImpl(value, root_, width_ / 2, height_ / 2,
-                                      width_ / 2, height_ / 2);
+        Point position = value.Position();
+        QueryStack stack = QueryStack.Current();
+        int base = stack.Count();
+        stack.Push(root, width_ / 2, height_ / 2, width_ / 2, height_ / 2);
+
+        while(stack.Count() > base) {
+            Node node = PopNode(stack);
+            double x = stack.X();
+            double y = stack.Y();
+            double width = stack.Width();
+            double height = stack.Height();
+
+            if(node.IsLeaf()) {
+                // Check if the point is found in this leaf node.
+                List<T> points = node.Points();
+                int count = points.size();
+
+                for(int i = 0; i < count; i++) {
+                    T point = points.get(i);
+
+                    if(point.equals(value)) {
+                        stack.PopAll(base);
+                        return point;
+                    }
+                }
+            }
+            else {
+                // Check for the point in each child whose region
+                // contains the point only (it can be on the border).
+                for(int i = DIRECTION_SE; i >= DIRECTION_NW; i--) {
+                    double nextX = x + (width * DirectionX[i]);
+                    double nextY = y + (height * DirectionY[i]);
+
+                    if((node.Child(i) != null) &&
+                       PointInRegion(position, nextX, nextY, width, height)) {
+                        stack.Push(node.Child(i), nextX, nextY, width / 2, height / 2);
+                    }
+                }
+            }
+        }
+
+        return null;
     }
 
     public NearestInfo NearestPoint(Point point) {
@@ -319,11 +629,96 @@ public final class PointTree<T extends IVisual> {
         }
         
         NearestInfo nearest = new NearestInfo();
-        NearestPointImpl(point, root_, nearest, width_ / 2, height_ / 2,
-                                                width_ / 2, height_ / 2);
+        NearestPoint(point.X(), point.Y(), nearest);
         return nearest;
     }
 
+    public boolean NearestPoint(double x, double y, NearestInfo nearest) {
+        assert(nearest != null);
+        // ------------------------------------------------
+        // Find the nearest point to the specified one. The result is stored
+        // in 'nearest', which can be reused, so no memory is allocated.
+        // Returns false if the tree has no points.
+        nearest.SetValue(null);
+        nearest.SetDistance(Double.MAX_VALUE);
+        T nearestValue = FindNearest(x, y, Double.MAX_VALUE);
+
+        if(nearestValue == null) {
+            return false;
+        }
+
+        Point position = nearestValue.Position();
+        double dx = position.X() - x;
+        double dy = position.Y() - y;
+        nearest.SetValue(nearestValue);
+        nearest.SetDistance(Math.sqrt((dx * dx) + (dy * dy)));
+        return true;
+    }
+
+    public T NearestPoint(double x, double y, double maxDistance) {
+        assert(maxDistance >= 0);
+        // ------------------------------------------------
+        // Returns the nearest point that is at a distance smaller
+        // than 'maxDistance', or null if there is no such point.
+        return FindNearest(x, y, maxDistance * maxDistance);
+    }
+
+    private T FindNearest(double x, double y, double maxDistanceSq) {
+        Node root = root_; // Not modified while the query runs.
+
+        if(root == null) {
+            return null;
+        }
+
+        T nearestValue = null;
+        double nearestDist = maxDistanceSq; // Squared.
+        QueryStack stack = QueryStack.Current();
+        int base = stack.Count();
+        stack.Push(root, width_ / 2, height_ / 2, width_ / 2, height_ / 2);
+
+        while(stack.Count() > base) {
+            Node node = PopNode(stack);
+            double nodeX = stack.X();
+            double nodeY = stack.Y();
+            double width = stack.Width();
+            double height = stack.Height();
+
+            if(BoxDistanceSq(x, y, nodeX, nodeY, width, height) >= nearestDist) {
+                continue; // Can't contain a nearer point.
+            }
+
+            if(node.IsLeaf()) {
+                // Check each point in the leaf node and keep the nearest one.
+                List<T> points = node.Points();
+                int count = points.size();
+
+                for(int i = 0; i < count; i++) {
+                    T temp = points.get(i);
+                    Point position = temp.Position();
+                    double dx = position.X() - x;
+                    double dy = position.Y() - y;
+                    double distance = (dx * dx) + (dy * dy);
+
+                    if(distance < nearestDist) {
+                        // Select the closer point.
+                        nearestDist = distance;
+                        nearestValue = temp;
+                    }
+                }
+            }
+            else {
+                for(int i = DIRECTION_SE; i >= DIRECTION_NW; i--) {
+                    if(node.Child(i) != null) {
+                        stack.Push(node.Child(i), nodeX + (width * DirectionX[i]),
+                                   nodeY + (height * DirectionY[i]), width / 2, height / 2);
+                    }
+                }
+            }
+        }
+
+        return nearestValue;
+    }
+
     public void Near(Point point, double maxDistance, ObjectCollection<T> list) {
         assert(point != null);
         assert(list != null);
@@ -331,17 +726,154 @@ public final class PointTree<T extends IVisual> {
         // ------------------------------------------------
         // Search all points that are at a distance smaller than 
         // 'maxDistance' to the specified point.
-        if(root_ == null) {
+        Node root = root_; // Not modified while the query runs.
+
+        if(root == null) {
             return;
         }
         
-        NearestImpl(point, maxDistance, root_, list, width_ / 2, height_ / 2,
-                                                     width_ / 2, height_ / 2);
+        double px = point.X();
+        double py = point.Y();
+        double maxDistanceSq = maxDistance * maxDistance;
+        QueryStack stack = QueryStack.Current();
+        int base = stack.Count();
+        stack.Push(root, width_ / 2, height_ / 2, width_ / 2, height_ / 2);
+
+        while(stack.Count() > base) {
+            Node node = PopNode(stack);
+            double x = stack.X();
+            double y = stack.Y();
+            double width = stack.Width();
+            double height = stack.Height();
+
+            if(BoxDistanceSq(px, py, x, y, width, height) >= maxDistanceSq) {
+                continue; // All points are too far.
+            }
+
+            if(node.IsLeaf()) {
+                // Add all points that are closer than 'maxDistance'.
+                List<T> points = node.Points();
+                int count = points.size();
+
+                for(int i = 0; i < count; i++) {
+                    T temp = points.get(i);
+                    Point position = temp.Position();
+                    double dx = position.X() - px;
+                    double dy = position.Y() - py;
+
+                    if(((dx * dx) + (dy * dy)) < maxDistanceSq) {
+                        list.Add(temp);
+                    }
+                }
+            }
+            else {
+                for(int i = DIRECTION_SE; i >= DIRECTION_NW; i--) {
+                    if(node.Child(i) != null) {
+                        stack.Push(node.Child(i), x + (width * DirectionX[i]),
+                                   y + (height * DirectionY[i]), width / 2, height / 2);
+                    }
+                }
+            }
+        }
+    }
+
+    public void Nearest(Point point, int count, List<NearestInfo> list) {
+        Nearest(point, count, Double.MAX_VALUE, null, list);
+    }
+
+    public void Nearest(Point point, int count, double maxDistance,
+                        ObjectFilter<T> filter, List<NearestInfo> list) {
+        assert(point != null);
+        assert(list != null);
+        assert(count >= 0);
+        assert(maxDistance >= 0);
+        // ------------------------------------------------
+        // Add to the list the 'count' nearest points that are at a distance
+        // smaller than 'maxDistance' and accepted by the filter (if any),
+        // in the order of the distance. The nodes and points are visited
+        // in the order of their distance to the specified point, so the
+        // search stops as soon as enough points were found.
+        Node root = root_; // Not modified while the query runs.
+
+        if((root == null) || (count == 0)) {
+            return;
+        }
+
+        double px = point.X();
+        double py = point.Y();
+        double maxDistanceSq = maxDistance < Math.sqrt(Double.MAX_VALUE) ?
+                               maxDistance * maxDistance : Double.MAX_VALUE;
+        PriorityQueue<SearchEntry> queue = new PriorityQueue<SearchEntry>();
+        queue.add(new SearchEntry(root, 0, width_ / 2, height_ / 2,
+                                  width_ / 2, height_ / 2));
+        int found = 0;
+
+        while((found < count) && !queue.isEmpty()) {
+            SearchEntry entry = queue.poll();
+
+            if(entry.node_ == null) {
+                // No other point can be nearer.
+                list.add(new NearestInfo(entry.value_, Math.sqrt(entry.distance_)));
+                found++;
+            }
+            else if(entry.node_.IsLeaf()) {
+                List<T> points = entry.node_.Points();
+                int pointCount = points.size();
+
+                for(int i = 0; i < pointCount; i++) {
+                    T temp = points.get(i);
+                    Point position = temp.Position();
+                    double dx = position.X() - px;
+                    double dy = position.Y() - py;
+                    double distance = (dx * dx) + (dy * dy);
+
+                    if((distance < maxDistanceSq) &&
+                       ((filter == null) || filter.Accept(temp))) {
+                        queue.add(new SearchEntry(temp, distance));
+                    }
+                }
+            }
+            else {
+                for(int i = DIRECTION_NW; i <= DIRECTION_SE; i++) {
+                    Node child = entry.node_.Child(i);
+
+                    if(child == null) {
+                        continue;
+                    }
+
+                    double nextX = entry.x_ + (entry.width_  * DirectionX[i]);
+                    double nextY = entry.y_ + (entry.height_ * DirectionY[i]);
+                    double distance = BoxDistanceSq(px, py, nextX, nextY,
+                                                    entry.width_ / 2, entry.height_ / 2);
+
+                    if(distance < maxDistanceSq) {
+                        queue.add(new SearchEntry(child, distance, nextX, nextY,
+                                                  entry.width_ / 2, entry.height_ / 2));
+                    }
+                }
+            }
+        }
     }
 
     public int Count() { 
         return count_; 
     }
+
+    public int Count(Region2D region) {
+        assert(region != null);
+        // ------------------------------------------------
+        // Returns the number of points found in the region,
+        // the same as the number of points found by 'Intersect'.
+        return (int)Aggregate(region, false);
+    }
+
+    public double Sum(Region2D region) {
+        assert(region != null);
+        // ------------------------------------------------
+        // Returns the sum of the weights of the points found in the region.
+        // Without a weight function it's the same as 'Count'.
+        return Aggregate(region, true);
+    }
     
     public double Width() { 
         return width_; 
@@ -351,7 +883,7 @@ public final class PointTree<T extends IVisual> {
         return height_; 
     }
 
-    public void Clear() {
+    public synchronized void Clear() {
         root_ = new Node(width_ / 2, height_ / 2, true);
         count_ = 0;
     }
@@ -359,6 +891,142 @@ public final class PointTree<T extends IVisual> {
     /*
     ** Private methods.
     */
+    @SuppressWarnings("unchecked")
+    private Node PopNode(QueryStack stack) {
+        // The stack of a query holds only the nodes of this tree.
+        return (Node)stack.Pop();
+    }
+
+    @SuppressWarnings("unchecked")
+    private T PointAt(Object[] points, int index) {
+        // The array is made from the collection of points given to Build.
+        return (T)points[index];
+    }
+
+    private void BulkLoad(Collection<T> values) {
+        // The points are sorted in Z-order (NW, NE, SW, SE at each level),
+        // using the same rule as 'Add' to select the child of a point,
+        // so the points of each node form a contiguous range of the array.
+        // A node is split while it has more than SPLIT_THRESHOLD points.
+        // The coordinates are copied in arrays that are sorted together
+        // with the points, which is much faster than accessing the points.
+        final Object[] points = values.toArray();
+        final double[] xs = new double[points.length];
+        final double[] ys = new double[points.length];
+        writeVersion_++;
+        final Node root = new Node(width_ / 2, height_ / 2, true);
+
+        for(int i = 0; i < points.length; i++) {
+            Point position = ((IVisual)points[i]).Position();
+            xs[i] = position.X();
+            ys[i] = position.Y();
+        }
+
+        if(points.length < MIN_PARALLEL_POINTS) {
+            Build(root, points, xs, ys, 0, points.length, width_ / 2, height_ / 2,
+                  width_ / 2, height_ / 2, 0, null);
+            count_ = points.length;
+            root_ = root;
+            return;
+        }
+
+        // The top levels are built first, then the subtrees
+        // below them in parallel (they have no common nodes).
+        final ArrayList<Subtree> subtrees = new ArrayList<Subtree>();
+        Build(root, points, xs, ys, 0, points.length, width_ / 2, height_ / 2,
+              width_ / 2, height_ / 2, 0, subtrees);
+
+        ParallelTasks.ForRange(subtrees.size(), 1, new ParallelTasks.RangeTask() {
+            public void Run(int first, int last) {
+                for(int i = first; i < last; i++) {
+                    Subtree subtree = subtrees.get(i);
+                    Build(subtree.node_, points, xs, ys, subtree.first_, subtree.last_,
+                          subtree.x_, subtree.y_, subtree.width_, subtree.height_,
+                          PARALLEL_DEPTH, null);
+                }
+            }
+        });
+
+        SetTopTotals(root, PARALLEL_DEPTH);
+        count_ = points.length;
+        root_ = root;
+    }
+
+    private void Build(Node node, Object[] points, double[] xs, double[] ys,
+                       int first, int last, double x, double y, double width,
+                       double height, int depth, List<Subtree> subtrees) {
+        // If 'subtrees' is specified the nodes found at PARALLEL_DEPTH
+        // are not built, but added to the list instead.
+        if((subtrees != null) && (depth == PARALLEL_DEPTH)) {
+            subtrees.add(new Subtree(node, first, last, x, y, width, height));
+            return;
+        }
+
+        if(((last - first) <= SPLIT_THRESHOLD) || (depth >= MAX_BULK_DEPTH)) {
+            List<T> list = node.Points();
+
+            for(int i = first; i < last; i++) {
+                list.add(PointAt(points, i));
+            }
+
+            return;
+        }
+
+        // Split the points first in the north/south halves,
+        // then each half in the west/east quarters.
+        int south = Partition(points, ys, xs, first, last, y);
+        int[] ranges = new int[] {
+            first, Partition(points, xs, ys, first, south, x),
+            south, Partition(points, xs, ys, south, last, x), last
+        };
+
+        node.MakeInternal();
+
+        for(int dir = DIRECTION_NW; dir <= DIRECTION_SE; dir++) {
+            double childX = x + (width * DirectionX[dir]);
+            double childY = y + (height * DirectionY[dir]);
+            Node child = new Node(childX, childY, true /* leaf */);
+            node.SetChild(child, dir);
+            Build(child, points, xs, ys, ranges[dir], ranges[dir + 1], childX, childY,
+                  width / 2, height / 2, depth + 1, subtrees);
+        }
+
+        if(subtrees == null) {
+            SetTotals(node); // The children are complete.
+        }
+    }
+
+    private int Partition(Object[] points, double[] keys, double[] others,
+                          int first, int last, double value) {
+        // Move the points with the key smaller than the value
+        // in front of the others. Returns the index of the first point
+        // whose key is not smaller than the value.
+        int i = first;
+        int j = last - 1;
+
+        while(i <= j) {
+            if(keys[i] < value) {
+                i++;
+            }
+            else {
+                Object temp = points[i];
+                points[i] = points[j];
+                points[j] = temp;
+
+                double tempKey = keys[i];
+                keys[i] = keys[j];
+                keys[j] = tempKey;
+
+                double tempOther = others[i];
+                others[i] = others[j];
+                others[j] = tempOther;
+                j--;
+            }
+        }
+
+        return i;
+    }
+
     private boolean RemoveImpl(T value, Node node, double x, double y,
                                double width, double height) {
         if(node.IsLeaf()) {
@@ -369,7 +1037,6 @@ public final class PointTree<T extends IVisual> {
             for(int i = 0; i < count; i++) {
                 if(points.get(i).equals(value)) {
                     points.remove(i);
-                    count_--;
                     return true;
                 }
             }
@@ -384,18 +1051,25 @@ public final class PointTree<T extends IVisual> {
             double nextY = y + (height * DirectionY[i]);
 
             if(PointInRegion(value.Position(), nextX, nextY, width, height)) {
-                boolean status =  RemoveImpl(value, node.Child(i), nextX, nextY,
+                Node child = Writable(node.Child(i));
+                node.SetChild(child, i);
+                boolean status =  RemoveImpl(value, child, nextX, nextY,
                                              width / 2, height / 2);
 
                 // If the point has been removed check if the nodes
                 // children can be marked into a single one.
-                if(status && MergePossible(node)) {
-                    ArrayList<T> list = new ArrayList<T>();
+                if(status) {
+                    node.AddTotals(-1, -PointWeight(value));
+
+                    if(MergePossible(node)) {
+                        ArrayList<T> list = new ArrayList<T>();
 
-                    if(MergeNodes(node, list)) {
-                         node.MakeLeaf(list);
-                         return true;
+                        if(MergeNodes(node, list)) {
+                             node.MakeLeaf(list);
+                        }
                     }
+
+                    return true;
                 }
             }
         }
@@ -403,184 +1077,165 @@ public final class PointTree<T extends IVisual> {
         return false;
     }
 
-    private boolean MergePossible(Node node) {
-         return node.Child(DIRECTION_NE).IsLeaf() ||
-                node.Child(DIRECTION_NW).IsLeaf() ||
-                node.Child(DIRECTION_SE).IsLeaf() ||
-                node.Child(DIRECTION_SW).IsLeaf();
-     }
-
-    private boolean MergeNodes(Node node, List<T> list) {
-        if(node.IsLeaf()) {
-            // Copy all points to the input list.
-            List<T> points = node.Points();
-            int count = points.size();
-            
-            for(int i = 0; i < count; i++) {
-                list.add(points.get(i));
-            }
+    private double PointWeight(T value) {
+        return (weights_ != null) ? weights_.Weight(value) : 1.0;
+    }
 
-            return list.size() <= SPLIT_THRESHOLD;
+    private double PointsWeight(List<T> points) {
+        if(weights_ == null) {
+            return points.size();
         }
-        else {
-            // Copy the points from all children to the input list.
-            for(int dir = DIRECTION_NW; dir <= DIRECTION_SE; dir++) {
-                if(!MergeNodes(node.Child(dir), list)) {
-                    return false;
-                }
-            }
 
-            return true;
+        double sum = 0;
+        int count = points.size();
+
+        for(int i = 0; i < count; i++) {
+            sum += weights_.Weight(points.get(i));
         }
+
+        return sum;
     }
 
-    private void IntersectImpl(Region2D region, Node node, 
-                               double x, double y,
-                               double width, double height, 
-                               ObjectCollection<T> list) {
-        if(node.IsLeaf()) {
-            // Check all points in the leaf node.
-            List<T> points = node.Points();
-            int count = points.size();
-            
-            for(int i = 0; i < count; i++) {
-                T point = points.get(i);
-                
-                if(region.Contains(point.Position()) && list.Valid(point)) {
-                    list.Add(point);
-                }
-            }
-        }
-        else {
-            // Check the points in each child whose region 
-            // intersects with the specified region only.
-            for(int i = DIRECTION_NW; i <= DIRECTION_SE; i++) {
-                if(region.IntersectsWith(x + (IntersectionX[i] * width),
-                                         y + (IntersectionY[i] * height),
-                                         width, height)) {
-                    // Search in this child node.
-                    IntersectImpl(region, node.Child(i),
-                                  x + (DirectionX[i] * width),
-                                  y + (DirectionY[i] * height),
-                                  width / 2, height / 2, list);
-                }
-            }
+    private int NodeCount(Node node) {
+        return node.IsLeaf() ? node.Points().size() : node.Count();
+    }
+
+    private double NodeWeight(Node node) {
+        return node.IsLeaf() ? PointsWeight(node.Points()) : node.Weight();
+    }
+
+    private void SetTotals(Node node) {
+        // Computes the totals of an internal node from its children.
+        int count = 0;
+        double weight = 0;
+
+        for(int dir = DIRECTION_NW; dir <= DIRECTION_SE; dir++) {
+            count += NodeCount(node.Child(dir));
+            weight += NodeWeight(node.Child(dir));
         }
+
+        node.SetTotals(count, weight);
     }
 
-    private T FindImpl(T value, Node node, double x, double y,
-                       double width, double height) {
-        if(node.IsLeaf()) {
-            // Check if the point is found in this leaf node.
-            List<T> points = node.Points();
-            int count = points.size();
-            
-            for(int i = 0; i < count; i++) {
-                T point = points.get(i);
-                
-                if(point.equals(value)) {
-                    return point;
-                }
-            }
+    private void SetTopTotals(Node node, int depth) {
+        // Computes the totals of the nodes above the subtrees
+        // built in parallel, after all subtrees are complete.
+        if(node.IsLeaf() || (depth == 0)) {
+            return;
         }
-        else {
-            // Check for the point in each child whose region 
-            // intersects with the specified region only.
-            for(int i = DIRECTION_NW; i <= DIRECTION_SE; i++) {                
-                double nextX = x + (width * DirectionX[i]);
-                double nextY = y + (height * DirectionY[i]);
-
-                if(PointInRegion(value.Position(), nextX, nextY, width, height)) {
-                    // Search in this child node.
-                    T result = FindImpl(value, node.Child(i), nextX, nextY,
-                                        width / 2, height / 2);
-                    if(result != null) {
-                        return result;
-                    }
-                }
-             }
+
+        for(int dir = DIRECTION_NW; dir <= DIRECTION_SE; dir++) {
+            SetTopTotals(node.Child(dir), depth - 1);
         }
 
-        return null;
+        SetTotals(node);
     }
 
-    private void NearestPointImpl(Point point, Node node, NearestInfo nearest,
-                                  double x, double y, double width, double height) {
-        if(node.IsLeaf()) {
-            // Check each point in the leaf node and keep the nearest one.
-            List<T> points = node.Points();
-            int count = points.size();
-            
-            for(int i = 0; i < count; i++) {
-                T temp = points.get(i);
-                double distance = point.Distance(temp.Position());
-                
-                if(distance < nearest.Distance()) {
-                    // Select the closer point.
-                    nearest.SetDistance(distance);
-                    nearest.SetValue(temp);
-                }
-            }
+    private double Aggregate(Region2D region, boolean weighted) {
+        // The points of a node inside the region are counted using
+        // the totals of the node, only the nodes that intersect
+        // the border of the region are visited.
+        Node root = root_; // Not modified while the query runs.
+
+        if((root == null) || region.IsEmpty()) {
+            return 0;
         }
-        else {
-            // Check which children intersect with the point
-            // and search for a closer point in each of them.
-            for(int i = DIRECTION_NW; i <= DIRECTION_SE; i++) {
-                if(node.Child(i) == null) {
-                    continue;
+
+        double total = 0;
+        QueryStack stack = QueryStack.Current();
+        int base = stack.Count();
+        stack.Push(root, width_ / 2, height_ / 2, width_ / 2, height_ / 2);
+
+        while(stack.Count() > base) {
+            Node node = PopNode(stack);
+            double x = stack.X();
+            double y = stack.Y();
+            double width = stack.Width();
+            double height = stack.Height();
+
+            if(node.IsLeaf()) {
+                List<T> points = node.Points();
+                int count = points.size();
+
+                for(int i = 0; i < count; i++) {
+                    T point = points.get(i);
+
+                    if(region.Contains(point.Position())) {
+                        total += weighted ? PointWeight(point) : 1;
+                    }
                 }
+            }
+            else {
+                for(int i = DIRECTION_SE; i >= DIRECTION_NW; i--) {
+                    Node child = node.Child(i);
+
+                    if(child == null) {
+                        continue;
+                    }
 
-                double nextX = x + (width  * DirectionX[i]);
-                double nextY = y + (height * DirectionY[i]);
+                    double left = x + (IntersectionX[i] * width);
+                    double top = y + (IntersectionY[i] * height);
 
-                if(Overlap(point, nearest.Distance(),
-                           nextX, nextY, width, height)) {
-                    // Search in this child.
-                    NearestPointImpl(point, node.Child(i), nearest,
-                                     nextX, nextY, width / 2, height / 2);
+                    if(!region.IntersectsWith(left, top, width, height)) {
+                        continue;
+                    }
+                    else if(!child.IsLeaf() && Inside(region, left, top, width, height)) {
+                        total += weighted ? child.Weight() : child.Count();
+                    }
+                    else {
+                        stack.Push(child, x + (DirectionX[i] * width),
+                                   y + (DirectionY[i] * height), width / 2, height / 2);
+                    }
                 }
             }
         }
+
+        return total;
     }
 
-    private void NearestImpl(Point point, double maxDistance, 
-                             Node node, ObjectCollection<T> list,
-                             double x, double y, 
-                             double width, double height) {
+    private boolean MergePossible(Node node) {
+         return node.Child(DIRECTION_NE).IsLeaf() ||
+                node.Child(DIRECTION_NW).IsLeaf() ||
+                node.Child(DIRECTION_SE).IsLeaf() ||
+                node.Child(DIRECTION_SW).IsLeaf();
+     }
+
+    private boolean MergeNodes(Node node, List<T> list) {
         if(node.IsLeaf()) {
-            // Add all points that are closer than 'maxDistance'.
+            // Copy all points to the input list.
             List<T> points = node.Points();
             int count = points.size();
+            
             for(int i = 0; i < count; i++) {
-                T temp = points.get(i);
-                double distance = point.Distance(temp.Position());
-                
-                if(distance < maxDistance) {
-                    list.Add(temp);
-                }
+                list.add(points.get(i));
             }
+
+            return list.size() <= SPLIT_THRESHOLD;
         }
         else {
-            // Check which children intersect with the point
-            // and search for close enough points in each of them.
-            for(int i = DIRECTION_NW; i <= DIRECTION_SE; i++) {
-                if(node.Child(i) == null) {
-                    continue;
-                }
-
-                double nextX = x + (width * DirectionX[i]);
-                double nextY = y + (height * DirectionY[i]);
-
-                if(Overlap(point, maxDistance,
-                           nextX, nextY, width, height)) {
-                    // Search in this child.
-                    NearestImpl(point, maxDistance, node.Child(i), list,
-                                nextX, nextY, width / 2, height / 2);
+            // Copy the points from all children to the input list.
+            for(int dir = DIRECTION_NW; dir <= DIRECTION_SE; dir++) {
+                if(!MergeNodes(node.Child(dir), list)) {
+                    return false;
                 }
             }
+
+            return true;
         }
     }
 
+    private Node BeginWrite() {
+        // Starts a new write, the nodes created by the previous ones
+        // can be seen by queries and must be copied before modified.
+        // The root is copied so the tree is published at the end.
+        writeVersion_++;
+        return Writable(root_);
+    }
+
+    private Node Writable(Node node) {
+        return (node.Version() == writeVersion_) ? node : new Node(node);
+    }
+
     private int Direction(double x, double y, double otherX, double otherY) {
         // Return the direction of the first point
         // when compared with the second point.
@@ -615,37 +1270,18 @@ public final class PointTree<T extends IVisual> {
                (point.Y() <= (y + (height / 2)));
     }
 
-    private boolean Overlap(double circleX, double circleY, double radius,
-                            double rectX, double rectY,
-                            double rectWidth, double rectHeight) {
-        double dx = circleX - rectX;
-        double dy = circleY - rectY;
-
-        // Check for the circle outside the rectangle case first.
-        if((dx > ((rectWidth / 2) + radius)) ||
-           (dy > ((rectHeight / 2) + radius))) {
-            return false;
-        }
-
-        // Check for the circle inside the rectangle case.
-        if((dx <= (rectWidth / 2)) ||
-           (dy <= (rectHeight / 2))) {
-            return true;
-        }
-
-        // Test for overlap with the rectangles corners
-        // (the squared values are compered to not use a slow 'sqrt').
-        double  distanceSq = (dx - (rectWidth / 2)) *
-                             (dx - (rectWidth / 2)) +
-                             (dy - (rectHeight / 2)) *
-                             (dy - (rectHeight / 2));
-        return distanceSq <= (radius * radius);
+    private boolean Inside(Region2D region, double left, double top,
+                           double width, double height) {
+        return (left >= region.Left()) && (top >= region.Top()) &&
+               ((left + width) <= region.Right()) && ((top + height) <= region.Bottom());
     }
 
-     private boolean Overlap(Point circle, double radius,
-                            double rectX, double rectY,
-                            double rectWidth, double rectHeight) {
-         return Overlap(circle.X(), circle.Y(), radius,
-                        rectX, rectY, rectWidth, rectHeight);
-     }
+    private double BoxDistanceSq(double x, double y, double boxX, double boxY,
+                                 double halfWidth, double halfHeight) {
+        // The squared distance from the point to the nearest point
+        // of the box, 0 if the point is inside the box.
+        double dx = Math.max(0, Math.abs(x - boxX) - halfWidth);
+        double dy = Math.max(0, Math.abs(y - boxY) - halfHeight);
+        return (dx * dx) + (dy * dy);
+    }
 }
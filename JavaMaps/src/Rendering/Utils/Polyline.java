@@ -0,0 +1,175 @@
+// Copyright (c) 2010 Gratian Lup. All rights reserved.
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//
+// * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following
+// disclaimer in the documentation and/or other materials provided
+// with the distribution.
+//
+// * The name "JavaMaps" must not be used to endorse or promote
+// products derived from this software without prior written permission.
+//
+// * Products derived from this software may not be called "JavaMaps" nor
+// may "JavaMaps" appear in their names without prior written
+// permission of the author.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package Rendering.Utils;
+import Core.*;
+import java.util.*;
+
+// A sequence of connected line segments, like the points of a street.
+// The coordinates are kept in a single array (x0, y0, x1, y1, ...),
+// which needs much less memory than a Line object for each segment.
+// The segments where a name should be shown are stored separately,
+// since there are usually only a few of them.
+public final class Polyline {
+    private static final int[] NO_SEGMENTS = new int[0];
+    private static final short[] NO_COUNTS = new short[0];
+
+    /*
+     ** Members.
+     */
+    private double[] points_;
+    private Object value_;
+    private int[] namedSegments_;
+    private short[] nameCounts_;
+    private short nameWidth_;
+    private short nameHeight_;
+
+    /*
+     ** Constructors.
+     */
+    public Polyline(double[] points, Object value) {
+        assert(points != null);
+        assert(points.length >= 4 && (points.length % 2) == 0);
+        // ------------------------------------------------
+        points_ = points;
+        value_ = value;
+        namedSegments_ = NO_SEGMENTS;
+        nameCounts_ = NO_COUNTS;
+    }
+
+    public Polyline(List<Point> points, Object value) {
+        this(ToArray(points, 1.0, 1.0), value);
+    }
+
+    /*
+     ** Public methods.
+     */
+    public static double[] ToArray(List<Point> points, double scaleX, double scaleY) {
+        // Creates the coordinate array, scaling the points.
+        int count = points.size();
+        double[] coords = new double[count * 2];
+
+        for(int i = 0; i < count; i++) {
+            Point point = points.get(i);
+            coords[i * 2] = point.X() * scaleX;
+            coords[i * 2 + 1] = point.Y() * scaleY;
+        }
+
+        return coords;
+    }
+
+    public void GetPoints(List<Point> list) {
+        int count = PointCount();
+
+        for(int i = 0; i < count; i++) {
+            list.add(new Point(X(i), Y(i)));
+        }
+    }
+
+    public PolylineChunk[] CreateChunks(int segmentsPerChunk) {
+        assert(segmentsPerChunk > 0);
+        // ------------------------------------------------
+        // Splits the polyline into chunks with at most the specified
+        // number of segments. Consecutive chunks share the end point.
+        int segments = SegmentCount();
+        int count = (segments + segmentsPerChunk - 1) / segmentsPerChunk;
+        PolylineChunk[] chunks = new PolylineChunk[count];
+
+        for(int i = 0; i < count; i++) {
+            int first = i * segmentsPerChunk;
+            int last = Math.min(segments, first + segmentsPerChunk);
+            chunks[i] = new PolylineChunk(this, first, last);
+        }
+
+        return chunks;
+    }
+
+    public int PointCount() {
+        return points_.length / 2;
+    }
+
+    public int SegmentCount() {
+        return (points_.length / 2) - 1;
+    }
+
+    public double X(int index) {
+        return points_[index * 2];
+    }
+
+    public double Y(int index) {
+        return points_[index * 2 + 1];
+    }
+
+    public double SegmentLength(int segment) {
+        return Point.Distance(X(segment), Y(segment),
+                              X(segment + 1), Y(segment + 1));
+    }
+
+    public Object Value() {
+        return value_;
+    }
+
+    public void SetNames(int[] segments, short[] counts) {
+        assert(segments.length == counts.length);
+        // ------------------------------------------------
+        namedSegments_ = segments;
+        nameCounts_ = counts;
+    }
+
+    public int NamedSegmentCount() {
+        return namedSegments_.length;
+    }
+
+    public int NamedSegment(int index) {
+        return namedSegments_[index];
+    }
+
+    public short NameCount(int index) {
+        return nameCounts_[index];
+    }
+
+    public short NameWidth() {
+        return nameWidth_;
+    }
+
+    public void SetNameWidth(short value) {
+        nameWidth_ = value;
+    }
+
+    public short NameHeight() {
+        return nameHeight_;
+    }
+
+    public void SetNameHeight(short value) {
+        nameHeight_ = value;
+    }
+}
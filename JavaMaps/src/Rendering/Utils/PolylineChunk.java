@@ -0,0 +1,145 @@
+// Copyright (c) 2010 Gratian Lup. All rights reserved.
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//
+// * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following
+// disclaimer in the documentation and/or other materials provided
+// with the distribution.
+//
+// * The name "JavaMaps" must not be used to endorse or promote
+// products derived from this software without prior written permission.
+//
+// * Products derived from this software may not be called "JavaMaps" nor
+// may "JavaMaps" appear in their names without prior written
+// permission of the author.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package Rendering.Utils;
+
+// A range of consecutive segments of a polyline, stored in a LineTree
+// like any other line. The coordinates of the line are the bounding box
+// of the segments (top-left and bottom-right corners), the intersection
+// and distance tests are done on the segments themselves.
+public final class PolylineChunk extends Line {
+    private Polyline polyline_;
+    private int first_; // The first segment.
+    private int last_;  // The segment after the last one.
+
+    // ------------------------------------------------
+    public PolylineChunk(Polyline polyline, int first, int last) {
+        super(0, 0, 0, 0, polyline.Value());
+        assert(first >= 0 && first < last);
+        assert(last <= polyline.SegmentCount());
+        // ------------------------------------------------
+        polyline_ = polyline;
+        first_ = first;
+        last_ = last;
+        ComputeBounds();
+    }
+
+    // ------------------------------------------------
+    public Polyline Polyline() {
+        return polyline_;
+    }
+
+    public int FirstSegment() {
+        return first_;
+    }
+
+    public int LastSegment() {
+        return last_;
+    }
+
+    public double Left() { return XA(); }
+    public double Top() { return YA(); }
+    public double Right() { return XB(); }
+    public double Bottom() { return YB(); }
+
+    @Override
+    public boolean IntersectsRect(double left, double top,
+                                  double right, double bottom) {
+        // Nothing to test if the bounding boxes don't intersect.
+        if((left > XB()) || (right < XA()) ||
+           (top > YB()) || (bottom < YA())) {
+            return false;
+        }
+
+        for(int i = first_; i < last_; i++) {
+            if(LineUtils.LineIntersectsRect(polyline_.X(i), polyline_.Y(i),
+                                            polyline_.X(i + 1), polyline_.Y(i + 1),
+                                            left, top, right, bottom)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public double DistanceSq(double x, double y) {
+        // The distance to the nearest segment.
+        double distance = Double.MAX_VALUE;
+
+        for(int i = first_; i < last_; i++) {
+            distance = Math.min(distance,
+                                LineUtils.PointLineDistanceSq(x, y,
+                                            polyline_.X(i), polyline_.Y(i),
+                                            polyline_.X(i + 1), polyline_.Y(i + 1)));
+        }
+
+        return distance;
+    }
+
+    // A chunk is identified by the object itself,
+    // there are no two chunks with the same segments.
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return this == obj;
+    }
+
+    @Override
+    public String toString() {
+        return "Chunk " + first_ + "-" + last_ + ": " + super.toString();
+    }
+
+    // ------------------------------------------------
+    private void ComputeBounds() {
+        double left = Double.MAX_VALUE;
+        double top = Double.MAX_VALUE;
+        double right = -Double.MAX_VALUE;
+        double bottom = -Double.MAX_VALUE;
+
+        for(int i = first_; i <= last_; i++) {
+            left = Math.min(left, polyline_.X(i));
+            top = Math.min(top, polyline_.Y(i));
+            right = Math.max(right, polyline_.X(i));
+            bottom = Math.max(bottom, polyline_.Y(i));
+        }
+
+        SetXA(left);
+        SetYA(top);
+        SetXB(right);
+        SetYB(bottom);
+    }
+}
@@ -0,0 +1,281 @@
+// Copyright (c) 2010 Gratian Lup. All rights reserved.
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//
+// * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following
+// disclaimer in the documentation and/or other materials provided
+// with the distribution.
+//
+// * The name "JavaMaps" must not be used to endorse or promote
+// products derived from this software without prior written permission.
+//
+// * Products derived from this software may not be called "JavaMaps" nor
+// may "JavaMaps" appear in their names without prior written
+// permission of the author.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package Rendering.Utils;
+import java.util.Arrays;
+
+// The stack used by the iterative tree queries instead of recursion.
+// A node can be pushed together with its bounds, for trees whose nodes
+// don't store them, and the packed trees push the index of the node.
+// Each thread has its own stack, which grows as needed and is reused,
+// so that the queries don't allocate memory. A query removes only
+// the nodes it added, so queries can be nested (from a collection
+// or a filter called by the query, for example). The stack also keeps
+// the sets used by the queries to remember the objects already found,
+// so that the queries never write to the shared objects.
+public final class QueryStack {
+    private static final int INITIAL_CAPACITY = 64;
+
+    // A set of objects compared by identity, used by a single query.
+    // Clearing it costs only the number of added objects.
+    public static final class VisitedSet {
+        private static final int INITIAL_CAPACITY = 64;
+
+        /*
+         ** Members.
+         */
+        private Object[] table_;
+        private int[] used_;   // The table slots in use, in the order of adding.
+        private int count_;
+
+        /*
+         ** Constructors.
+         */
+        private VisitedSet() {
+            table_ = new Object[INITIAL_CAPACITY];
+            used_ = new int[INITIAL_CAPACITY / 2];
+        }
+
+        /*
+         ** Public methods.
+         */
+        public int Count() {
+            return count_;
+        }
+
+        public boolean Add(Object value) {
+            assert(value != null);
+            // ------------------------------------------------
+            // Returns false if the object was already added.
+            int mask = table_.length - 1;
+            int slot = Slot(value, mask);
+
+            while(table_[slot] != null) {
+                if(table_[slot] == value) {
+                    return false;
+                }
+
+                slot = (slot + 1) & mask;
+            }
+
+            if(count_ == used_.length) {
+                // Keep the table at most half full.
+                Grow();
+                return Add(value);
+            }
+
+            table_[slot] = value;
+            used_[count_++] = slot;
+            return true;
+        }
+
+        public void Clear() {
+            // The references are cleared so that the set
+            // doesn't keep alive the objects of a cleared tree.
+            for(int i = 0; i < count_; i++) {
+                table_[used_[i]] = null;
+            }
+
+            count_ = 0;
+        }
+
+        /*
+         ** Private methods.
+         */
+        private static int Slot(Object value, int mask) {
+            int hash = System.identityHashCode(value);
+            return (hash ^ (hash >>> 16)) & mask;
+        }
+
+        private void Grow() {
+            Object[] table = new Object[table_.length * 2];
+            int mask = table.length - 1;
+
+            for(int i = 0; i < count_; i++) {
+                Object value = table_[used_[i]];
+                int slot = Slot(value, mask);
+
+                while(table[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+
+                table[slot] = value;
+                used_[i] = slot;
+            }
+
+            table_ = table;
+            used_ = Arrays.copyOf(used_, used_.length * 2);
+        }
+    }
+
+    private static final ThreadLocal<QueryStack> current_ =
+        new ThreadLocal<QueryStack>() {
+            @Override
+            protected QueryStack initialValue() {
+                return new QueryStack();
+            }
+        };
+
+    /*
+     ** Members.
+     */
+    private Object[] nodes_;
+    private double[] bounds_;   // (x, y, width, height) for each node.
+    private int count_;
+    private int[] indices_;
+    private int indexCount_;
+    private double x_;          // The bounds of the last removed node.
+    private double y_;
+    private double width_;
+    private double height_;
+    private VisitedSet[] visited_;
+    private int visitedCount_;
+
+    /*
+     ** Constructors.
+     */
+    private QueryStack() {
+        nodes_ = new Object[INITIAL_CAPACITY];
+        bounds_ = new double[INITIAL_CAPACITY * 4];
+        indices_ = new int[INITIAL_CAPACITY];
+        visited_ = new VisitedSet[4];
+    }
+
+    /*
+     ** Public methods.
+     */
+    public static QueryStack Current() {
+        return current_.get();
+    }
+
+    public int Count() {
+        return count_;
+    }
+
+    public void Push(Object node) {
+        if(count_ == nodes_.length) {
+            Grow();
+        }
+
+        nodes_[count_++] = node;
+    }
+
+    public void Push(Object node, double x, double y, double width, double height) {
+        if(count_ == nodes_.length) {
+            Grow();
+        }
+
+        int offset = count_ * 4;
+        bounds_[offset] = x;
+        bounds_[offset + 1] = y;
+        bounds_[offset + 2] = width;
+        bounds_[offset + 3] = height;
+        nodes_[count_++] = node;
+    }
+
+    public Object Pop() {
+        assert(count_ > 0);
+        // ------------------------------------------------
+        // The reference is cleared so that the stack
+        // doesn't keep alive the nodes of a cleared tree.
+        count_--;
+        Object node = nodes_[count_];
+        nodes_[count_] = null;
+
+        int offset = count_ * 4;
+        x_ = bounds_[offset];
+        y_ = bounds_[offset + 1];
+        width_ = bounds_[offset + 2];
+        height_ = bounds_[offset + 3];
+        return node;
+    }
+
+    public void PopAll(int count) {
+        // Removes the nodes above the specified count,
+        // used when a query stops before visiting all nodes.
+        while(count_ > count) {
+            nodes_[--count_] = null;
+        }
+    }
+
+    public double X() { return x_; }
+    public double Y() { return y_; }
+    public double Width() { return width_; }
+    public double Height() { return height_; }
+
+    public int IndexCount() {
+        return indexCount_;
+    }
+
+    public void PushIndex(int index) {
+        if(indexCount_ == indices_.length) {
+            indices_ = Arrays.copyOf(indices_, indices_.length * 2);
+        }
+
+        indices_[indexCount_++] = index;
+    }
+
+    public int PopIndex() {
+        assert(indexCount_ > 0);
+        // ------------------------------------------------
+        return indices_[--indexCount_];
+    }
+
+    public VisitedSet BeginVisited() {
+        // Returns an empty set for a query, a nested
+        // query gets another set. 'EndVisited' must be called
+        // when the query ends, even if it failed.
+        if(visitedCount_ == visited_.length) {
+            visited_ = Arrays.copyOf(visited_, visited_.length * 2);
+        }
+
+        if(visited_[visitedCount_] == null) {
+            visited_[visitedCount_] = new VisitedSet();
+        }
+
+        return visited_[visitedCount_++];
+    }
+
+    public void EndVisited() {
+        assert(visitedCount_ > 0);
+        // ------------------------------------------------
+        visited_[--visitedCount_].Clear();
+    }
+
+    /*
+     ** Private methods.
+     */
+    private void Grow() {
+        nodes_ = Arrays.copyOf(nodes_, nodes_.length * 2);
+        bounds_ = Arrays.copyOf(bounds_, bounds_.length * 2);
+    }
+}
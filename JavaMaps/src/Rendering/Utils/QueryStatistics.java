@@ -0,0 +1,85 @@
+// Copyright (c) 2010 Gratian Lup. All rights reserved.
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//
+// * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following
+// disclaimer in the documentation and/or other materials provided
+// with the distribution.
+//
+// * The name "JavaMaps" must not be used to endorse or promote
+// products derived from this software without prior written permission.
+//
+// * Products derived from this software may not be called "JavaMaps" nor
+// may "JavaMaps" appear in their names without prior written
+// permission of the author.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package Rendering.Utils;
+
+// Counters filled by the queries of a tree when passed to them,
+// used to check how much of the tree a query visits. The counters
+// are added over all queries that use the object until it's cleared.
+// Shouldn't be used by more than one thread at a time.
+public final class QueryStatistics {
+    /*
+     ** Members.
+     */
+    private long queries_;
+    private long nodesVisited_;   // Internal and leaf nodes.
+    private long leavesScanned_;
+    private long linesTested_;    // Lines tested against the region.
+    private long duplicateHits_;  // Lines skipped, already found in another leaf.
+    private long linesFound_;
+
+    /*
+     ** Public methods.
+     */
+    public long Queries() { return queries_; }
+    public long NodesVisited() { return nodesVisited_; }
+    public long LeavesScanned() { return leavesScanned_; }
+    public long LinesTested() { return linesTested_; }
+    public long DuplicateHits() { return duplicateHits_; }
+    public long LinesFound() { return linesFound_; }
+
+    public void Clear() {
+        queries_ = 0;
+        nodesVisited_ = 0;
+        leavesScanned_ = 0;
+        linesTested_ = 0;
+        duplicateHits_ = 0;
+        linesFound_ = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "queries: " + queries_ + ", nodes: " + nodesVisited_ + 
+               ", leafs: " + leavesScanned_ + ", tested: " + linesTested_ +
+               ", duplicates: " + duplicateHits_ + ", found: " + linesFound_;
+    }
+
+    /*
+     ** Used by the trees.
+     */
+    void AddQuery() { queries_++; }
+    void AddNode() { nodesVisited_++; }
+    void AddLeaf() { leavesScanned_++; }
+    void AddTested() { linesTested_++; }
+    void AddDuplicate() { duplicateHits_++; }
+    void AddFound() { linesFound_++; }
+}
@@ -0,0 +1,129 @@
+// Copyright (c) 2010 Gratian Lup. All rights reserved.
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//
+// * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following
+// disclaimer in the documentation and/or other materials provided
+// with the distribution.
+//
+// * The name "JavaMaps" must not be used to endorse or promote
+// products derived from this software without prior written permission.
+//
+// * Products derived from this software may not be called "JavaMaps" nor
+// may "JavaMaps" appear in their names without prior written
+// permission of the author.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package Rendering.Utils;
+import java.util.*;
+
+// Keeps the last samples of a measured time (in nanoseconds)
+// and computes percentiles over them. Old samples are overwritten
+// when the window is full, so the values follow the recent behavior.
+public final class TimeStatistics {
+    public static final int DEFAULT_WINDOW = 120;
+
+    /*
+     ** Members.
+     */
+    private long[] samples_;
+    private long[] sorted_;
+    private int position_;
+    private int count_;
+    private long total_;
+    private boolean sortedValid_;
+
+    /*
+     ** Constructors.
+     */
+    public TimeStatistics() {
+        this(DEFAULT_WINDOW);
+    }
+
+    public TimeStatistics(int window) {
+        assert(window > 0);
+        // ------------------------------------------------
+        samples_ = new long[window];
+        sorted_ = new long[window];
+    }
+
+    /*
+     ** Public methods.
+     */
+    public void Add(long time) {
+        samples_[position_] = time;
+        position_ = (position_ + 1) % samples_.length;
+        count_ = Math.min(count_ + 1, samples_.length);
+        total_++;
+        sortedValid_ = false;
+    }
+
+    public void Clear() {
+        position_ = 0;
+        count_ = 0;
+        total_ = 0;
+        sortedValid_ = false;
+    }
+
+    public long Percentile(double percent) {
+        assert(percent >= 0 && percent <= 100);
+        // ------------------------------------------------
+        if(count_ == 0) {
+            return 0;
+        }
+
+        // The samples are sorted only when they changed
+        // since the last time a percentile was requested.
+        if(!sortedValid_) {
+            System.arraycopy(samples_, 0, sorted_, 0, count_);
+            Arrays.sort(sorted_, 0, count_);
+            sortedValid_ = true;
+        }
+
+        // Nearest-rank method.
+        int rank = (int)Math.ceil((percent / 100.0) * count_);
+        return sorted_[Math.max(0, rank - 1)];
+    }
+
+    public long Average() {
+        if(count_ == 0) {
+            return 0;
+        }
+
+        long sum = 0;
+        for(int i = 0; i < count_; i++) {
+            sum += samples_[i];
+        }
+
+        return sum / count_;
+    }
+
+    public long Last() {
+        if(count_ == 0) {
+            return 0;
+        }
+
+        return samples_[(position_ + samples_.length - 1) % samples_.length];
+    }
+
+    public long Maximum() { return Percentile(100); }
+    public int Count() { return count_; }
+    public long TotalCount() { return total_; }
+    public int Window() { return samples_.length; }
+}
@@ -40,6 +40,7 @@ public final class View {
      ** Members.
      */
     private VolatileImage buffer_;
+    private BufferedImage offscreen_; // Used instead of the buffer when not displayed.
     private double leftMargin_;
     private double topMargin_;
     private Region2D bounds_;
@@ -49,6 +50,7 @@ public final class View {
     private Region2D previousBounds_; // Previous zoom level (1.4 -> 1; 1 -> 1).
     private Region2D nextBounds_;     // Next zoom level (1.4 -> 2; 2 -> 2).
     private Region2D lastBounds_;     // Last valid zoom level (1.4 -> N).
+    private RenderQuality quality_;
 
     public View() {
         bounds_ = new Region2D(0, 0, 0, 0);
@@ -56,13 +58,32 @@ public final class View {
         previousBounds_ = new Region2D(0, 0, 0, 0);
         nextBounds_ = new Region2D(0, 0, 0, 0);
         lastBounds_ = new Region2D(0, 0, 0, 0);
+        quality_ = RenderQuality.High;
     }
 
     /*
      ** Public methods.
      */
-    public VolatileImage GetBuffer(IRenderer renderer) {
-        return buffer_;
+    public Image Buffer() {
+        return offscreen_ != null ? offscreen_ : buffer_;
+    }
+
+    public Graphics2D CreateGraphics(IRenderer renderer) {
+        // The renderers draw either into the buffer that is copied
+        // to the screen or into the offscreen image, if one is set.
+        if(offscreen_ != null) {
+            return offscreen_.createGraphics();
+        }
+
+        return buffer_.createGraphics();
+    }
+
+    public BufferedImage OffscreenBuffer() {
+        return offscreen_;
+    }
+
+    public void SetOffscreenBuffer(BufferedImage value) {
+        offscreen_ = value;
     }
 
     public void CreateBuffers(GraphicsConfiguration config) {
@@ -98,6 +119,10 @@ public final class View {
     }
 
     public boolean DrawingFailed() {
+        if(offscreen_ != null) {
+            return false; // The contents of an image are never lost.
+        }
+
         return buffer_.contentsLost();
     }
 
@@ -137,8 +162,41 @@ public final class View {
         lastBounds_.SetHeight(bounds_.Height() * scaleYLast);
     }
 
+    public void LimitBounds() {
+        // Limit the view to a region valid for the current zoom level.
+        Region2D bounds = bounds_;
+        Region2D viewBounds = viewBounds_;
+
+        // Handle the case when the map is smaller than the control.
+        if(bounds.Width() < viewBounds.Width()) {
+            leftMargin_ = viewBounds.Width() / 2 - bounds.Width() / 2;
+        }
+        else {
+            leftMargin_ = 0;
+        }
+
+        if(bounds.Height() < viewBounds.Height()) {
+            topMargin_ = viewBounds.Height() / 2 - bounds.Height() / 2;
+        }
+        else {
+            topMargin_ = 0;
+        }
+
+        // Don't let the map to be moved above the bottop-right edge.
+        if(bounds.Right() > maxBounds_.Right()) {
+            bounds.SetLeft(maxBounds_.Right() - bounds.Width());
+        }
+
+        if(bounds.Bottom() > maxBounds_.Bottom()) {
+            bounds.SetTop(maxBounds_.Bottom() - bounds.Height());
+        }
+
+        bounds.SetLeft(Math.max(0, bounds.Left()));
+        bounds.SetTop(Math.max(0, bounds.Top()));
+    }
+
     public void Render(Graphics2D g, Component host) {
-        g.drawImage(buffer_,
+        g.drawImage(Buffer(),
                    (int)leftMargin_, (int)topMargin_, // destination
                    (int)(leftMargin_ + bounds_.Width()),
                    (int)(topMargin_ + bounds_.Height()),
@@ -216,4 +274,16 @@ public final class View {
     public void SetLastBounds(Region2D value) { 
         lastBounds_ = value; 
     }
+
+    public RenderQuality Quality() { 
+        return quality_; 
+    }
+    
+    public void SetQuality(RenderQuality value) { 
+        quality_ = value; 
+    }
+
+    public boolean HighQuality() {
+        return quality_ == RenderQuality.High;
+    }
 }
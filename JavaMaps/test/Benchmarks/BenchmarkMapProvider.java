@@ -0,0 +1,51 @@
+// javamaps
+// Copyright (c) 2010 Lup Gratian
+package Benchmarks;
+import Core.*;
+import Rendering.Utils.*;
+import java.util.*;
+
+// Map provider with a configurable number of random streets,
+// used to measure the performance of the street layer.
+public class BenchmarkMapProvider extends MockMapProvider {
+    private static final String[] NAMES = new String[] {
+        "Main Street", "Oak Avenue", "Pine Road", "Lake Boulevard"
+    };
+
+    private ArrayList<Street> streets_;
+
+    public BenchmarkMapProvider(int streetCount, int pointsPerStreet, long seed) {
+        // The streets are random walks over the whole map
+        // (8192x8192 pixels at the maximum zoom level).
+        Random random = new Random(seed);
+        streets_ = new ArrayList<Street>(streetCount);
+
+        for(int i = 0; i < streetCount; i++) {
+            StreetType type = StreetType.values()[random.nextInt(3)];
+            Street street = new Street(ObjectId.NewId(), type,
+                                       NAMES[random.nextInt(NAMES.length)], null, null);
+            double x = random.nextDouble() * 8000;
+            double y = random.nextDouble() * 8000;
+            double angle = random.nextDouble() * Math.PI * 2;
+
+            for(int j = 0; j < pointsPerStreet; j++) {
+                street.AddCoordinate(new Coordinates(y, x));
+                angle += (random.nextDouble() - 0.5) * 0.6;
+                x = Math.max(0, Math.min(8191, x + Math.cos(angle) * 12));
+                y = Math.max(0, Math.min(8191, y + Math.sin(angle) * 12));
+            }
+
+            streets_.add(street);
+        }
+    }
+
+    @Override
+    public int StreetCount() {
+        return streets_.size();
+    }
+
+    @Override
+    public Iterator<Street> GetStreetIterator() {
+        return streets_.iterator();
+    }
+}
@@ -0,0 +1,86 @@
+// javamaps
+// Copyright (c) 2010 Lup Gratian
+package Benchmarks;
+import Core.*;
+import Rendering.Utils.*;
+import java.util.*;
+
+// Reports how much of a LineTree is visited by region queries of
+// different sizes. Without pruning the children of a node against the
+// region all nodes are visited, like by the query of the whole map,
+// shown on the first line. A regression shows as more visited nodes.
+// Usage: LineQueryBenchmark [lines] [queries]
+public class LineQueryBenchmark {
+    private static final double MAP_SIZE = 8192;
+    private static final double[] REGION_SIZES = new double[] { 256, 1024, 4096 };
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        Random random = new Random(count);
+        ArrayList<Line> lines = new ArrayList<Line>(count);
+
+        for(int i = 0; i < count; i++) {
+            double x = random.nextDouble() * MAP_SIZE;
+            double y = random.nextDouble() * MAP_SIZE;
+            lines.add(new Line(x, y, Clamp(x + random.nextGaussian() * 20),
+                               Clamp(y + random.nextGaussian() * 20), i));
+        }
+
+        LineTree tree = new LineTree(MAP_SIZE, MAP_SIZE, 1);
+        tree.AddAll(lines, 0);
+        LineCollection list = new LineCollection();
+        QueryStatistics statistics = new QueryStatistics();
+        tree.Intersect(new Region2D(0, 0, MAP_SIZE, MAP_SIZE), 0, list, statistics);
+
+        System.out.println("region\tnodes\tleafs\ttested\tduplicates\tfound\ttime (us)");
+        Print("all", statistics, -1); // Not timed.
+
+        for(double size : REGION_SIZES) {
+            Region2D[] regions = new Region2D[queries];
+
+            for(int i = 0; i < queries; i++) {
+                regions[i] = new Region2D(random.nextDouble() * (MAP_SIZE - size),
+                                          random.nextDouble() * (MAP_SIZE - size), size, size);
+            }
+
+            // The statistics are collected by a separate run,
+            // so they don't influence the measured time.
+            statistics.Clear();
+
+            for(int i = 0; i < queries; i++) {
+                list.Clear();
+                tree.Intersect(regions[i], 0, list, statistics);
+            }
+
+            long start = System.nanoTime();
+
+            for(int round = 0; round < 2; round++) {
+                start = System.nanoTime(); // The first round warms up the JIT.
+
+                for(int i = 0; i < queries; i++) {
+                    list.Clear();
+                    tree.Intersect(regions[i], 0, list);
+                }
+            }
+
+            double time = (System.nanoTime() - start) / 1000.0 / queries;
+            Print(String.valueOf((int)size), statistics, time);
+        }
+    }
+
+    private static void Print(String name, QueryStatistics statistics, double time) {
+        long queries = Math.max(1, statistics.Queries());
+        System.out.println(String.format("%s\t%d\t%d\t%d\t%d\t%d\t%s", name,
+                           statistics.NodesVisited() / queries,
+                           statistics.LeavesScanned() / queries,
+                           statistics.LinesTested() / queries,
+                           statistics.DuplicateHits() / queries,
+                           statistics.LinesFound() / queries,
+                           time < 0 ? "-" : String.format("%.1f", time)));
+    }
+
+    private static double Clamp(double value) {
+        return Math.max(0, Math.min(MAP_SIZE - 1, value));
+    }
+}
@@ -0,0 +1,142 @@
+// javamaps
+// Copyright (c) 2010 Lup Gratian
+package Benchmarks;
+import Core.*;
+import Rendering.*;
+import Rendering.Utils.*;
+import java.awt.Graphics2D;
+import java.util.*;
+
+// Compares the k-nearest queries of the trees with a brute force
+// search that computes the distance to all objects and sorts them.
+// Usage: NearestBenchmark [points/lines] [queries]
+public class NearestBenchmark {
+    private static final double MAP_SIZE = 8192;
+    private static final int[] COUNTS = new int[] { 1, 10, 100 };
+
+    static class BenchmarkPoint implements IVisual {
+        private Point position_;
+
+        public BenchmarkPoint(double x, double y) {
+            position_ = new Point(x, y);
+        }
+
+        public Point Position() { return position_; }
+        public void Draw(Graphics2D g, View view) {}
+    }
+
+    public static void main(String[] args) {
+        int objects = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        Random random = new Random(objects);
+        ArrayList<BenchmarkPoint> points = new ArrayList<BenchmarkPoint>(objects);
+        ArrayList<Line> lines = new ArrayList<Line>(objects);
+
+        for(int i = 0; i < objects; i++) {
+            double x = random.nextDouble() * MAP_SIZE;
+            double y = random.nextDouble() * MAP_SIZE;
+            points.add(new BenchmarkPoint(x, y));
+            lines.add(new Line(x, y, Clamp(x + random.nextGaussian() * 20),
+                               Clamp(y + random.nextGaussian() * 20), i));
+        }
+
+        PointTree<BenchmarkPoint> pointTree = new PointTree<BenchmarkPoint>(MAP_SIZE, MAP_SIZE, points);
+        LineTree lineTree = new LineTree(MAP_SIZE, MAP_SIZE, 1);
+        lineTree.AddAll(lines, 0);
+        PackedLineTree packedTree = new PackedLineTree(MAP_SIZE, MAP_SIZE, 1);
+        packedTree.Build(lines, 0);
+        Point[] targets = new Point[queries];
+
+        for(int i = 0; i < queries; i++) {
+            targets[i] = new Point(random.nextDouble() * MAP_SIZE,
+                                   random.nextDouble() * MAP_SIZE);
+        }
+
+        System.out.println("k\tpoints (us)\tbrute (us)\tlines (us)\tpacked (us)\tbrute (us)");
+
+        // The first round only warms up the JIT.
+        for(int round = 0; round < 2; round++) {
+            for(int k : COUNTS) {
+                double pointTime = TimePoints(pointTree, targets, k);
+                double brutePointTime = TimeBrutePoints(points, targets, k);
+                double lineTime = TimeLines(lineTree, targets, k);
+                double packedTime = TimeLines(packedTree, targets, k);
+                double bruteLineTime = TimeBruteLines(lines, targets, k);
+
+                if(round > 0) {
+                    System.out.println(k + "\t" + pointTime + "\t" + brutePointTime + "\t" +
+                                       lineTime + "\t" + packedTime + "\t" + bruteLineTime);
+                }
+            }
+        }
+    }
+
+    private static double Clamp(double value) {
+        return Math.max(0, Math.min(MAP_SIZE, value));
+    }
+
+    private static double TimePoints(PointTree<BenchmarkPoint> tree, Point[] targets, int k) {
+        ArrayList<PointTree<BenchmarkPoint>.NearestInfo> list =
+            new ArrayList<PointTree<BenchmarkPoint>.NearestInfo>(k);
+        long start = System.nanoTime();
+
+        for(int i = 0; i < targets.length; i++) {
+            list.clear();
+            tree.Nearest(targets[i], k, list);
+        }
+
+        return (System.nanoTime() - start) / 1000.0 / targets.length;
+    }
+
+    private static double TimeLines(ILineIndex tree, Point[] targets, int k) {
+        ArrayList<LineTree.NearestInfo> list = new ArrayList<LineTree.NearestInfo>(k);
+        long start = System.nanoTime();
+
+        for(int i = 0; i < targets.length; i++) {
+            list.clear();
+            tree.Nearest(targets[i], 0, k, Double.MAX_VALUE, null, list);
+        }
+
+        return (System.nanoTime() - start) / 1000.0 / targets.length;
+    }
+
+    private static double TimeBrutePoints(ArrayList<BenchmarkPoint> points, Point[] targets, int k) {
+        double[] distances = new double[points.size()];
+        double checksum = 0;
+        long start = System.nanoTime();
+
+        for(int i = 0; i < targets.length; i++) {
+            for(int j = 0; j < distances.length; j++) {
+                distances[j] = targets[i].Distance(points.get(j).Position());
+            }
+
+            Arrays.sort(distances);
+            checksum += distances[k - 1];
+        }
+
+        return Report(start, targets.length, checksum);
+    }
+
+    private static double TimeBruteLines(ArrayList<Line> lines, Point[] targets, int k) {
+        double[] distances = new double[lines.size()];
+        double checksum = 0;
+        long start = System.nanoTime();
+
+        for(int i = 0; i < targets.length; i++) {
+            for(int j = 0; j < distances.length; j++) {
+                distances[j] = lines.get(j).DistanceSq(targets[i].X(), targets[i].Y());
+            }
+
+            Arrays.sort(distances);
+            checksum += distances[k - 1];
+        }
+
+        return Report(start, targets.length, checksum);
+    }
+
+    private static double Report(long start, int queries, double checksum) {
+        // The checksum is used so the loops are not removed.
+        double time = (System.nanoTime() - start) / 1000.0 / queries;
+        return checksum >= 0 ? time : -time;
+    }
+}
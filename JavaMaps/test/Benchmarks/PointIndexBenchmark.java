@@ -0,0 +1,144 @@
+// javamaps
+// Copyright (c) 2010 Lup Gratian
+package Benchmarks;
+import Core.*;
+import Rendering.*;
+import Rendering.Utils.*;
+import java.awt.Graphics2D;
+import java.util.*;
+
+// Compares GridIndex and PointTree on evenly spread points (like street
+// lamps or bus stops) and on points gathered in a few clusters (like
+// the shops of a city), and shows which index 'GridIndex.Suitable' selects.
+// Usage: PointIndexBenchmark [points] [queries]
+public class PointIndexBenchmark {
+    private static final double MAP_SIZE = 8192;
+    private static final double VIEW_WIDTH = 800;
+    private static final double VIEW_HEIGHT = 600;
+
+    static class BenchmarkPoint implements IVisual {
+        private Point position_;
+
+        public BenchmarkPoint(double x, double y) {
+            position_ = new Point(x, y);
+        }
+
+        public Point Position() { return position_; }
+        public void Draw(Graphics2D g, View view) {}
+    }
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        Random random = new Random(count);
+        ArrayList<BenchmarkPoint> uniform = new ArrayList<BenchmarkPoint>(count);
+        ArrayList<BenchmarkPoint> clustered = new ArrayList<BenchmarkPoint>(count);
+        double[] clusterX = new double[8];
+        double[] clusterY = new double[8];
+
+        for(int i = 0; i < clusterX.length; i++) {
+            clusterX[i] = random.nextDouble() * MAP_SIZE;
+            clusterY[i] = random.nextDouble() * MAP_SIZE;
+        }
+
+        for(int i = 0; i < count; i++) {
+            uniform.add(new BenchmarkPoint(random.nextDouble() * MAP_SIZE,
+                                           random.nextDouble() * MAP_SIZE));
+            int cluster = random.nextInt(clusterX.length);
+            clustered.add(new BenchmarkPoint(Clamp(clusterX[cluster] + random.nextGaussian() * 200),
+                                             Clamp(clusterY[cluster] + random.nextGaussian() * 200)));
+        }
+
+        System.out.println("points\tindex\tbuild (ms)\tview (us)\tnearest (us)\tnear (us)");
+
+        // The first round only warms up the JIT.
+        for(int round = 0; round < 2; round++) {
+            Run("uniform", uniform, queries, round == 1);
+            Run("clustered", clustered, queries, round == 1);
+        }
+
+        System.out.println("selected: uniform - " + Selected(uniform) + 
+                           ", clustered - " + Selected(clustered));
+    }
+
+    private static String Selected(List<BenchmarkPoint> points) {
+        return GridIndex.Suitable(points, MAP_SIZE, MAP_SIZE) ? "grid" : "tree";
+    }
+
+    private static void Run(String name, List<BenchmarkPoint> points, int queries,
+                            boolean print) {
+        // The queries are around the points, the view of a user
+        // is usually where there is something to see.
+        Random random = new Random(queries);
+        Point[] targets = new Point[queries];
+
+        for(int i = 0; i < queries; i++) {
+            Point position = points.get(random.nextInt(points.size())).Position();
+            targets[i] = new Point(position.X() + random.nextGaussian() * 50,
+                                   position.Y() + random.nextGaussian() * 50);
+        }
+
+        long start = System.nanoTime();
+        GridIndex<BenchmarkPoint> grid = new GridIndex<BenchmarkPoint>(MAP_SIZE, MAP_SIZE, points);
+        double gridBuild = (System.nanoTime() - start) / 1e6;
+
+        start = System.nanoTime();
+        PointTree<BenchmarkPoint> tree = new PointTree<BenchmarkPoint>(MAP_SIZE, MAP_SIZE, points);
+        double treeBuild = (System.nanoTime() - start) / 1e6;
+
+        Print(print, name, "grid", gridBuild, grid, targets);
+        Print(print, name, "tree", treeBuild, tree, targets);
+    }
+
+    private static void Print(boolean print, String name, String index, double build,
+                              IPointIndex<BenchmarkPoint> points, Point[] targets) {
+        double view = TimeViews(points, targets);
+        double nearest = TimeNearest(points, targets);
+        double near = TimeNear(points, targets);
+
+        if(print) {
+            System.out.println(String.format("%s\t%s\t%.1f\t%.2f\t%.2f\t%.2f", name, index,
+                                             build, view, nearest, near));
+        }
+    }
+
+    private static double TimeViews(IPointIndex<BenchmarkPoint> points, Point[] targets) {
+        BasicCollection<BenchmarkPoint> list = new BasicCollection<BenchmarkPoint>();
+        long start = System.nanoTime();
+
+        for(int i = 0; i < targets.length; i++) {
+            list.Clear();
+            points.Intersect(new Region2D(targets[i].X() - VIEW_WIDTH / 2,
+                                          targets[i].Y() - VIEW_HEIGHT / 2,
+                                          VIEW_WIDTH, VIEW_HEIGHT), list);
+        }
+
+        return (System.nanoTime() - start) / 1000.0 / targets.length;
+    }
+
+    private static double TimeNearest(IPointIndex<BenchmarkPoint> points, Point[] targets) {
+        long start = System.nanoTime();
+
+        for(int i = 0; i < targets.length; i++) {
+            points.NearestPoint(targets[i].X(), targets[i].Y(), Double.MAX_VALUE);
+        }
+
+        return (System.nanoTime() - start) / 1000.0 / targets.length;
+    }
+
+    private static double TimeNear(IPointIndex<BenchmarkPoint> points, Point[] targets) {
+        BasicCollection<BenchmarkPoint> list = new BasicCollection<BenchmarkPoint>();
+        long start = System.nanoTime();
+
+        for(int i = 0; i < targets.length; i++) {
+            list.Clear();
+            points.Near(targets[i], 32, list);
+        }
+
+        return (System.nanoTime() - start) / 1000.0 / targets.length;
+    }
+
+    private static double Clamp(double value) {
+        return Math.max(0, Math.min(MAP_SIZE - 1, value));
+    }
+}
@@ -0,0 +1,104 @@
+// javamaps
+// Copyright (c) 2010 Lup Gratian
+package Benchmarks;
+import Core.*;
+import Rendering.*;
+import Rendering.Utils.*;
+import java.awt.Graphics2D;
+import java.util.*;
+
+// Compares the time needed to build a PointTree by inserting
+// the points one by one and by bulk loading them. The results
+// of random queries are compared to verify the bulk loaded tree.
+// Usage: PointTreeLoadBenchmark [max. points]
+public class PointTreeLoadBenchmark {
+    private static final double MAP_SIZE = 8192;
+    private static final int QUERIES = 1000;
+
+    static class BenchmarkPoint implements IVisual {
+        private Point position_;
+
+        public BenchmarkPoint(double x, double y) {
+            position_ = new Point(x, y);
+        }
+
+        public Point Position() { return position_; }
+        public void Draw(Graphics2D g, View view) {}
+    }
+
+    public static void main(String[] args) {
+        int maxPoints = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println("points\tadd (ms)\tbulk 1 (ms)\tbulk " + cores + " (ms)");
+
+        for(int count = maxPoints >> 8; count <= maxPoints; count *= 4) {
+            ArrayList<BenchmarkPoint> points = RandomPoints(count, count);
+
+            long start = System.nanoTime();
+            PointTree<BenchmarkPoint> incremental = new PointTree<BenchmarkPoint>(MAP_SIZE, MAP_SIZE);
+
+            for(int i = 0; i < points.size(); i++) {
+                incremental.Add(points.get(i));
+            }
+
+            long addTime = System.nanoTime() - start;
+            ParallelTasks.SetParallelism(1);
+            start = System.nanoTime();
+            new PointTree<BenchmarkPoint>(MAP_SIZE, MAP_SIZE, points);
+            long bulkTime = System.nanoTime() - start;
+
+            ParallelTasks.SetParallelism(cores);
+            start = System.nanoTime();
+            PointTree<BenchmarkPoint> bulk = new PointTree<BenchmarkPoint>(MAP_SIZE, MAP_SIZE, points);
+            long parallelTime = System.nanoTime() - start;
+
+            System.out.println(count + "\t" + (addTime / 1000000.0) + "\t" + 
+                               (bulkTime / 1000000.0) + "\t" + (parallelTime / 1000000.0));
+
+            // Verify with multiple threads even on a single core.
+            ParallelTasks.SetParallelism(Math.max(cores, 4));
+            Verify(incremental, new PointTree<BenchmarkPoint>(MAP_SIZE, MAP_SIZE, points));
+        }
+    }
+
+    private static ArrayList<BenchmarkPoint> RandomPoints(int count, long seed) {
+        // Most points are grouped in a few "cities".
+        Random random = new Random(seed);
+        ArrayList<BenchmarkPoint> points = new ArrayList<BenchmarkPoint>(count);
+
+        for(int i = 0; i < count; i++) {
+            if(i % 4 == 0) {
+                points.add(new BenchmarkPoint(random.nextDouble() * MAP_SIZE,
+                                              random.nextDouble() * MAP_SIZE));
+            }
+            else {
+                double city = (i % 16) * (MAP_SIZE / 16);
+                points.add(new BenchmarkPoint(city + random.nextGaussian() * 100,
+                                              city + random.nextGaussian() * 100));
+            }
+        }
+
+        return points;
+    }
+
+    private static void Verify(PointTree<BenchmarkPoint> expected,
+                               PointTree<BenchmarkPoint> actual) {
+        Random random = new Random(1);
+
+        for(int i = 0; i < QUERIES; i++) {
+            Region2D region = new Region2D(random.nextDouble() * MAP_SIZE, 
+                                           random.nextDouble() * MAP_SIZE, 
+                                           random.nextDouble() * 512, 
+                                           random.nextDouble() * 512);
+            BasicCollection<BenchmarkPoint> a = new BasicCollection<BenchmarkPoint>();
+            BasicCollection<BenchmarkPoint> b = new BasicCollection<BenchmarkPoint>();
+            expected.Intersect(region, a);
+            actual.Intersect(region, b);
+
+            if(!new HashSet<BenchmarkPoint>(a.Objects()).equals(
+                new HashSet<BenchmarkPoint>(b.Objects()))) {
+                throw new RuntimeException("Different results for " + region);
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+// javamaps
+// Copyright (c) 2010 Lup Gratian
+package Benchmarks;
+import Core.*;
+import Rendering.*;
+import Rendering.Renderers.*;
+import Rendering.Utils.*;
+import java.awt.image.BufferedImage;
+
+// Measures the time needed to load the street layer (all zoom levels)
+// for various numbers of streets and threads. The images rendered
+// with one thread and with all threads are compared to verify
+// that the parallel loading produces the same result.
+// Usage: StreetLoadBenchmark [max. streets]
+public class StreetLoadBenchmark {
+    private static final int POINTS_PER_STREET = 64;
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) {
+        int maxStreets = args.length > 0 ? Integer.parseInt(args[0]) : 16000;
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println("streets\tthreads\tload (ms)");
+
+        for(int streets = 1000; streets <= maxStreets; streets *= 4) {
+            BenchmarkMapProvider provider =
+                new BenchmarkMapProvider(streets, POINTS_PER_STREET, streets);
+
+            for(int threads = 1; threads <= cores; threads *= 2) {
+                ParallelTasks.SetParallelism(threads);
+                long best = Long.MAX_VALUE;
+
+                for(int run = 0; run < RUNS; run++) {
+                    best = Math.min(best, LoadTime(provider));
+                }
+
+                System.out.println(streets + "\t" + threads + "\t" + (best / 1000000.0));
+            }
+
+            // Verify with multiple threads even on a single core.
+            Verify(provider, Math.max(cores, 4));
+        }
+    }
+
+    private static long LoadTime(IMapProvider provider) {
+        // The renderer is created and all zoom levels are loaded
+        // (a hit test loads the level on which it's done).
+        long start = System.nanoTime();
+        OffscreenMapRenderer host = new OffscreenMapRenderer(provider);
+        StreetRenderer renderer = FindStreetRenderer(host);
+        renderer.SetMaxLoadedLevels(provider.ZoomLevels());
+        View view = new View();
+
+        for(int zoom = 0; zoom < provider.ZoomLevels(); zoom++) {
+            view.SetZoom(zoom);
+            view.SetBounds(new Region2D(0, 0, 256, 256));
+            renderer.HitTest(new Point(10, 10), view);
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    private static void Verify(IMapProvider provider, int threads) {
+        for(int zoom = 0; zoom < provider.ZoomLevels(); zoom++) {
+            ParallelTasks.SetParallelism(1);
+            BufferedImage expected = Render(provider, zoom);
+            ParallelTasks.SetParallelism(threads);
+            BufferedImage actual = Render(provider, zoom);
+
+            for(int y = 0; y < expected.getHeight(); y++) {
+                for(int x = 0; x < expected.getWidth(); x++) {
+                    if(expected.getRGB(x, y) != actual.getRGB(x, y)) {
+                        throw new RuntimeException("Different output at zoom " + zoom);
+                    }
+                }
+            }
+        }
+    }
+
+    private static BufferedImage Render(IMapProvider provider, int zoom) {
+        OffscreenMapRenderer host = new OffscreenMapRenderer(provider);
+        Region2D bounds = provider.MapBounds(zoom);
+        return host.Render(new Point(bounds.Width() / 2, bounds.Height() / 2),
+                           zoom, 512, 512);
+    }
+
+    private static StreetRenderer FindStreetRenderer(OffscreenMapRenderer host) {
+        java.util.Iterator<IRenderer> rendererIt = host.Renderers();
+
+        while(rendererIt.hasNext()) {
+            IRenderer renderer = rendererIt.next();
+
+            if(renderer instanceof StreetRenderer) {
+                return (StreetRenderer)renderer;
+            }
+        }
+
+        return null;
+    }
+}
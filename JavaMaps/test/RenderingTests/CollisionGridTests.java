@@ -0,0 +1,45 @@
+package RenderingTests;
+import Rendering.Utils.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CollisionGridTests {
+    private double[] Box(double left, double top, double right, double bottom) {
+        return new double[] { left, top, right, top, right, bottom, left, bottom };
+    }
+
+    @Test
+    public void TryAdd() {
+        CollisionGrid grid = new CollisionGrid(0, 0, 512, 512, 64);
+        assertTrue(grid.TryAdd(Box(10, 10, 100, 30)));
+        assertTrue(grid.TryAdd(Box(10, 40, 100, 60)));
+        assertFalse(grid.TryAdd(Box(50, 20, 150, 50)));
+        assertTrue(grid.TryAdd(Box(200, 200, 300, 220)));
+        assertEquals(3, grid.Count());
+
+        // Boxes outside the grid are kept in the border cells.
+        assertTrue(grid.TryAdd(Box(-100, -100, -50, -80)));
+        assertFalse(grid.TryAdd(Box(-60, -90, -40, -70)));
+
+        grid.Clear();
+        assertEquals(0, grid.Count());
+        assertTrue(grid.TryAdd(Box(50, 20, 150, 50)));
+    }
+
+    @Test
+    public void Rotated() {
+        // The bounding box of the diamond overlaps the box,
+        // but the diamond itself doesn't.
+        double[] box = Box(0, 0, 10, 10);
+        double[] diamond = new double[] { 17, 5, 22, 10, 17, 15, 12, 10 };
+        assertFalse(CollisionGrid.Overlap(box, diamond));
+        assertTrue(CollisionGrid.Overlap(box, Box(5, 5, 20, 20)));
+
+        // Touching the corner counts as an overlap.
+        double[] touching = new double[] { 15, 5, 20, 10, 15, 15, 10, 10 };
+        CollisionGrid grid = new CollisionGrid(0, 0, 100, 100, 8);
+        assertTrue(grid.TryAdd(box));
+        assertTrue(grid.TryAdd(diamond));
+        assertFalse(grid.TryAdd(touching));
+    }
+}
@@ -0,0 +1,208 @@
+package RenderingTests;
+import Core.*;
+import Rendering.*;
+import Rendering.Utils.*;
+import java.awt.Graphics2D;
+import java.util.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class GridIndexTests {
+    static class TestObject implements IVisual {
+        private Point position_;
+
+        public TestObject(double x, double y) {
+            position_ = new Point(x, y);
+        }
+
+        public Point Position() { return position_; }
+        public void Draw(Graphics2D g, View view) {}
+    }
+
+    private static ArrayList<TestObject> RandomObjects(int count, long seed) {
+        // Some of the points are on the borders of the cells,
+        // some outside the map and some are found in the same place.
+        Random random = new Random(seed);
+        ArrayList<TestObject> list = new ArrayList<TestObject>(count);
+
+        for(int i = 0; i < count; i++) {
+            if(i % 10 == 0) {
+                list.add(new TestObject(random.nextInt(9) * 12.5, random.nextInt(9) * 12.5));
+            }
+            else if(i % 50 == 1) {
+                list.add(new TestObject(random.nextDouble() * 140 - 20, random.nextDouble() * 140 - 20));
+            }
+            else list.add(new TestObject(random.nextDouble() * 100, random.nextDouble() * 100));
+        }
+
+        return list;
+    }
+
+    private static <T extends IVisual> HashSet<T> IntersectSet(IPointIndex<T> index, Region2D region) {
+        BasicCollection<T> list = new BasicCollection<T>();
+        index.Intersect(region, list);
+        HashSet<T> set = new HashSet<T>(list.Objects());
+        assertEquals(set.size(), list.Count()); // Reported once.
+        return set;
+    }
+
+    private static Region2D RandomRegion(Random random) {
+        return new Region2D(random.nextDouble() * 120 - 10, random.nextDouble() * 120 - 10,
+                            random.nextDouble() * 40, random.nextDouble() * 40);
+    }
+
+    @Test
+    public void SameAsFullSearch() {
+        // The points outside the map are also found by the grid,
+        // so it's compared with a search of all points.
+        ArrayList<TestObject> objects = RandomObjects(3000, 3);
+        GridIndex<TestObject> grid = new GridIndex<TestObject>(100, 100, objects);
+        assertEquals(objects.size(), grid.Count());
+        Random random = new Random(7);
+
+        for(int i = 0; i < 300; i++) {
+            Region2D region = RandomRegion(random);
+            HashSet<TestObject> inRegion = new HashSet<TestObject>();
+
+            for(TestObject value : objects) {
+                if(region.Contains(value.Position())) {
+                    inRegion.add(value);
+                }
+            }
+
+            assertEquals(inRegion, IntersectSet(grid, region));
+
+            Point point = new Point(random.nextDouble() * 120 - 10, random.nextDouble() * 120 - 10);
+            double maxDistance = random.nextDouble() * 10;
+            HashSet<TestObject> expected = new HashSet<TestObject>();
+            double nearestDist = Double.MAX_VALUE;
+
+            for(TestObject value : objects) {
+                double distance = value.Position().Distance(point);
+                nearestDist = Math.min(nearestDist, distance);
+
+                if(distance < maxDistance) {
+                    expected.add(value);
+                }
+            }
+
+            BasicCollection<TestObject> actual = new BasicCollection<TestObject>();
+            grid.Near(point, maxDistance, actual);
+            assertEquals(expected, new HashSet<TestObject>(actual.Objects()));
+
+            TestObject nearest = grid.NearestPoint(point.X(), point.Y(), Double.MAX_VALUE);
+            assertEquals(nearestDist, nearest.Position().Distance(point), 1e-9);
+            TestObject limited = grid.NearestPoint(point.X(), point.Y(), maxDistance);
+            assertEquals(nearestDist < maxDistance, limited != null);
+        }
+    }
+
+    @Test
+    public void SameAsPointTree() {
+        ArrayList<TestObject> objects = new ArrayList<TestObject>();
+
+        for(TestObject value : RandomObjects(3000, 9)) {
+            if(new Region2D(0, 0, 100, 100).Contains(value.Position())) {
+                objects.add(value);
+            }
+        }
+
+        GridIndex<TestObject> grid = new GridIndex<TestObject>(100, 100, objects);
+        PointTree<TestObject> tree = new PointTree<TestObject>(100, 100, objects);
+        Random random = new Random(21);
+
+        for(int i = 0; i < 300; i++) {
+            Region2D region = RandomRegion(random);
+            assertEquals(IntersectSet(tree, region), IntersectSet(grid, region));
+
+            Point point = new Point(random.nextDouble() * 100, random.nextDouble() * 100);
+            TestObject nearest = grid.NearestPoint(point.X(), point.Y(), Double.MAX_VALUE);
+            assertEquals(tree.NearestPoint(point).Distance(),
+                         nearest.Position().Distance(point), 1e-9);
+        }
+    }
+
+    @Test
+    public void IntersectDelta() {
+        GridIndex<TestObject> grid = new GridIndex<TestObject>(100, 100, RandomObjects(3000, 13));
+        Random random = new Random(5);
+        Region2D previous = new Region2D(20, 20, 30, 25);
+        BasicCollection<TestObject> entered = new BasicCollection<TestObject>();
+        BasicCollection<TestObject> exited = new BasicCollection<TestObject>();
+
+        for(int i = 0; i < 200; i++) {
+            Region2D current = new Region2D(previous);
+
+            if(i % 20 == 0) {
+                current = RandomRegion(random);
+            }
+            else current.Offset((random.nextDouble() - 0.5) * 8, (random.nextDouble() - 0.5) * 8);
+
+            HashSet<TestObject> before = IntersectSet(grid, previous);
+            HashSet<TestObject> after = IntersectSet(grid, current);
+            HashSet<TestObject> expectedEntered = new HashSet<TestObject>(after);
+            HashSet<TestObject> expectedExited = new HashSet<TestObject>(before);
+            expectedEntered.removeAll(before);
+            expectedExited.removeAll(after);
+
+            entered.Clear();
+            exited.Clear();
+            grid.IntersectDelta(previous, current, entered, exited);
+            assertEquals(expectedEntered, new HashSet<TestObject>(entered.Objects()));
+            assertEquals(expectedExited, new HashSet<TestObject>(exited.Objects()));
+            assertEquals(expectedEntered.size(), entered.Count());
+            assertEquals(expectedExited.size(), exited.Count());
+            previous = current;
+        }
+    }
+
+    @Test
+    public void AddRemove() {
+        GridIndex<TestObject> grid = new GridIndex<TestObject>(100, 100);
+        assertEquals(0, grid.Count());
+        assertNull(grid.NearestPoint(50, 50, Double.MAX_VALUE));
+        IntersectSet(grid, new Region2D(0, 0, 100, 100));
+
+        TestObject a = new TestObject(10, 10);
+        TestObject b = new TestObject(60, 70);
+        grid.Add(a);
+        grid.Add(b);
+        assertEquals(2, grid.Count());
+        assertSame(b, grid.NearestPoint(55, 65, Double.MAX_VALUE));
+        assertNull(grid.NearestPoint(55, 65, 5));
+
+        grid.Remove(b);
+        assertEquals(1, grid.Count());
+        assertSame(a, grid.NearestPoint(55, 65, Double.MAX_VALUE));
+        assertTrue(IntersectSet(grid, new Region2D(50, 50, 50, 50)).isEmpty());
+
+        // A point outside the map is kept too.
+        TestObject c = new TestObject(150, -20);
+        grid.Add(c);
+        ArrayList<TestObject> points = new ArrayList<TestObject>();
+        grid.GetPoints(points);
+        assertEquals(2, points.size());
+        assertTrue(points.contains(a) && points.contains(c));
+
+        grid.Clear();
+        assertEquals(0, grid.Count());
+    }
+
+    @Test
+    public void Suitable() {
+        // Many points spread evenly use the grid.
+        Random random = new Random(11);
+        ArrayList<TestObject> uniform = new ArrayList<TestObject>();
+        ArrayList<TestObject> clustered = new ArrayList<TestObject>();
+
+        for(int i = 0; i < 10000; i++) {
+            uniform.add(new TestObject(random.nextDouble() * 100, random.nextDouble() * 100));
+            clustered.add(new TestObject(50 + random.nextGaussian() * 5,
+                                         50 + random.nextGaussian() * 5));
+        }
+
+        assertTrue(GridIndex.Suitable(uniform, 100, 100));
+        assertFalse(GridIndex.Suitable(clustered, 100, 100));
+        assertFalse(GridIndex.Suitable(uniform.subList(0, 100), 100, 100));
+    }
+}
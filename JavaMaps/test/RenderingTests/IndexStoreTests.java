@@ -0,0 +1,115 @@
+package RenderingTests;
+import Rendering.Utils.*;
+import java.io.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class IndexStoreTests {
+    private File directory_;
+
+    @Before
+    public void CreateDirectory() throws IOException {
+        directory_ = File.createTempFile("indexes", "");
+        directory_.delete();
+    }
+
+    @After
+    public void DeleteDirectory() {
+        File[] files = directory_.listFiles();
+
+        if(files != null) {
+            for(File file : files) {
+                file.delete();
+            }
+        }
+
+        directory_.delete();
+    }
+
+    private IndexStore.Data SampleData() {
+        IndexStore.Data data = new IndexStore.Data();
+        data.Add(new int[] { 1, -2, 3, Integer.MAX_VALUE });
+        data.Add(new double[] { 0.5, -1e300, Double.NaN });
+        data.Add(new int[0]);
+        return data;
+    }
+
+    @Test
+    public void ReadWrite() {
+        IndexStore store = new IndexStore(directory_);
+        assertFalse(store.Contains("hash", "streets"));
+        assertNull(store.Read("hash", "streets"));
+        assertTrue(store.Write("hash", "streets", SampleData()));
+        assertTrue(store.Contains("hash", "streets"));
+
+        IndexStore.Data data = store.Read("hash", "streets");
+        assertNotNull(data);
+        assertEquals(3, data.Count());
+        assertArrayEquals(new int[] { 1, -2, 3, Integer.MAX_VALUE }, data.Ints(0));
+        assertArrayEquals(new double[] { 0.5, -1e300, Double.NaN }, data.Doubles(1), 0);
+        assertEquals(0, data.Ints(2).length);
+
+        // Wrong types and indices are reported as missing.
+        assertNull(data.Doubles(0));
+        assertNull(data.Ints(1));
+        assertNull(data.Ints(3));
+
+        // The files are separated by hash and name.
+        assertNull(store.Read("other", "streets"));
+        assertNull(store.Read("hash", "markers"));
+    }
+
+    @Test
+    public void Overwrite() {
+        IndexStore store = new IndexStore(directory_);
+        assertTrue(store.Write("hash", "streets", SampleData()));
+        IndexStore.Data data = new IndexStore.Data();
+        data.Add(new int[] { 7 });
+        assertTrue(store.Write("hash", "streets", data));
+        assertEquals(1, store.Read("hash", "streets").Count());
+        assertEquals(1, directory_.listFiles().length); // No temporary files.
+    }
+
+    @Test
+    public void DamagedFile() throws IOException {
+        IndexStore store = new IndexStore(directory_);
+        assertTrue(store.Write("hash", "streets", SampleData()));
+        File file = store.IndexFile("hash", "streets");
+
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        output.setLength(file.length() - 4);
+        output.close();
+        assertNull(store.Read("hash", "streets"));
+
+        output = new RandomAccessFile(file, "rw");
+        output.setLength(0);
+        output.writeInt(0x12345678);
+        output.close();
+        assertNull(store.Read("hash", "streets"));
+    }
+
+    @Test
+    public void ContentHash() {
+        ContentHash a = new ContentHash();
+        ContentHash b = new ContentHash();
+        a.Add(1);
+        a.Add(2.5);
+        a.Add("name");
+        b.Add(1);
+        b.Add(2.5);
+        b.Add("name");
+        assertEquals(a.Value(), b.Value());
+        assertEquals(32, a.Value().length());
+
+        b.Add(0);
+        assertFalse(a.Value().equals(b.Value()));
+
+        ContentHash c = new ContentHash();
+        c.Add(2.5);
+        c.Add(1);
+        c.Add("name");
+        assertFalse(a.Value().equals(c.Value()));
+    }
+}
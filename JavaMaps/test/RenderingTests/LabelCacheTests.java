@@ -0,0 +1,39 @@
+package RenderingTests;
+import Rendering.Utils.*;
+import java.awt.Color;
+import java.awt.Font;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LabelCacheTests {
+    @Test
+    public void Get() {
+        LabelCache cache = new LabelCache(2, Color.WHITE, Color.BLACK);
+        Font font = new Font("Dialog", Font.BOLD, 14);
+        LabelCache.Sprite a = cache.Get("Main", font, 0.0, 40, 16);
+        assertNotNull(a.Image());
+        assertEquals(0, cache.Hits());
+        assertEquals(1, cache.Misses());
+
+        // Angles in the same bucket share the label.
+        assertSame(a, cache.Get("Main", font, 0.01, 40, 16));
+        assertEquals(1, cache.Hits());
+        assertNotSame(a, cache.Get("Main", font, 0.5, 40, 16));
+        assertEquals(2, cache.Misses());
+
+        // The least recently used label is removed.
+        cache.Get("Other", font, 0.0, 40, 16);
+        assertEquals(2, cache.Count());
+        assertNotSame(a, cache.Get("Main", font, 0.0, 40, 16));
+        assertEquals(4, cache.Misses());
+    }
+
+    @Test
+    public void AngleBucket() {
+        assertEquals(0, LabelCache.AngleBucket(0));
+        assertEquals(0, LabelCache.AngleBucket(2 * Math.PI));
+        assertEquals(LabelCache.ANGLE_BUCKETS - 1, 
+                     LabelCache.AngleBucket(-2 * Math.PI / LabelCache.ANGLE_BUCKETS));
+        assertEquals(LabelCache.ANGLE_BUCKETS / 2, LabelCache.AngleBucket(Math.PI));
+    }
+}
@@ -2,6 +2,7 @@
 package RenderingTests;
 import Core.*;
 import Rendering.Utils.*;
+import java.util.*;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -74,6 +75,31 @@ public class LineTreeTests {
         assertTrue(LineInList(list1, objects_[5]));
     }
 
+    @Test
+    public void IntersectReportsOnce() {
+        // The long line is stored in many leafs after the splits,
+        // but must be found a single time by each query.
+        LineTree tree = new LineTree(100, 100, 1);
+        Line diagonal = new Line(0, 0, 100, 100, objects_[0]);
+        tree.Add(diagonal, 0);
+
+        for(int i = 0; i < 20; i++) {
+            tree.Add(new Line(i * 5, 0, i * 5 + 1, 100, objects_[1]), 0);
+        }
+
+        LineCollection list = new LineCollection();
+        tree.Intersect(new Region2D(0, 0, 100, 100), 0, list);
+        assertEquals(21, list.Count());
+        
+        list.Clear();
+        tree.Intersect(new Region2D(0, 0, 100, 100), 0, list);
+        assertEquals(21, list.Count());
+
+        list.RetainIntersecting(0, 0, 12, 12);
+        assertEquals(4, list.Count());
+        assertTrue(list.Objects().contains(diagonal));
+    }
+
     @Test
     public void NearestLine() {
         LineTree tree = new LineTree(100, 100, 3);
@@ -90,4 +116,313 @@ public class LineTreeTests {
         nearest = tree.NearestLine(new Point(50, 50), 0);
         assertEquals(nearest.Line().Value(), objects_[1]);
     }
-}
\ No newline at end of file
+
+    private ArrayList<Line> RandomLines(Random random, int count) {
+        ArrayList<Line> lines = new ArrayList<Line>(count);
+
+        for(int i = 0; i < count; i++) {
+            double x = random.nextDouble() * 1000;
+            double y = random.nextDouble() * 1000;
+            double xb = Math.max(0, Math.min(1000, x + (random.nextDouble() - 0.5) * 100));
+            double yb = Math.max(0, Math.min(1000, y + (random.nextDouble() - 0.5) * 100));
+            lines.add(new Line(x, y, xb, yb, i));
+        }
+
+        return lines;
+    }
+
+    private HashSet<Line> IntersectSet(ILineIndex tree, Region2D region) {
+        LineCollection list = new LineCollection();
+        tree.Intersect(region, 0, list);
+        return new HashSet<Line>(list.Objects());
+    }
+
+    @Test
+    public void IntersectDelta() {
+        Random random = new Random(29);
+        LineTree tree = new LineTree(1000, 1000, 1);
+        tree.AddAll(RandomLines(random, 5000), 0);
+        Region2D previous = new Region2D(200, 200, 300, 250);
+        LineCollection entered = new LineCollection();
+        LineCollection exited = new LineCollection();
+
+        for(int i = 0; i < 100; i++) {
+            // Pan by a few units, sometimes jump to another place.
+            Region2D current = new Region2D(previous);
+
+            if(i % 20 == 0) {
+                current = new Region2D(random.nextDouble() * 700, random.nextDouble() * 700,
+                                       random.nextDouble() * 300, random.nextDouble() * 300);
+            }
+            else current.Offset((random.nextDouble() - 0.5) * 80, (random.nextDouble() - 0.5) * 80);
+
+            HashSet<Line> before = IntersectSet(tree, previous);
+            HashSet<Line> after = IntersectSet(tree, current);
+            HashSet<Line> expectedEntered = new HashSet<Line>(after);
+            HashSet<Line> expectedExited = new HashSet<Line>(before);
+            expectedEntered.removeAll(before);
+            expectedExited.removeAll(after);
+
+            entered.Clear();
+            exited.Clear();
+            tree.IntersectDelta(previous, current, 0, entered, exited);
+            assertEquals(expectedEntered.size(), entered.Count());
+            assertEquals(expectedExited.size(), exited.Count());
+            assertEquals(expectedEntered, new HashSet<Line>(entered.Objects()));
+            assertEquals(expectedExited, new HashSet<Line>(exited.Objects()));
+            previous = current;
+        }
+    }
+
+    @Test
+    public void IntersectStatistics() {
+        Random random = new Random(31);
+        ArrayList<Line> lines = RandomLines(random, 5000);
+        LineTree tree = new LineTree(1000, 1000, 1);
+        tree.AddAll(lines, 0);
+
+        // A query of the whole tree visits all nodes.
+        QueryStatistics all = new QueryStatistics();
+        LineCollection list = new LineCollection();
+        tree.Intersect(new Region2D(0, 0, 1000, 1000), 0, list, all);
+        assertEquals(1, all.Queries());
+        assertEquals(lines.size(), all.LinesFound());
+        assertEquals(lines.size(), all.LinesTested());
+        assertTrue(all.DuplicateHits() > 0); // Lines that cross leafs.
+
+        // Only the children that intersect the region are visited,
+        // a small region touches a small part of the tree.
+        QueryStatistics small = new QueryStatistics();
+        list.Clear();
+        tree.Intersect(new Region2D(100, 100, 50, 50), 0, list, small);
+        assertEquals(list.Count(), small.LinesFound());
+        assertTrue(small.LeavesScanned() * 20 < all.LeavesScanned());
+        assertTrue(small.NodesVisited() * 20 < all.NodesVisited());
+
+        small.Clear();
+        assertEquals(0, small.NodesVisited());
+    }
+
+    @Test
+    public void Nearest() {
+        Random random = new Random(23);
+        ArrayList<Line> lines = RandomLines(random, 3000);
+        LineTree tree = new LineTree(1000, 1000, 1);
+        tree.AddAll(lines, 0);
+
+        for(int i = 0; i < 100; i++) {
+            Point point = new Point(random.nextDouble() * 1000, random.nextDouble() * 1000);
+            ArrayList<LineTree.NearestInfo> list = new ArrayList<LineTree.NearestInfo>();
+            tree.Nearest(point, 0, 10, Double.MAX_VALUE, null, list);
+
+            // Compare with the distances of all lines, sorted.
+            double[] distances = new double[lines.size()];
+
+            for(int j = 0; j < distances.length; j++) {
+                distances[j] = Math.sqrt(lines.get(j).DistanceSq(point.X(), point.Y()));
+            }
+
+            Arrays.sort(distances);
+            assertEquals(10, list.size());
+            assertEquals(10, new HashSet<Object>(LineValues(list)).size());
+
+            for(int j = 0; j < 10; j++) {
+                assertEquals(distances[j], list.get(j).Distance(), 1e-9);
+            }
+        }
+
+        // Only the lines nearer than the maximum distance
+        // and accepted by the filter are returned.
+        Point point = new Point(500, 500);
+        ArrayList<LineTree.NearestInfo> list = new ArrayList<LineTree.NearestInfo>();
+        tree.Nearest(point, 0, lines.size(), 50, new ObjectFilter<Line>() {
+            public boolean Accept(Line value) {
+                return ((Integer)value.Value() % 2) == 0;
+            }
+        }, list);
+
+        int expected = 0;
+
+        for(int i = 0; i < lines.size(); i += 2) {
+            if(lines.get(i).DistanceSq(point.X(), point.Y()) < 2500) {
+                expected++;
+            }
+        }
+
+        assertEquals(expected, list.size());
+
+        for(int i = 0; i < list.size(); i++) {
+            assertEquals(0, (Integer)list.get(i).Line().Value() % 2);
+            assertTrue((i == 0) || (list.get(i - 1).Distance() <= list.get(i).Distance()));
+        }
+    }
+
+    private ArrayList<Object> LineValues(List<LineTree.NearestInfo> list) {
+        ArrayList<Object> values = new ArrayList<Object>();
+
+        for(int i = 0; i < list.size(); i++) {
+            values.add(list.get(i).Line().Value());
+        }
+
+        return values;
+    }
+
+    @Test
+    public void NearestLineReused() {
+        Random random = new Random(29);
+        ArrayList<Line> lines = RandomLines(random, 2000);
+        LineTree tree = new LineTree(1000, 1000, 2);
+        tree.AddAll(lines, 0);
+        LineTree.NearestInfo nearest = new LineTree.NearestInfo();
+
+        for(int i = 0; i < 100; i++) {
+            double x = random.nextDouble() * 1000;
+            double y = random.nextDouble() * 1000;
+            double expected = Double.MAX_VALUE;
+
+            for(int j = 0; j < lines.size(); j++) {
+                expected = Math.min(expected, lines.get(j).DistanceSq(x, y));
+            }
+
+            assertTrue(tree.NearestLine(x, y, 0, nearest));
+            assertEquals(Math.sqrt(expected), nearest.Distance(), 1e-9);
+        }
+
+        assertFalse(tree.NearestLine(500, 500, 1, nearest));
+        assertNull(nearest.Line());
+    }
+
+    @Test
+    public void ConcurrentReaders() throws Exception {
+        // The lines of the first half are always in the tree,
+        // the others are added and removed while the queries run.
+        final ArrayList<Line> lines = RandomLines(new Random(31), 2000);
+        final LineTree tree = new LineTree(1000, 1000, 1);
+        final HashSet<Line> fixed = new HashSet<Line>();
+
+        for(int i = 0; i < lines.size(); i += 2) {
+            fixed.add(lines.get(i));
+        }
+
+        tree.AddAll(fixed, 0);
+        final boolean[] failed = new boolean[1];
+        final int[] done = new int[1];
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                LineCollection list = new LineCollection();
+
+                for(int i = 0; i < 200; i++) {
+                    list.Clear();
+                    tree.Intersect(new Region2D(0, 0, 1000, 1000), 0, list);
+
+                    if(!list.Objects().containsAll(fixed)) {
+                        failed[0] = true;
+                    }
+                }
+
+                done[0] = 1;
+            }
+        };
+
+        reader.start();
+
+        while(reader.isAlive()) {
+            for(int i = 1; i < lines.size(); i += 2) {
+                tree.Add(lines.get(i), 0);
+            }
+
+            for(int i = 1; i < lines.size(); i += 2) {
+                tree.Remove(lines.get(i), 0);
+            }
+        }
+
+        reader.join();
+        assertEquals(1, done[0]);
+        assertFalse(failed[0]);
+
+        LineCollection list = new LineCollection();
+        tree.Intersect(new Region2D(0, 0, 1000, 1000), 0, list);
+        assertEquals(fixed, new HashSet<Line>(list.Objects()));
+    }
+
+    @Test
+    public void ConcurrentQueriesReportOnce() throws Exception {
+        // The long lines are found in many leafs. Queries running
+        // at the same time must still report each line a single time.
+        Random random = new Random(37);
+        final ArrayList<Line> lines = new ArrayList<Line>();
+
+        for(int i = 0; i < 500; i++) {
+            double x = random.nextDouble() * 1000;
+            double y = random.nextDouble() * 1000;
+            lines.add(new Line(x, 0, 1000 - x, 1000, i));
+            lines.add(new Line(0, y, 1000, 1000 - y, i));
+        }
+
+        final LineTree tree = new LineTree(1000, 1000, 1);
+        tree.AddAll(lines, 0);
+        final boolean[] failed = new boolean[1];
+        Thread[] readers = new Thread[4];
+
+        for(int i = 0; i < readers.length; i++) {
+            final int seed = i;
+            readers[i] = new Thread() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    LineCollection list = new LineCollection();
+                    LineCollection entered = new LineCollection();
+                    LineCollection exited = new LineCollection();
+                    ArrayList<LineTree.NearestInfo> nearest = 
+                        new ArrayList<LineTree.NearestInfo>();
+
+                    for(int j = 0; j < 200; j++) {
+                        list.Clear();
+                        tree.Intersect(new Region2D(0, 0, 1000, 1000), 0, list);
+
+                        if(list.Count() != lines.size()) {
+                            failed[0] = true;
+                        }
+
+                        entered.Clear();
+                        exited.Clear();
+                        Region2D previous = new Region2D(random.nextDouble() * 500, 
+                                                         random.nextDouble() * 500, 500, 500);
+                        tree.IntersectDelta(previous, new Region2D(0, 0, 1000, 1000),
+                                            0, entered, exited);
+
+                        if(entered.Count() != 
+                           new HashSet<Line>(entered.Objects()).size()) {
+                            failed[0] = true;
+                        }
+
+                        nearest.clear();
+                        tree.Nearest(new Point(random.nextDouble() * 1000, 
+                                               random.nextDouble() * 1000), 
+                                     0, 50, Double.MAX_VALUE, null, nearest);
+                        HashSet<Line> found = new HashSet<Line>();
+
+                        for(int k = 0; k < nearest.size(); k++) {
+                            found.add(nearest.get(k).Line());
+                        }
+
+                        if((nearest.size() != 50) || (found.size() != 50)) {
+                            failed[0] = true;
+                        }
+                    }
+                }
+            };
+        }
+
+        for(int i = 0; i < readers.length; i++) {
+            readers[i].start();
+        }
+
+        for(int i = 0; i < readers.length; i++) {
+            readers[i].join();
+        }
+
+        assertFalse(failed[0]);
+    }
+}
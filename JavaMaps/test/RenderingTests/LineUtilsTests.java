@@ -21,4 +21,31 @@ public class LineUtilsTests {
         assertEquals(1.41, LineUtils.PointLineDistance(0, 0, 0, 2, 2, 0), 0.01);
         assertEquals(2, LineUtils.PointLineDistance(2, 8, 2, 2, 2, 6), 0.01);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void ClipLine() {
+        double[] clipped = new double[4];
+
+        // Completely inside, the points are unchanged.
+        assertTrue(LineUtils.ClipLine(1, 1, 3, 4, 0, 0, 10, 10, clipped));
+        assertEquals(1, clipped[0], 0);
+        assertEquals(4, clipped[3], 0);
+
+        // Crossing the whole rectangle.
+        assertTrue(LineUtils.ClipLine(-5, 5, 15, 5, 0, 0, 10, 10, clipped));
+        assertEquals(0, clipped[0], 0.0001);
+        assertEquals(5, clipped[1], 0.0001);
+        assertEquals(10, clipped[2], 0.0001);
+        assertEquals(5, clipped[3], 0.0001);
+
+        // Leaving through the top-right corner.
+        assertTrue(LineUtils.ClipLine(5, 5, 15, -5, 0, 0, 10, 10, clipped));
+        assertEquals(5, clipped[0], 0);
+        assertEquals(10, clipped[2], 0.0001);
+        assertEquals(0, clipped[3], 0.0001);
+
+        // Outside, including a line whose bounding box intersects.
+        assertFalse(LineUtils.ClipLine(-5, -5, -1, 20, 0, 0, 10, 10, clipped));
+        assertFalse(LineUtils.ClipLine(8, -5, 15, 4, 0, 0, 10, 10, clipped));
+    }
+}
@@ -0,0 +1,45 @@
+// javamaps
+// Copyright (c) 2010 Lup Gratian
+package RenderingTests;
+import Core.*;
+import Rendering.*;
+import Rendering.Utils.*;
+import java.awt.image.BufferedImage;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class OffscreenMapRendererTests {
+    @Test
+    public void RenderCenter() {
+        OffscreenMapRenderer renderer = new OffscreenMapRenderer(new MockMapProvider());
+        BufferedImage image = renderer.Render(new Point(600, 600), 2, 320, 240);
+        assertNotNull(image);
+        assertEquals(320, image.getWidth());
+        assertEquals(240, image.getHeight());
+        assertEquals(1, renderer.Profiler().FrameCount());
+
+        // The render modules are reused.
+        renderer.Render(new Point(700, 650), 2, 320, 240);
+        assertEquals(2, renderer.Profiler().FrameCount());
+    }
+
+    @Test
+    public void RenderSmallMap() {
+        // The map at zoom level 0 (512x512) is smaller than the image.
+        OffscreenMapRenderer renderer = new OffscreenMapRenderer(new MockMapProvider());
+        renderer.SetBackground(java.awt.Color.RED);
+        BufferedImage image = renderer.Render(new Point(256, 256), 0, 800, 600);
+        assertEquals(800, image.getWidth());
+        assertEquals(java.awt.Color.RED.getRGB(), image.getRGB(5, 5));
+    }
+
+    @Test
+    public void RenderRegion() {
+        MockMapProvider provider = new MockMapProvider();
+        OffscreenMapRenderer renderer = new OffscreenMapRenderer(provider);
+        Region region = new Region(0, 0, 1000, 1000);
+        BufferedImage image = renderer.Render(region, 300, 300);
+        assertEquals(300, image.getWidth());
+        assertEquals(300, image.getHeight());
+    }
+}
@@ -0,0 +1,277 @@
+
+package RenderingTests;
+import Core.*;
+import Rendering.Utils.*;
+import java.util.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PackedLineTreeTests {
+    private ArrayList<Line> RandomLines(Random random, int count) {
+        ArrayList<Line> lines = new ArrayList<Line>(count);
+
+        for(int i = 0; i < count; i++) {
+            double x = random.nextDouble() * 1000;
+            double y = random.nextDouble() * 1000;
+            double xb = Math.max(0, Math.min(1000, x + (random.nextDouble() - 0.5) * 60));
+            double yb = Math.max(0, Math.min(1000, y + (random.nextDouble() - 0.5) * 60));
+            lines.add(new Line(x, y, xb, yb, i));
+        }
+
+        return lines;
+    }
+
+    @Test
+    public void Intersect() {
+        ArrayList<Line> lines = new ArrayList<Line>();
+        lines.add(new Line(10, 10, 20, 20, 0));
+        lines.add(new Line(60, 60, 80, 80, 1));
+        lines.add(new Line(70, 10, 20, 60, 2));
+
+        PackedLineTree tree = new PackedLineTree(100, 100, 2);
+        tree.Build(lines, 0);
+        assertEquals(3, tree.Count(0));
+        assertEquals(0, tree.Count(1));
+
+        LineCollection list = new LineCollection();
+        tree.Intersect(new Region2D(50, 50, 50, 50), 0, list);
+        assertEquals(1, list.Count());
+        assertEquals(1, list.Get(0).Value());
+
+        // The bounding box intersects, but the line doesn't.
+        list.Clear();
+        tree.Intersect(new Region2D(0, 0, 25, 25), 0, list);
+        assertEquals(1, list.Count());
+        assertEquals(0, list.Get(0).Value());
+
+        list.Clear();
+        tree.Intersect(new Region2D(0, 0, 100, 100), 1, list);
+        assertEquals(0, list.Count());
+    }
+
+    @Test
+    public void SameAsLineTree() {
+        Random random = new Random(17);
+        ArrayList<Line> lines = RandomLines(random, 5000);
+        LineTree lineTree = new LineTree(1000, 1000, 1);
+        lineTree.AddAll(lines, 0);
+        PackedLineTree tree = new PackedLineTree(1000, 1000, 1);
+        tree.Build(lines, 0);
+
+        LineCollection expected = new LineCollection();
+        LineCollection list = new LineCollection();
+
+        for(int i = 0; i < 100; i++) {
+            Region2D region = new Region2D(random.nextDouble() * 900, random.nextDouble() * 900,
+                                           random.nextDouble() * 100, random.nextDouble() * 100);
+            expected.Clear();
+            list.Clear();
+            lineTree.Intersect(region, 0, expected);
+            tree.Intersect(region, 0, list);
+            assertEquals(new HashSet<Line>(expected.Objects()).size(), list.Count());
+            assertTrue(expected.Objects().containsAll(list.Objects()));
+
+            Point point = new Point(random.nextDouble() * 1000, random.nextDouble() * 1000);
+            LineTree.NearestInfo nearest = tree.NearestLine(point, 0);
+            assertEquals(lineTree.NearestLine(point, 0).Distance(), nearest.Distance(), 1e-9);
+            assertEquals(nearest.Distance(), Math.sqrt(nearest.Line().DistanceSq(point.X(), point.Y())), 1e-9);
+        }
+    }
+
+    @Test
+    public void NearestLine() {
+        PackedLineTree tree = new PackedLineTree(100, 100, 1);
+        assertNull(tree.NearestLine(new Point(50, 50), 0));
+
+        ArrayList<Line> lines = new ArrayList<Line>();
+        lines.add(new Line(10, 10, 20, 10, 0));
+        lines.add(new Line(10, 50, 90, 50, 1));
+        tree.Build(lines, 0);
+
+        LineTree.NearestInfo nearest = tree.NearestLine(new Point(50, 45), 0);
+        assertEquals(1, nearest.Line().Value());
+        assertEquals(5, nearest.Distance(), 1e-9);
+
+        tree.ClearLevel(0);
+        assertNull(tree.NearestLine(new Point(50, 45), 0));
+    }
+
+    @Test
+    public void GetLines() {
+        ArrayList<Line> lines = RandomLines(new Random(3), 1000);
+        PackedLineTree tree = new PackedLineTree(1000, 1000, 1);
+        tree.Build(lines, 0);
+
+        ArrayList<Line> result = new ArrayList<Line>();
+        tree.GetLines(0, result);
+        assertEquals(lines.size(), result.size());
+        assertTrue(result.containsAll(lines));
+    }
+
+    private HashSet<Line> IntersectSet(ILineIndex tree, Region2D region) {
+        LineCollection list = new LineCollection();
+        tree.Intersect(region, 0, list);
+        return new HashSet<Line>(list.Objects());
+    }
+
+    @Test
+    public void IntersectDelta() {
+        Random random = new Random(29);
+        PackedLineTree tree = new PackedLineTree(1000, 1000, 1);
+        tree.Build(RandomLines(random, 5000), 0);
+        Region2D previous = new Region2D(200, 200, 300, 250);
+        LineCollection entered = new LineCollection();
+        LineCollection exited = new LineCollection();
+
+        for(int i = 0; i < 100; i++) {
+            // Pan by a few units, sometimes jump to another place.
+            Region2D current = new Region2D(previous);
+
+            if(i % 20 == 0) {
+                current = new Region2D(random.nextDouble() * 700, random.nextDouble() * 700,
+                                       random.nextDouble() * 300, random.nextDouble() * 300);
+            }
+            else current.Offset((random.nextDouble() - 0.5) * 80, (random.nextDouble() - 0.5) * 80);
+
+            HashSet<Line> before = IntersectSet(tree, previous);
+            HashSet<Line> after = IntersectSet(tree, current);
+            HashSet<Line> expectedEntered = new HashSet<Line>(after);
+            HashSet<Line> expectedExited = new HashSet<Line>(before);
+            expectedEntered.removeAll(before);
+            expectedExited.removeAll(after);
+
+            entered.Clear();
+            exited.Clear();
+            tree.IntersectDelta(previous, current, 0, entered, exited);
+            assertEquals(expectedEntered.size(), entered.Count());
+            assertEquals(expectedExited.size(), exited.Count());
+            assertEquals(expectedEntered, new HashSet<Line>(entered.Objects()));
+            assertEquals(expectedExited, new HashSet<Line>(exited.Objects()));
+            previous = current;
+        }
+    }
+
+    @Test
+    public void Nearest() {
+        Random random = new Random(23);
+        ArrayList<Line> lines = RandomLines(random, 3000);
+        PackedLineTree tree = new PackedLineTree(1000, 1000, 1);
+        tree.Build(lines, 0);
+
+        for(int i = 0; i < 100; i++) {
+            Point point = new Point(random.nextDouble() * 1000, random.nextDouble() * 1000);
+            ArrayList<LineTree.NearestInfo> list = new ArrayList<LineTree.NearestInfo>();
+            tree.Nearest(point, 0, 10, Double.MAX_VALUE, null, list);
+
+            // Compare with the distances of all lines, sorted.
+            double[] distances = new double[lines.size()];
+
+            for(int j = 0; j < distances.length; j++) {
+                distances[j] = Math.sqrt(lines.get(j).DistanceSq(point.X(), point.Y()));
+            }
+
+            Arrays.sort(distances);
+            assertEquals(10, list.size());
+            assertEquals(10, new HashSet<Object>(LineValues(list)).size());
+
+            for(int j = 0; j < 10; j++) {
+                assertEquals(distances[j], list.get(j).Distance(), 1e-9);
+            }
+        }
+
+        // Only the lines nearer than the maximum distance
+        // and accepted by the filter are returned.
+        Point point = new Point(500, 500);
+        ArrayList<LineTree.NearestInfo> list = new ArrayList<LineTree.NearestInfo>();
+        tree.Nearest(point, 0, lines.size(), 50, new ObjectFilter<Line>() {
+            public boolean Accept(Line value) {
+                return ((Integer)value.Value() % 2) == 0;
+            }
+        }, list);
+
+        int expected = 0;
+
+        for(int i = 0; i < lines.size(); i += 2) {
+            if(lines.get(i).DistanceSq(point.X(), point.Y()) < 2500) {
+                expected++;
+            }
+        }
+
+        assertEquals(expected, list.size());
+
+        for(int i = 0; i < list.size(); i++) {
+            assertEquals(0, (Integer)list.get(i).Line().Value() % 2);
+            assertTrue((i == 0) || (list.get(i - 1).Distance() <= list.get(i).Distance()));
+        }
+    }
+
+    @Test
+    public void NearestSingleLine() {
+        // The only line of the level is also the root of the tree.
+        ArrayList<Line> lines = new ArrayList<Line>();
+        lines.add(new Line(900, 900, 910, 900, 0));
+        PackedLineTree tree = new PackedLineTree(1000, 1000, 1);
+        tree.Build(lines, 0);
+
+        ArrayList<LineTree.NearestInfo> list = new ArrayList<LineTree.NearestInfo>();
+        tree.Nearest(new Point(100, 100), 0, 1, 10, null, list);
+        assertEquals(0, list.size());
+
+        tree.Nearest(new Point(100, 100), 0, 1, Double.MAX_VALUE, new ObjectFilter<Line>() {
+            public boolean Accept(Line value) {
+                return false;
+            }
+        }, list);
+        assertEquals(0, list.size());
+
+        tree.Nearest(new Point(905, 903), 0, 1, 10, null, list);
+        assertEquals(1, list.size());
+        assertEquals(3, list.get(0).Distance(), 1e-9);
+    }
+
+    @Test
+    public void SaveLoad() {
+        Random random = new Random(23);
+        ArrayList<Line> lines = RandomLines(random, 3000);
+        PackedLineTree tree = new PackedLineTree(1000, 1000, 1);
+        tree.Build(lines, 0);
+        IndexStore.Data data = new IndexStore.Data();
+        assertTrue(tree.Save(lines, 0, data));
+        assertEquals(3, data.Count());
+
+        PackedLineTree loaded = new PackedLineTree(1000, 1000, 1);
+        assertTrue(loaded.Load(lines, 0, data, 0));
+        assertEquals(tree.Count(0), loaded.Count(0));
+
+        for(int i = 0; i < 50; i++) {
+            Region2D region = new Region2D(random.nextDouble() * 900,
+                                           random.nextDouble() * 900, 100, 100);
+            LineCollection expected = new LineCollection();
+            LineCollection actual = new LineCollection();
+            tree.Intersect(region, 0, expected);
+            loaded.Intersect(region, 0, actual);
+            assertEquals(expected.Count(), actual.Count());
+
+            for(int j = 0; j < expected.Count(); j++) {
+                assertSame(expected.Get(j), actual.Get(j));
+            }
+        }
+
+        // Data that doesn't match the lines is rejected.
+        assertFalse(loaded.Load(lines.subList(0, 2999), 0, data, 0));
+        int[] order = data.Ints(0);
+        order[1] = order[0];
+        assertFalse(loaded.Load(lines, 0, data, 0));
+        assertFalse(loaded.Load(lines, 0, new IndexStore.Data(), 0));
+    }
+
+    private ArrayList<Object> LineValues(List<LineTree.NearestInfo> list) {
+        ArrayList<Object> values = new ArrayList<Object>();
+
+        for(int i = 0; i < list.size(); i++) {
+            values.add(list.get(i).Line().Value());
+        }
+
+        return values;
+    }
+}
@@ -0,0 +1,125 @@
+package RenderingTests;
+import Rendering.Utils.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ParallelTasksTests {
+    @Test
+    public void ForRange() {
+        final int[] visits = new int[10000];
+        int previous = ParallelTasks.Parallelism();
+        ParallelTasks.SetParallelism(4);
+
+        // Each item must be visited exactly once.
+        ParallelTasks.ForRange(visits.length, 16, new ParallelTasks.RangeTask() {
+            public void Run(int first, int last) {
+                for(int i = first; i < last; i++) {
+                    visits[i]++;
+                }
+            }
+        });
+
+        for(int i = 0; i < visits.length; i++) {
+            assertEquals(1, visits[i]);
+        }
+
+        ParallelTasks.SetParallelism(previous);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void Exception() {
+        int previous = ParallelTasks.Parallelism();
+        ParallelTasks.SetParallelism(2);
+
+        try {
+            ParallelTasks.ForRange(1000, 10, new ParallelTasks.RangeTask() {
+                public void Run(int first, int last) {
+                    throw new IllegalStateException();
+                }
+            });
+        }
+        finally {
+            ParallelTasks.SetParallelism(previous);
+        }
+    }
+
+    @Test
+    public void FailureStopsBatches() {
+        // The first batch fails. When the exception reaches the caller
+        // no batch may still run and the queued ones must be skipped.
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger started = new AtomicInteger();
+        int previous = ParallelTasks.Parallelism();
+        ParallelTasks.SetParallelism(2);
+
+        try {
+            ParallelTasks.ForRange(1000, 10, new ParallelTasks.RangeTask() {
+                public void Run(int first, int last) {
+                    started.incrementAndGet();
+
+                    if(first == 0) {
+                        throw new IllegalStateException();
+                    }
+
+                    running.incrementAndGet();
+
+                    try {
+                        Thread.sleep(20);
+                    }
+                    catch(InterruptedException e) {}
+
+                    running.decrementAndGet();
+                }
+            });
+
+            fail();
+        }
+        catch(IllegalStateException e) {
+            assertEquals(0, running.get());
+            assertTrue(started.get() < 8);
+        }
+        finally {
+            ParallelTasks.SetParallelism(previous);
+        }
+    }
+
+    @Test
+    public void Nested() throws Exception {
+        // A task that calls ForRange again must not wait
+        // for the threads of the pool, which are all busy.
+        final int[] visits = new int[100 * 100];
+        int previous = ParallelTasks.Parallelism();
+        ParallelTasks.SetParallelism(2);
+
+        Thread caller = new Thread() {
+            @Override
+            public void run() {
+                ParallelTasks.ForRange(100, 1, new ParallelTasks.RangeTask() {
+                    public void Run(int first, int last) {
+                        for(int i = first; i < last; i++) {
+                            final int row = i;
+                            ParallelTasks.ForRange(100, 1, new ParallelTasks.RangeTask() {
+                                public void Run(int first, int last) {
+                                    for(int j = first; j < last; j++) {
+                                        visits[row * 100 + j]++;
+                                    }
+                                }
+                            });
+                        }
+                    }
+                });
+            }
+        };
+
+        caller.setDaemon(true);
+        caller.start();
+        caller.join(10000);
+        ParallelTasks.SetParallelism(previous);
+        assertFalse(caller.isAlive());
+
+        for(int i = 0; i < visits.length; i++) {
+            assertEquals(1, visits[i]);
+        }
+    }
+}
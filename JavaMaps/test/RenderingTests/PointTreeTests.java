@@ -229,4 +229,322 @@ public class PointTreeTests {
         tree.Clear();
         assertEquals(0, tree.Count());
     }
-}
\ No newline at end of file
+
+    private static ArrayList<TestObject> RandomObjects(int count, long seed) {
+        // Some of the points are on the borders of the nodes
+        // and some are found in the same place.
+        Random random = new Random(seed);
+        ArrayList<TestObject> list = new ArrayList<TestObject>(count);
+
+        for(int i = 0; i < count; i++) {
+            Point point = (i % 10 == 0) ? new Point(random.nextInt(9) * 12.5, random.nextInt(9) * 12.5) :
+                          new Point(random.nextDouble() * 100, random.nextDouble() * 100);
+            list.add(new TestObject(ObjectId.NewId(), point));
+        }
+
+        return list;
+    }
+
+    private static HashSet<TestObject> IntersectSet(PointTree<TestObject> tree, Region2D region) {
+        BasicCollection<TestObject> list = new BasicCollection<TestObject>();
+        tree.Intersect(region, list);
+        return new HashSet<TestObject>(list.Objects());
+    }
+
+    @Test
+    public void BulkLoad() {
+        ArrayList<TestObject> objects = RandomObjects(2000, 7);
+        PointTree<TestObject> incremental = new PointTree<TestObject>(100, 100);
+
+        for(int i = 0; i < objects.size(); i++) {
+            incremental.Add(objects.get(i));
+        }
+
+        PointTree<TestObject> bulk = new PointTree<TestObject>(100, 100, objects);
+        assertEquals(incremental.Count(), bulk.Count());
+        Random random = new Random(3);
+
+        for(int i = 0; i < 200; i++) {
+            Region2D region = new Region2D(random.nextDouble() * 100, random.nextDouble() * 100,
+                                           random.nextDouble() * 30, random.nextDouble() * 30);
+            assertEquals(IntersectSet(incremental, region), IntersectSet(bulk, region));
+
+            Point point = new Point(random.nextDouble() * 100, random.nextDouble() * 100);
+            assertEquals(incremental.NearestPoint(point).Distance(),
+                         bulk.NearestPoint(point).Distance(), 0);
+        }
+
+        // The tree can be modified after it was built.
+        for(int i = 0; i < objects.size(); i += 2) {
+            assertSame(objects.get(i), bulk.Find(objects.get(i)));
+            bulk.Remove(objects.get(i));
+        }
+
+        assertEquals(1000, bulk.Count());
+        bulk.Add(objects.get(0));
+        assertSame(objects.get(0), bulk.Find(objects.get(0)));
+    }
+
+    @Test
+    public void IntersectDelta() {
+        PointTree<TestObject> tree = new PointTree<TestObject>(100, 100, RandomObjects(3000, 13));
+        Random random = new Random(5);
+        Region2D previous = new Region2D(20, 20, 30, 25);
+        BasicCollection<TestObject> entered = new BasicCollection<TestObject>();
+        BasicCollection<TestObject> exited = new BasicCollection<TestObject>();
+
+        for(int i = 0; i < 200; i++) {
+            // Pan by a few units, sometimes jump to another place.
+            Region2D current = new Region2D(previous);
+
+            if(i % 20 == 0) {
+                current = new Region2D(random.nextDouble() * 70, random.nextDouble() * 70,
+                                       random.nextDouble() * 30, random.nextDouble() * 30);
+            }
+            else current.Offset((random.nextDouble() - 0.5) * 8, (random.nextDouble() - 0.5) * 8);
+
+            HashSet<TestObject> before = IntersectSet(tree, previous);
+            HashSet<TestObject> after = IntersectSet(tree, current);
+            HashSet<TestObject> expectedEntered = new HashSet<TestObject>(after);
+            HashSet<TestObject> expectedExited = new HashSet<TestObject>(before);
+            expectedEntered.removeAll(before);
+            expectedExited.removeAll(after);
+
+            entered.Clear();
+            exited.Clear();
+            tree.IntersectDelta(previous, current, entered, exited);
+            assertEquals(expectedEntered.size(), entered.Count());
+            assertEquals(expectedExited.size(), exited.Count());
+            assertEquals(expectedEntered, new HashSet<TestObject>(entered.Objects()));
+            assertEquals(expectedExited, new HashSet<TestObject>(exited.Objects()));
+            previous = current;
+        }
+
+        // Nothing changes if the region is the same.
+        entered.Clear();
+        exited.Clear();
+        tree.IntersectDelta(previous, previous, entered, exited);
+        assertEquals(0, entered.Count());
+        assertEquals(0, exited.Count());
+    }
+
+    private static double WeightOf(TestObject value) {
+        return (value.Id().Id() % 5) + 0.5;
+    }
+
+    private static void CheckCounts(PointTree<TestObject> tree, long seed) {
+        Random random = new Random(seed);
+
+        for(int i = 0; i < 200; i++) {
+            Region2D region = new Region2D(random.nextDouble() * 100, random.nextDouble() * 100,
+                                           random.nextDouble() * 50, random.nextDouble() * 50);
+            HashSet<TestObject> expected = IntersectSet(tree, region);
+            double sum = 0;
+
+            for(TestObject value : expected) {
+                sum += WeightOf(value);
+            }
+
+            assertEquals(expected.size(), tree.Count(region));
+            assertEquals(sum, tree.Sum(region), 1e-6);
+        }
+
+        assertEquals(tree.Count(), tree.Count(new Region2D(0, 0, 100, 100)));
+    }
+
+    @Test
+    public void CountRegion() {
+        ObjectWeight<TestObject> weight = new ObjectWeight<TestObject>() {
+            public double Weight(TestObject value) {
+                return WeightOf(value);
+            }
+        };
+
+        // Built by adding the points one by one.
+        ArrayList<TestObject> objects = RandomObjects(3000, 17);
+        PointTree<TestObject> tree = new PointTree<TestObject>(100, 100, weight);
+
+        for(int i = 0; i < objects.size(); i++) {
+            tree.Add(objects.get(i));
+        }
+
+        CheckCounts(tree, 1);
+
+        for(int i = 0; i < objects.size(); i += 3) {
+            tree.Remove(objects.get(i));
+        }
+
+        CheckCounts(tree, 2);
+
+        // Bulk loaded, including the subtrees built in parallel.
+        tree = new PointTree<TestObject>(100, 100, weight);
+        tree.AddAll(objects);
+        CheckCounts(tree, 3);
+
+        tree = new PointTree<TestObject>(100, 100, weight);
+        tree.AddAll(RandomObjects(70000, 19));
+        CheckCounts(tree, 4);
+
+        // Without weights the sum is the count.
+        PointTree<TestObject> unweighted = new PointTree<TestObject>(100, 100, objects);
+        Region2D region = new Region2D(10, 20, 30, 40);
+        assertEquals(unweighted.Count(region), unweighted.Sum(region), 0);
+        assertEquals(IntersectSet(unweighted, region).size(), unweighted.Count(region));
+    }
+
+    @Test
+    public void Nearest() {
+        ArrayList<TestObject> objects = RandomObjects(2000, 11);
+        PointTree<TestObject> tree = new PointTree<TestObject>(100, 100, objects);
+        Random random = new Random(5);
+
+        for(int i = 0; i < 100; i++) {
+            final Point point = new Point(random.nextDouble() * 100, random.nextDouble() * 100);
+            ArrayList<PointTree<TestObject>.NearestInfo> list =
+                new ArrayList<PointTree<TestObject>.NearestInfo>();
+            tree.Nearest(point, 10, list);
+
+            // Compare with the distances of all points, sorted.
+            double[] distances = new double[objects.size()];
+
+            for(int j = 0; j < distances.length; j++) {
+                distances[j] = point.Distance(objects.get(j).Position());
+            }
+
+            Arrays.sort(distances);
+            assertEquals(10, list.size());
+
+            for(int j = 0; j < 10; j++) {
+                assertEquals(distances[j], list.get(j).Distance(), 1e-9);
+            }
+        }
+
+        // Only the points nearer than the maximum distance
+        // and accepted by the filter are returned.
+        final Point point = new Point(50, 50);
+        ArrayList<PointTree<TestObject>.NearestInfo> list =
+            new ArrayList<PointTree<TestObject>.NearestInfo>();
+        tree.Nearest(point, objects.size(), 10, new ObjectFilter<TestObject>() {
+            public boolean Accept(TestObject value) {
+                return value.Position().X() < 50;
+            }
+        }, list);
+
+        int expected = 0;
+
+        for(int i = 0; i < objects.size(); i++) {
+            Point position = objects.get(i).Position();
+
+            if((position.X() < 50) && (point.Distance(position) < 10)) {
+                expected++;
+            }
+        }
+
+        assertEquals(expected, list.size());
+
+        for(int i = 0; i < list.size(); i++) {
+            assertTrue(list.get(i).X() < 50);
+            assertTrue(list.get(i).Distance() < 10);
+            assertTrue((i == 0) || (list.get(i - 1).Distance() <= list.get(i).Distance()));
+        }
+
+        list.clear();
+        new PointTree<TestObject>(100, 100).Nearest(point, 5, list);
+        assertEquals(0, list.size());
+    }
+
+    @Test
+    public void NearestPointReused() {
+        ArrayList<TestObject> objects = RandomObjects(1000, 13);
+        final PointTree<TestObject> tree = new PointTree<TestObject>(100, 100, objects);
+        PointTree<TestObject>.NearestInfo nearest = tree.new NearestInfo();
+        Random random = new Random(9);
+
+        for(int i = 0; i < 100; i++) {
+            double x = random.nextDouble() * 100;
+            double y = random.nextDouble() * 100;
+            double expected = Double.MAX_VALUE;
+
+            for(int j = 0; j < objects.size(); j++) {
+                expected = Math.min(expected, new Point(x, y).Distance(objects.get(j).Position()));
+            }
+
+            assertTrue(tree.NearestPoint(x, y, nearest));
+            assertEquals(expected, nearest.Distance(), 1e-9);
+        }
+
+        assertFalse(new PointTree<TestObject>(100, 100).NearestPoint(50, 50, nearest));
+        assertNull(nearest.Value());
+
+        // A query can be run while another one is in progress.
+        final Region2D region = new Region2D(20, 20, 30, 30);
+        final HashSet<TestObject> expected = IntersectSet(tree, region);
+        final int[] nested = new int[1];
+        ObjectCollection<TestObject> list = new ObjectCollection<TestObject>() {
+            public void Add(TestObject value) {
+                assertEquals(expected, IntersectSet(tree, region));
+                nested[0]++;
+            }
+
+            public boolean Valid(TestObject value) { return true; }
+            public void Remove(TestObject value) {}
+            public int Count() { return nested[0]; }
+            public void Clear() {}
+            public Collection<TestObject> Objects() { return null; }
+        };
+
+        tree.Intersect(region, list);
+        assertEquals(expected.size(), nested[0]);
+    }
+
+    @Test
+    public void ConcurrentReaders() throws Exception {
+        // The points of the first half are always in the tree,
+        // the others are added and removed while the queries run.
+        final ArrayList<TestObject> objects = RandomObjects(2000, 17);
+        final PointTree<TestObject> tree = new PointTree<TestObject>(100, 100);
+        final HashSet<TestObject> fixed = new HashSet<TestObject>();
+
+        for(int i = 0; i < objects.size(); i += 2) {
+            tree.Add(objects.get(i));
+            fixed.add(objects.get(i));
+        }
+
+        final boolean[] failed = new boolean[1];
+        final int[] done = new int[1];
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                Region2D region = new Region2D(0, 0, 100, 100);
+
+                for(int i = 0; i < 200; i++) {
+                    HashSet<TestObject> found = IntersectSet(tree, region);
+
+                    if(!found.containsAll(fixed)) {
+                        failed[0] = true;
+                    }
+                }
+
+                done[0] = 1;
+            }
+        };
+
+        reader.start();
+
+        while(reader.isAlive()) {
+            for(int i = 1; i < objects.size(); i += 2) {
+                tree.Add(objects.get(i));
+            }
+
+            for(int i = 1; i < objects.size(); i += 2) {
+                tree.Remove(objects.get(i));
+            }
+        }
+
+        reader.join();
+        assertEquals(1, done[0]);
+        assertFalse(failed[0]);
+        assertEquals(fixed.size(), tree.Count());
+        assertEquals(fixed, IntersectSet(tree, new Region2D(0, 0, 100, 100)));
+    }
+}
@@ -0,0 +1,76 @@
+package RenderingTests;
+import Core.*;
+import Rendering.Utils.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PolylineTests {
+    private Polyline CreatePolyline(Object value) {
+        // A zig-zag line going from left to right.
+        return new Polyline(new double[] {
+            0, 0,  10, 10,  20, 0,  30, 10,  40, 0,  50, 10,  60, 0
+        }, value);
+    }
+
+    @Test
+    public void Chunks() {
+        Polyline polyline = CreatePolyline(null);
+        assertEquals(7, polyline.PointCount());
+        assertEquals(6, polyline.SegmentCount());
+
+        PolylineChunk[] chunks = polyline.CreateChunks(4);
+        assertEquals(2, chunks.length);
+        assertEquals(0, chunks[0].FirstSegment());
+        assertEquals(4, chunks[0].LastSegment());
+        assertEquals(4, chunks[1].FirstSegment());
+        assertEquals(6, chunks[1].LastSegment());
+
+        // The coordinates are the bounding box.
+        assertEquals(40, chunks[1].Left(), 0.001);
+        assertEquals(0, chunks[1].Top(), 0.001);
+        assertEquals(60, chunks[1].Right(), 0.001);
+        assertEquals(10, chunks[1].Bottom(), 0.001);
+    }
+
+    @Test
+    public void IntersectsRect() {
+        PolylineChunk chunk = CreatePolyline(null).CreateChunks(16)[0];
+        assertTrue(chunk.IntersectsRect(8, 8, 12, 12));
+        assertTrue(chunk.IntersectsRect(-5, -5, 100, 100));
+
+        // Inside the bounding box, but between the segments.
+        assertFalse(chunk.IntersectsRect(18, 6, 22, 9));
+        assertFalse(chunk.IntersectsRect(70, 0, 80, 10));
+    }
+
+    @Test
+    public void DistanceSq() {
+        PolylineChunk chunk = CreatePolyline(null).CreateChunks(16)[0];
+        assertEquals(0, chunk.DistanceSq(10, 10), 0.001);
+        assertEquals(100, chunk.DistanceSq(70, 0), 0.001);
+    }
+
+    @Test
+    public void Tree() {
+        ObjectId id = ObjectId.NewId();
+        LineTree tree = new LineTree(100, 100, 1);
+        PolylineChunk[] chunks = CreatePolyline(id).CreateChunks(2);
+
+        for(int i = 0; i < chunks.length; i++) {
+            tree.Add(chunks[i], 0);
+        }
+
+        LineCollection list = new LineCollection();
+        tree.Intersect(new Region2D(42, 0, 2, 10), 0, list);
+        assertEquals(1, list.Count());
+        assertSame(chunks[2], list.Objects().iterator().next());
+
+        LineTree.NearestInfo nearest = tree.NearestLine(new Point(58, 3), 0);
+        assertSame(chunks[2], nearest.Line());
+
+        tree.Remove(chunks[2], 0);
+        list.Clear();
+        tree.Intersect(new Region2D(42, 0, 2, 10), 0, list);
+        assertEquals(0, list.Count());
+    }
+}
@@ -0,0 +1,83 @@
+package RenderingTests;
+import Core.*;
+import Rendering.Renderers.*;
+import Rendering.Utils.*;
+import java.util.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class StreetDetailTests {
+    private Polyline CreateStreet(StreetType type, double y, double length) {
+        double[] points = new double[] { 0, y, length, y };
+        return new Polyline(points, new Street(ObjectId.NewId(), type));
+    }
+
+    @Test
+    public void Ranking() {
+        ArrayList<Polyline> streets = new ArrayList<Polyline>();
+        streets.add(CreateStreet(StreetType.Street, 10, 100));
+        streets.add(CreateStreet(StreetType.Boulevard, 20, 100));
+        streets.add(CreateStreet(StreetType.Street, 30, 200));
+        streets.add(CreateStreet(StreetType.Street, 40, 100));
+
+        // The last street meets other streets, the first one doesn't.
+        HashMap<ObjectId, Integer> junctions = new HashMap<ObjectId, Integer>();
+        junctions.put(((Street)streets.get(3).Value()).Id(), 4);
+
+        StreetDetail detail = new StreetDetail(streets, junctions, 1);
+        assertEquals(1, detail.Ranked(0));
+        assertEquals(2, detail.Ranked(1));
+        assertEquals(3, detail.Ranked(2));
+        assertEquals(0, detail.Ranked(3));
+    }
+
+    @Test
+    public void Select() {
+        // 100 parallel streets in a single 128x128 cell.
+        ArrayList<Polyline> streets = new ArrayList<Polyline>();
+
+        for(int i = 0; i < 100; i++) {
+            streets.add(CreateStreet(StreetType.Street, i, 100));
+        }
+
+        StreetDetail detail = new StreetDetail(streets, new HashMap<ObjectId, Integer>(), 2);
+        boolean[] selected = detail.Select(1, 1, 128, 128, 128);
+        int count = 0;
+
+        for(int i = 0; i < selected.length; i++) {
+            if(selected[i]) count++;
+        }
+
+        // At most 2 cell widths (256 pixels) of streets.
+        assertEquals(3, count);
+
+        // At half the size all streets fall in a quarter of the cell.
+        selected = detail.Select(0.5, 0.5, 128, 128, 128);
+        count = 0;
+
+        for(int i = 0; i < selected.length; i++) {
+            if(selected[i]) count++;
+        }
+
+        assertEquals(6, count);
+    }
+
+    @Test
+    public void SelectVisible() {
+        // The long avenue is ranked first, but it's not drawn,
+        // so it must not take the place of the boulevard.
+        ArrayList<Polyline> streets = new ArrayList<Polyline>();
+        streets.add(CreateStreet(StreetType.Avenue, 10, 1000));
+        streets.add(CreateStreet(StreetType.Boulevard, 20, 100));
+        StreetDetail detail = new StreetDetail(streets, new HashMap<ObjectId, Integer>(), 0.5);
+        assertEquals(0, detail.Ranked(0));
+
+        boolean[] selected = detail.Select(0.1, 0.1, 128, 128, 128);
+        assertTrue(selected[0]);
+        assertFalse(selected[1]);
+
+        selected = detail.Select(0.1, 0.1, 128, 128, 128, new boolean[] { false, true });
+        assertFalse(selected[0]);
+        assertTrue(selected[1]);
+    }
+}
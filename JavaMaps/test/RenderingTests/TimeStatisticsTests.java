@@ -0,0 +1,45 @@
+// javamaps
+// Copyright (c) 2010 Lup Gratian
+package RenderingTests;
+import Rendering.Utils.TimeStatistics;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TimeStatisticsTests {
+    @Test
+    public void Percentile() {
+        TimeStatistics stats = new TimeStatistics(100);
+        assertEquals(0, stats.Percentile(50));
+
+        for(int i = 100; i >= 1; i--) {
+            stats.Add(i);
+        }
+
+        assertEquals(100, stats.Count());
+        assertEquals(50, stats.Percentile(50));
+        assertEquals(95, stats.Percentile(95));
+        assertEquals(99, stats.Percentile(99));
+        assertEquals(100, stats.Maximum());
+        assertEquals(1, stats.Percentile(0));
+    }
+
+    @Test
+    public void Window() {
+        TimeStatistics stats = new TimeStatistics(4);
+
+        // Only the last 4 samples are kept.
+        for(int i = 1; i <= 10; i++) {
+            stats.Add(i * 10);
+        }
+
+        assertEquals(4, stats.Count());
+        assertEquals(10, stats.TotalCount());
+        assertEquals(100, stats.Last());
+        assertEquals(70, stats.Percentile(0));
+        assertEquals(85, stats.Average());
+
+        stats.Clear();
+        assertEquals(0, stats.Count());
+        assertEquals(0, stats.Average());
+    }
+}